@@ -0,0 +1,153 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * AsOfConverter - Converts amounts at the rates in effect at a past instant.
+ * Rates come from a RateHistoryStore: the rate in effect at time t is the last one
+ * stamped at or before t. Lookups binary-search the mapped time column, and a cursor
+ * per currency remembers the last entry found, so time-ordered work such as revaluing
+ * a ledger mostly hits the cursor or the entry after it without searching. The net rate
+ * of each pair is kept until either side's entry or the fee changes, so consecutive
+ * rows on the same day skip deriving it again.
+ *
+ * Results match ConversionEngine.convert() against a snapshot holding the same rates.
+ * The cursors make an instance unsafe to share; use one per thread.
+ */
+public final class AsOfConverter {
+    private static final long USD_RATE = FixedPoint.pow10(ConversionEngine.RATE_SCALE);
+    private static final long CROSS_ONE = FixedPoint.pow10(ConversionEngine.CROSS_SCALE);
+    // Entry index used for USD, whose rate never changes
+    private static final int USD_ENTRY = -1;
+    // Marks a pair whose net rate has not been derived yet
+    private static final int NO_ENTRY = Integer.MIN_VALUE;
+
+    private final RateHistoryStore history;
+    private final CurrencyRegistry registry;
+    // Last entry index found per currency id, or -1
+    private final int[] cursors;
+    private final int size;
+    // Net rate last derived per pair [from * size + to], with the entries and fee it came from
+    private final long[] pairRates;
+    private final int[] pairFromEntries;
+    private final int[] pairToEntries;
+    private long pairFeePpm;
+
+    /**
+     * Creates a converter over a history store
+     * @param history store holding each currency's rate timeline
+     */
+    public AsOfConverter(RateHistoryStore history) {
+        this.history = history;
+        registry = history.registry();
+        size = registry.size();
+        cursors = new int[size];
+        Arrays.fill(cursors, -1);
+        pairRates = new long[size * size];
+        pairFromEntries = new int[size * size];
+        pairToEntries = new int[size * size];
+        Arrays.fill(pairFromEntries, NO_ENTRY);
+    }
+
+    /**
+     * Gets the rate of a currency in effect at an instant
+     * @param id currency id
+     * @param timestampMillis instant in epoch milliseconds
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAsOf(int id, long timestampMillis) {
+        return entryRate(id, entryAsOf(id, timestampMillis));
+    }
+
+    /**
+     * Finds the history entry in effect at an instant, trying the cursor and the entry
+     * after it before falling back to a binary search, and moves the cursor there
+     * @param id currency id
+     * @param timestampMillis instant in epoch milliseconds
+     * @return entry index, or USD_ENTRY for USD
+     */
+    private int entryAsOf(int id, long timestampMillis) {
+        if (id == ConversionEngine.USD_ID) {
+            return USD_ENTRY;
+        }
+        int index = history.indexAsOf(id, timestampMillis, cursors[id]);
+        if (index < 0) {
+            throw new IllegalArgumentException("No " + registry.code(id) + " rate on or before " + timestampMillis);
+        }
+        cursors[id] = index;
+        return index;
+    }
+
+    /**
+     * Converts between any two currencies at the rates in effect at an instant, net of the fee
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param timestampMillis instant in epoch milliseconds
+     * @return amount in the target currency's minor units
+     */
+    public long convertAsOf(long amount, int fromId, int toId, long feePpm, long timestampMillis) {
+        return FixedPoint.mulDiv(amount, netRateAsOf(fromId, toId, feePpm, timestampMillis), CROSS_ONE,
+                registry.roundingMode(toId));
+    }
+
+    /**
+     * Gets the fee-inclusive cross rate of a pair at an instant, deriving it only when
+     * one side's history entry or the fee differs from the last call for the pair
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param timestampMillis instant in epoch milliseconds
+     * @return net cross rate at CROSS_SCALE
+     */
+    private long netRateAsOf(int fromId, int toId, long feePpm, long timestampMillis) {
+        if (fromId == toId && feePpm == 0) {
+            return CROSS_ONE;
+        }
+        if (feePpm != pairFeePpm) {
+            Arrays.fill(pairFromEntries, NO_ENTRY);
+            pairFeePpm = feePpm;
+        }
+        int fromEntry = entryAsOf(fromId, timestampMillis);
+        int toEntry = entryAsOf(toId, timestampMillis);
+        int pair = fromId * size + toId;
+        if (pairFromEntries[pair] == fromEntry && pairToEntries[pair] == toEntry) {
+            return pairRates[pair];
+        }
+
+        long rate = fromId == toId ? CROSS_ONE
+                : RateSnapshot.crossRate(entryRate(fromId, fromEntry), registry.minorDigits(fromId),
+                        entryRate(toId, toEntry), registry.minorDigits(toId));
+        if (feePpm != 0) {
+            rate = RateSnapshot.netRate(rate, feePpm);
+        }
+        pairRates[pair] = rate;
+        pairFromEntries[pair] = fromEntry;
+        pairToEntries[pair] = toEntry;
+        return rate;
+    }
+
+    private long entryRate(int id, int entry) {
+        return entry == USD_ENTRY ? USD_RATE : history.rateAt(id, entry);
+    }
+
+    /**
+     * Converts a batch of amounts, each at the rates in effect at its own timestamp.
+     * Sorting the batch by time lets most lookups hit the cursors.
+     * @param amounts source amounts in minor units
+     * @param fromIds source currency id per amount
+     * @param toIds target currency id per amount
+     * @param timestampsMillis instant per amount in epoch milliseconds
+     * @param feePpm fee in parts per million applied to every element (0 for no fee)
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    public void convertAsOfBatch(long[] amounts, int[] fromIds, int[] toIds, long[] timestampsMillis,
+            long feePpm, long[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            results[i] = convertAsOf(amounts[i], fromIds[i], toIds[i], feePpm, timestampsMillis[i]);
+        }
+    }
+}
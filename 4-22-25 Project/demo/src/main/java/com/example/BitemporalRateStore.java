@@ -0,0 +1,628 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * BitemporalRateStore - Rate history that keeps corrections instead of overwriting.
+ * Every record has two times: the valid time from which the rate applies, and the
+ * recorded time at which we learned it. A record says "from validFrom on, the rate was
+ * X", and a later record with the same valid time corrects it. So the store answers
+ * both "what was the rate at v" (newest knowledge) and "what did we believe the rate
+ * at v was, as of T" (the records recorded at or before T only).
+ *
+ * Each currency has one file in the store directory, CODE.bitemporal, holding 24-byte
+ * little-endian records (valid time, recorded time, scaled rate) in recording order.
+ * Recorded times never decrease within a file, so the record order is the
+ * transaction-time index. On open the file is read once to build a valid-time index:
+ * the distinct valid times in order, each with its first and newest record and a
+ * chain of the records it supersedes, plus a min-tree over the first records so a
+ * query as of T skips valid times nobody knew about yet in O(log n). No query scans
+ * the correction history beyond the corrections of the one valid time it lands on.
+ *
+ * Appends for a currency are serialised; queries take a read lock and run in parallel.
+ *
+ * exportTo() writes the timeline believed at a recorded time into a RateHistoryStore,
+ * so AsOfConverter can revalue at the rates as corrected, or as known on an audit date.
+ */
+public final class BitemporalRateStore implements AutoCloseable {
+    private static final String SUFFIX = ".bitemporal";
+    // valid time, recorded time, scaled rate
+    private static final int RECORD_BYTES = 3 * Long.BYTES;
+    private static final long USD_RATE = FixedPoint.pow10(ConversionEngine.RATE_SCALE);
+
+    private final CurrencyRegistry registry;
+    private final Timeline[] timelines;
+
+    private BitemporalRateStore(CurrencyRegistry registry) {
+        this.registry = registry;
+        timelines = new Timeline[registry.size()];
+    }
+
+    /**
+     * Opens a store, creating the directory and files as needed. A record left half
+     * written by a crash, and anything after a record out of recording order, is cut off.
+     * @param directory directory holding the currency files
+     * @param registry registry that assigns the currency ids
+     * @return an open store
+     * @throws IOException if a file cannot be opened or read
+     */
+    public static BitemporalRateStore open(Path directory, CurrencyRegistry registry) throws IOException {
+        Files.createDirectories(directory);
+        BitemporalRateStore store = new BitemporalRateStore(registry);
+        try {
+            for (int id = 0; id < registry.size(); id++) {
+                FileChannel channel = FileChannel.open(directory.resolve(registry.code(id) + SUFFIX),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                store.timelines[id] = new Timeline(channel);
+                store.timelines[id].load();
+            }
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Records a rate learned now. The recorded time is the current time, or the
+     * currency's last recorded time if the clock has stepped back.
+     * @param id currency id
+     * @param validFromMillis time the rate applies from, in epoch milliseconds
+     * @param scaledRate foreign units per USD at RATE_SCALE
+     * @return recorded time given to the rate
+     * @throws IOException if the file cannot be written
+     */
+    public long record(int id, long validFromMillis, long scaledRate) throws IOException {
+        if (scaledRate <= 0) {
+            throw new IllegalArgumentException("Rate for " + registry.code(id) + " must be positive");
+        }
+        Timeline timeline = timelines[id];
+        timeline.lock.writeLock().lock();
+        try {
+            long recordedMillis = Math.max(System.currentTimeMillis(), timeline.lastRecorded());
+            timeline.append(new long[] {validFromMillis}, new long[] {recordedMillis}, new long[] {scaledRate}, 1);
+            return recordedMillis;
+        } finally {
+            timeline.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records a run of rates with their own recorded times, for importing an audit trail
+     * in bulk with one write
+     * @param id currency id
+     * @param validTimesMillis times the rates apply from, in epoch milliseconds
+     * @param recordedTimesMillis times the rates were learned, in non-decreasing order and
+     *        no earlier than the currency's last recorded time
+     * @param scaledRates foreign units per USD at RATE_SCALE
+     * @param count number of entries to record
+     * @throws IOException if the file cannot be written
+     */
+    public void recordAll(int id, long[] validTimesMillis, long[] recordedTimesMillis, long[] scaledRates, int count)
+            throws IOException {
+        Timeline timeline = timelines[id];
+        timeline.lock.writeLock().lock();
+        try {
+            long last = timeline.lastRecorded();
+            for (int i = 0; i < count; i++) {
+                if (recordedTimesMillis[i] < last) {
+                    throw new IllegalArgumentException("Rates for " + registry.code(id)
+                            + " must be recorded in non-decreasing recorded time order");
+                }
+                if (scaledRates[i] <= 0) {
+                    throw new IllegalArgumentException("Rate for " + registry.code(id) + " must be positive");
+                }
+                last = recordedTimesMillis[i];
+            }
+            timeline.append(validTimesMillis, recordedTimesMillis, scaledRates, count);
+        } finally {
+            timeline.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records every rate a delta changed, valid from the delta's publish time
+     * @param delta changes published by ConversionEngine.updateRates()
+     * @return number of rates recorded
+     * @throws IOException if a file cannot be written
+     */
+    public int recordDelta(RateDelta delta) throws IOException {
+        for (int i = 0; i < delta.size(); i++) {
+            record(delta.idAt(i), delta.timestampMillis(), delta.rateAt(i));
+        }
+        return delta.size();
+    }
+
+    /**
+     * Gets the number of records of a currency, corrections included
+     * @param id currency id
+     * @return number of records
+     */
+    public int count(int id) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.count;
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records of a currency learned at or before an instant. Records
+     * [0, result) are exactly what was known then. Binary search, O(log n).
+     * @param id currency id
+     * @param recordedMillis instant on the recorded-time axis, in epoch milliseconds
+     * @return number of records known at that instant
+     */
+    public int countRecordedBy(int id, long recordedMillis) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return lastAtOrBefore(timeline.recordeds, timeline.count, recordedMillis) + 1;
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the record in effect at a valid time according to everything recorded so far
+     * @param id currency id
+     * @param validMillis instant on the valid-time axis, in epoch milliseconds
+     * @return record index, or -1 if no rate is valid that early
+     */
+    public int indexAsOf(int id, long validMillis) {
+        return indexAsOf(id, validMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * Finds the record we believed was in effect at a valid time, as of a recorded time
+     * @param id currency id
+     * @param validMillis instant on the valid-time axis, in epoch milliseconds
+     * @param recordedMillis instant on the recorded-time axis, in epoch milliseconds
+     * @return record index, or -1 if nothing recorded by then was valid that early
+     */
+    public int indexAsOf(int id, long validMillis, long recordedMillis) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.indexAsOf(validMillis, recordedMillis);
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the rate in effect at a valid time as believed at a recorded time
+     * @param id currency id
+     * @param validMillis instant on the valid-time axis, in epoch milliseconds
+     * @param recordedMillis instant on the recorded-time axis, in epoch milliseconds
+     * @return foreign units per USD at RATE_SCALE
+     * @throws IllegalArgumentException if no rate was known for that instant
+     */
+    public long rateAsOf(int id, long validMillis, long recordedMillis) {
+        if (id == ConversionEngine.USD_ID) {
+            return USD_RATE;
+        }
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            int index = timeline.indexAsOf(validMillis, recordedMillis);
+            if (index < 0) {
+                throw new IllegalArgumentException("No " + registry.code(id) + " rate valid at " + validMillis
+                        + " recorded by " + recordedMillis);
+            }
+            return timeline.rates[index];
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the time a record applies from
+     * @param id currency id
+     * @param index record index, in recording order
+     * @return epoch milliseconds
+     */
+    public long validFromAt(int id, int index) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.validFroms[timeline.checkIndex(index)];
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the time a record was learned
+     * @param id currency id
+     * @param index record index, in recording order
+     * @return epoch milliseconds
+     */
+    public long recordedAt(int id, int index) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.recordeds[timeline.checkIndex(index)];
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the rate of a record
+     * @param id currency id
+     * @param index record index, in recording order
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAt(int id, int index) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.rates[timeline.checkIndex(index)];
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the record a correction replaced, to walk the corrections of one valid time
+     * @param id currency id
+     * @param index record index, in recording order
+     * @return index of the earlier record with the same valid time, or -1 if none
+     */
+    public int supersededIndex(int id, int index) {
+        Timeline timeline = timelines[id];
+        timeline.lock.readLock().lock();
+        try {
+            return timeline.superseded[timeline.checkIndex(index)];
+        } finally {
+            timeline.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends to a history store the rate of every valid time after the store's last
+     * entry, each as believed at a recorded time. Corrections recorded later are left
+     * out, and valid times nobody knew of yet are skipped. Currencies the history's
+     * registry lacks are skipped too.
+     * @param history store to append to, possibly with another registry order
+     * @param recordedMillis instant on the recorded-time axis, or Long.MAX_VALUE for
+     *        the newest corrections
+     * @return number of entries appended
+     * @throws IOException if the history cannot be written
+     */
+    public int exportTo(RateHistoryStore history, long recordedMillis) throws IOException {
+        CurrencyRegistry target = history.registry();
+        int appended = 0;
+        for (int id = 0; id < timelines.length; id++) {
+            int historyId = target.idOf(registry.code(id));
+            if (id == ConversionEngine.USD_ID || historyId == CurrencyRegistry.NONE) {
+                continue;
+            }
+            int existing = history.count(historyId);
+            long after = existing == 0 ? 0 : history.timestampAt(historyId, existing - 1);
+            long[] times;
+            long[] rates;
+            int count;
+            Timeline timeline = timelines[id];
+            timeline.lock.readLock().lock();
+            try {
+                times = new long[timeline.keyCount];
+                rates = new long[timeline.keyCount];
+                count = timeline.believedTimeline(after, recordedMillis, times, rates);
+            } finally {
+                timeline.lock.readLock().unlock();
+            }
+            history.appendAll(historyId, times, rates, count);
+            appended += count;
+        }
+        return appended;
+    }
+
+    /**
+     * Gets the registry that assigns currency ids
+     * @return currency registry
+     */
+    public CurrencyRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Binary search for the last value at or before a time
+     * @param times ascending times
+     * @param count number of times in use
+     * @param timeMillis instant in epoch milliseconds
+     * @return index of the last time at or before the instant, or -1 if none
+     */
+    private static int lastAtOrBefore(long[] times, int count, long timeMillis) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Closes the currency files
+     * @throws IOException if a file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Timeline timeline : timelines) {
+            if (timeline == null) {
+                continue;
+            }
+            try {
+                timeline.channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * One currency's records and the valid-time index built over them
+     */
+    private static final class Timeline {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final FileChannel channel;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Records in recording order
+        private int count;
+        private long[] validFroms = new long[INITIAL_CAPACITY];
+        private long[] recordeds = new long[INITIAL_CAPACITY];
+        private long[] rates = new long[INITIAL_CAPACITY];
+        // Index of the record each one corrects, or -1
+        private int[] superseded = new int[INITIAL_CAPACITY];
+
+        // Distinct valid times in ascending order, with the first and newest record of each
+        private int keyCount;
+        private long[] keyTimes = new long[INITIAL_CAPACITY];
+        private int[] keyFirsts = new int[INITIAL_CAPACITY];
+        private int[] keyLatests = new int[INITIAL_CAPACITY];
+        // Min-tree over keyFirsts: node n covers its children 2n and 2n + 1, leaf i is
+        // node leaves + i, and unused leaves hold Integer.MAX_VALUE
+        private int leaves = INITIAL_CAPACITY;
+        private int[] firstTree = newTree(INITIAL_CAPACITY);
+
+        Timeline(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private static int[] newTree(int leaves) {
+            int[] tree = new int[2 * leaves];
+            Arrays.fill(tree, Integer.MAX_VALUE);
+            return tree;
+        }
+
+        /**
+         * Reads the file and builds the index, truncating a damaged tail
+         * @throws IOException if the file cannot be read or truncated
+         */
+        void load() throws IOException {
+            long records = channel.size() / RECORD_BYTES;
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 0;
+            long last = Long.MIN_VALUE;
+            long good = 0;
+            scan:
+            while (good < records) {
+                buffer.clear();
+                int want = (int) Math.min(buffer.capacity(), (records - good) * RECORD_BYTES);
+                buffer.limit(want);
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position + buffer.position());
+                    if (read < 0) {
+                        break scan;
+                    }
+                }
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    long validFrom = buffer.getLong();
+                    long recorded = buffer.getLong();
+                    long rate = buffer.getLong();
+                    if (recorded < last || rate <= 0) {
+                        break scan;
+                    }
+                    add(validFrom, recorded, rate);
+                    last = recorded;
+                    good++;
+                }
+                position += want;
+            }
+            channel.truncate(good * RECORD_BYTES);
+        }
+
+        long lastRecorded() {
+            return count == 0 ? Long.MIN_VALUE : recordeds[count - 1];
+        }
+
+        int checkIndex(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Record " + index + " of " + count);
+            }
+            return index;
+        }
+
+        /**
+         * Writes records to the file and then indexes them. Caller holds the write lock.
+         * @param validTimesMillis valid times
+         * @param recordedTimesMillis recorded times, already checked to be in order
+         * @param scaledRates rates
+         * @param n number of records
+         * @throws IOException if the file cannot be written
+         */
+        void append(long[] validTimesMillis, long[] recordedTimesMillis, long[] scaledRates, int n) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(n * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n; i++) {
+                buffer.putLong(validTimesMillis[i]).putLong(recordedTimesMillis[i]).putLong(scaledRates[i]);
+            }
+            buffer.flip();
+            long position = (long) count * RECORD_BYTES;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            for (int i = 0; i < n; i++) {
+                add(validTimesMillis[i], recordedTimesMillis[i], scaledRates[i]);
+            }
+        }
+
+        private void add(long validFrom, long recorded, long rate) {
+            if (count == rates.length) {
+                int capacity = count * 2;
+                validFroms = Arrays.copyOf(validFroms, capacity);
+                recordeds = Arrays.copyOf(recordeds, capacity);
+                rates = Arrays.copyOf(rates, capacity);
+                superseded = Arrays.copyOf(superseded, capacity);
+            }
+            int index = count++;
+            validFroms[index] = validFrom;
+            recordeds[index] = recorded;
+            rates[index] = rate;
+            int key = lastAtOrBefore(keyTimes, keyCount, validFrom);
+            if (key >= 0 && keyTimes[key] == validFrom) {
+                // A correction: chain it to the version it replaces
+                superseded[index] = keyLatests[key];
+                keyLatests[key] = index;
+            } else {
+                superseded[index] = -1;
+                insertKey(key + 1, validFrom, index);
+            }
+        }
+
+        private void insertKey(int position, long validFrom, int index) {
+            if (keyCount == keyTimes.length) {
+                int capacity = keyCount * 2;
+                keyTimes = Arrays.copyOf(keyTimes, capacity);
+                keyFirsts = Arrays.copyOf(keyFirsts, capacity);
+                keyLatests = Arrays.copyOf(keyLatests, capacity);
+            }
+            int moved = keyCount - position;
+            System.arraycopy(keyTimes, position, keyTimes, position + 1, moved);
+            System.arraycopy(keyFirsts, position, keyFirsts, position + 1, moved);
+            System.arraycopy(keyLatests, position, keyLatests, position + 1, moved);
+            keyTimes[position] = validFrom;
+            keyFirsts[position] = index;
+            keyLatests[position] = index;
+            keyCount++;
+            if (moved == 0 && keyCount <= leaves) {
+                // The common case: rates arrive in valid-time order, so only one path changes
+                int node = leaves + position;
+                firstTree[node] = index;
+                for (node >>= 1; node > 0; node >>= 1) {
+                    firstTree[node] = Math.min(firstTree[2 * node], firstTree[2 * node + 1]);
+                }
+            } else {
+                // A backdated valid time shifts every later leaf
+                while (leaves < keyCount) {
+                    leaves *= 2;
+                }
+                firstTree = newTree(leaves);
+                System.arraycopy(keyFirsts, 0, firstTree, leaves, keyCount);
+                for (int node = leaves - 1; node > 0; node--) {
+                    firstTree[node] = Math.min(firstTree[2 * node], firstTree[2 * node + 1]);
+                }
+            }
+        }
+
+        /**
+         * Finds the record believed in effect at a valid time as of a recorded time.
+         * Caller holds the read lock.
+         * @param validMillis instant on the valid-time axis
+         * @param recordedMillis instant on the recorded-time axis
+         * @return record index, or -1 if none
+         */
+        int indexAsOf(long validMillis, long recordedMillis) {
+            int key = lastAtOrBefore(keyTimes, keyCount, validMillis);
+            if (key < 0) {
+                return -1;
+            }
+            // Records [0, known) had been learned by recordedMillis
+            int known = count > 0 && recordeds[count - 1] <= recordedMillis ? count
+                    : lastAtOrBefore(recordeds, count, recordedMillis) + 1;
+            if (known < count) {
+                key = lastKeyFirstRecordedBefore(1, 0, leaves - 1, key, known);
+                if (key < 0) {
+                    return -1;
+                }
+            }
+            int version = keyLatests[key];
+            // Skip corrections of this valid time learned later
+            while (version >= known) {
+                version = superseded[version];
+            }
+            return version;
+        }
+
+        /**
+         * Lists the valid times after a cutoff with the rate believed for each as of a
+         * recorded time. Caller holds the read lock.
+         * @param afterMillis valid times at or before this are left out
+         * @param recordedMillis instant on the recorded-time axis
+         * @param times receives the valid times in ascending order
+         * @param believed receives the rate of each
+         * @return number of entries filled
+         */
+        int believedTimeline(long afterMillis, long recordedMillis, long[] times, long[] believed) {
+            int known = lastAtOrBefore(recordeds, count, recordedMillis) + 1;
+            int n = 0;
+            for (int key = lastAtOrBefore(keyTimes, keyCount, afterMillis) + 1; key < keyCount; key++) {
+                if (keyFirsts[key] >= known) {
+                    continue;
+                }
+                int version = keyLatests[key];
+                while (version >= known) {
+                    version = superseded[version];
+                }
+                times[n] = keyTimes[key];
+                believed[n++] = rates[version];
+            }
+            return n;
+        }
+
+        /**
+         * Finds the last valid time at or before a key position that was first recorded
+         * before a record index, descending only into subtrees whose minimum qualifies
+         * @param node tree node
+         * @param low first key position the node covers
+         * @param high last key position the node covers
+         * @param limit last key position allowed
+         * @param known record index the first record must precede
+         * @return key position, or -1 if none
+         */
+        private int lastKeyFirstRecordedBefore(int node, int low, int high, int limit, int known) {
+            if (low > limit || firstTree[node] >= known) {
+                return -1;
+            }
+            if (low == high) {
+                return low;
+            }
+            int mid = (low + high) >>> 1;
+            int found = lastKeyFirstRecordedBefore(2 * node + 1, mid + 1, high, limit, known);
+            return found >= 0 ? found : lastKeyFirstRecordedBefore(2 * node, low, mid, limit, known);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * CompressedRateSeries - One currency's rate history in Gorilla-style compressed blocks.
+ * Timestamps are stored as delta-of-deltas and rates as the XOR with the previous rate,
+ * following Facebook's Gorilla paper, so regular ticks and slowly moving rates cost a
+ * few bits per entry instead of 16 bytes.
+ *
+ * The file is a magic number followed by blocks of up to BLOCK_ENTRIES entries. Each
+ * block starts with its first and last timestamp, entry count and length in 64-bit
+ * words, so a range scan skips whole blocks by reading headers only and decodes the
+ * rest on the fly from a read-only mapping. Every bit stream ends with a zero word so
+ * the decoder can peek at control bits without bounds checks of its own.
+ */
+public final class CompressedRateSeries {
+    // "GRL1"
+    private static final int MAGIC = 0x47524C31;
+    private static final int HEADER_BYTES = Integer.BYTES;
+    // first timestamp, last timestamp, entry count, word count
+    private static final int BLOCK_HEADER_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+    // Entries per block: large enough to amortise the header and raw first entry,
+    // small enough that a scan never decodes much it then skips
+    private static final int BLOCK_ENTRIES = 4096;
+    // Payload bits of each delta-of-delta bucket, indexed by the number of leading 1s in
+    // its prefix (0, 10, 110, 1110, 11110, 11111)
+    private static final int[] DELTA_BITS = {0, 7, 9, 12, 32, 64};
+
+    private final MappedByteBuffer buffer;
+    private final long count;
+
+    private CompressedRateSeries(MappedByteBuffer buffer, long count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    /**
+     * Writes a currency's history from a history store into a compressed file
+     * @param file file to create or replace
+     * @param history store holding the history
+     * @param id currency id
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, RateHistoryStore history, int id) throws IOException {
+        try (FileChannel channel = create(file)) {
+            BlockEncoder encoder = new BlockEncoder();
+            int entries = history.count(id);
+            for (int i = 0; i < entries; i++) {
+                encoder.add(history.timestampAt(id, i), history.rateAt(id, i));
+                if (encoder.count == BLOCK_ENTRIES) {
+                    encoder.writeTo(channel);
+                }
+            }
+            encoder.writeTo(channel);
+        }
+    }
+
+    /**
+     * Writes parallel time and rate arrays into a compressed file
+     * @param file file to create or replace
+     * @param timestampsMillis times in epoch milliseconds, in increasing order
+     * @param scaledRates foreign units per USD at RATE_SCALE
+     * @param entries number of entries to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, long[] timestampsMillis, long[] scaledRates, int entries) throws IOException {
+        try (FileChannel channel = create(file)) {
+            BlockEncoder encoder = new BlockEncoder();
+            for (int i = 0; i < entries; i++) {
+                encoder.add(timestampsMillis[i], scaledRates[i]);
+                if (encoder.count == BLOCK_ENTRIES) {
+                    encoder.writeTo(channel);
+                }
+            }
+            encoder.writeTo(channel);
+        }
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return channel;
+    }
+
+    /**
+     * Maps a compressed file for reading
+     * @param file file written by write()
+     * @return the series
+     * @throws IOException if the file cannot be mapped or is not a compressed rate file
+     */
+    public static CompressedRateSeries open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compressed rate file: " + file);
+        }
+        long count = 0;
+        int offset = HEADER_BYTES;
+        while (offset < buffer.limit()) {
+            if (buffer.limit() - offset < BLOCK_HEADER_BYTES) {
+                throw new IOException("Truncated block header in " + file);
+            }
+            count += buffer.getInt(offset + 2 * Long.BYTES);
+            offset += BLOCK_HEADER_BYTES + buffer.getInt(offset + 2 * Long.BYTES + Integer.BYTES) * Long.BYTES;
+        }
+        if (offset != buffer.limit()) {
+            throw new IOException("Truncated block in " + file);
+        }
+        return new CompressedRateSeries(buffer, count);
+    }
+
+    /**
+     * Gets the number of entries in the file
+     * @return number of (time, rate) entries
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Gets the compressed size
+     * @return file size in bytes
+     */
+    public long sizeBytes() {
+        return buffer.limit();
+    }
+
+    /**
+     * Starts a streaming scan at the first entry stamped at or after an instant.
+     * Blocks that end before the instant are skipped using their headers.
+     * @param fromMillis first instant of interest, in epoch milliseconds
+     * @return cursor positioned before that entry
+     */
+    public Cursor cursor(long fromMillis) {
+        return new Cursor(fromMillis);
+    }
+
+    /**
+     * Streams entries out of the compressed blocks one at a time, without allocating
+     */
+    public final class Cursor {
+        private final long fromMillis;
+        // Offset of the next block header
+        private int nextBlock = HEADER_BYTES;
+        // Word offset of the current block's bit stream and the read position in bits
+        private int words;
+        private long bitPosition;
+        private int remaining;
+        private boolean first;
+
+        private long timestamp;
+        private long delta;
+        private long rate;
+        private int leading;
+        private int trailing;
+
+        private Cursor(long fromMillis) {
+            this.fromMillis = fromMillis;
+        }
+
+        /**
+         * Moves to the next entry
+         * @return false once the series is exhausted
+         */
+        public boolean next() {
+            while (true) {
+                while (remaining == 0) {
+                    if (nextBlock >= buffer.limit()) {
+                        return false;
+                    }
+                    int header = nextBlock;
+                    int blockEntries = buffer.getInt(header + 2 * Long.BYTES);
+                    int blockWords = buffer.getInt(header + 2 * Long.BYTES + Integer.BYTES);
+                    nextBlock = header + BLOCK_HEADER_BYTES + blockWords * Long.BYTES;
+                    if (buffer.getLong(header + Long.BYTES) < fromMillis) {
+                        continue;
+                    }
+                    words = header + BLOCK_HEADER_BYTES;
+                    bitPosition = 0;
+                    remaining = blockEntries;
+                    first = true;
+                }
+                decode();
+                remaining--;
+                if (timestamp >= fromMillis) {
+                    return true;
+                }
+            }
+        }
+
+        private void decode() {
+            if (first) {
+                first = false;
+                timestamp = readBits(64);
+                rate = readBits(64);
+                delta = 0;
+                leading = -1;
+                return;
+            }
+
+            // Timestamp: delta-of-delta in the smallest bucket that holds it. The prefix
+            // is decoded from one 5-bit peek by counting its leading 1s.
+            int ones = Long.numberOfLeadingZeros(~(peekBits(5) << 59));
+            bitPosition += ones == 5 ? 5 : ones + 1;
+            int bits = DELTA_BITS[ones];
+            delta += signed(readBits(bits), bits);
+            timestamp += delta;
+
+            // Rate: XOR with the previous rate, reusing the previous window when it fits
+            long control = peekBits(2);
+            if (control < 0b10) {
+                bitPosition++;
+                return;
+            }
+            bitPosition += 2;
+            if (control == 0b11) {
+                leading = (int) readBits(6);
+                trailing = 64 - leading - ((int) readBits(6) + 1);
+            }
+            rate ^= readBits(64 - leading - trailing) << trailing;
+        }
+
+        private long readBits(int bits) {
+            long value = peekBits(bits);
+            bitPosition += bits;
+            return value;
+        }
+
+        private long peekBits(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            int word = (int) (bitPosition >>> 6);
+            int used = (int) (bitPosition & 63);
+            long current = buffer.getLong(words + word * Long.BYTES) << used;
+            int available = 64 - used;
+            if (bits <= available) {
+                return current >>> (64 - bits);
+            }
+            int rest = bits - available;
+            long next = buffer.getLong(words + (word + 1) * Long.BYTES);
+            return (current >>> (64 - bits)) | (next >>> (64 - rest));
+        }
+
+        /**
+         * Gets the time of the current entry
+         * @return epoch milliseconds
+         */
+        public long timestampMillis() {
+            return timestamp;
+        }
+
+        /**
+         * Gets the rate of the current entry
+         * @return foreign units per USD at RATE_SCALE
+         */
+        public long rate() {
+            return rate;
+        }
+    }
+
+    private static long signed(long value, int bits) {
+        // Shifts are taken mod 64, so a width of 0 or 64 leaves the value as it is
+        return bits == 0 ? 0 : value << (64 - bits) >> (64 - bits);
+    }
+
+    /**
+     * Builds one block's bit stream in memory
+     */
+    private static final class BlockEncoder {
+        private long[] words = new long[64];
+        private long bitCount;
+        private int count;
+        private boolean started;
+        private long firstTimestamp;
+        private long timestamp;
+        private long delta;
+        private long rate;
+        private int leading;
+        private int trailing;
+
+        void add(long timestampMillis, long scaledRate) {
+            if (started && timestampMillis <= timestamp) {
+                throw new IllegalArgumentException("Rates must be in increasing time order");
+            }
+            started = true;
+            if (count == 0) {
+                firstTimestamp = timestampMillis;
+                writeBits(timestampMillis, 64);
+                writeBits(scaledRate, 64);
+                delta = 0;
+                leading = -1;
+            } else {
+                writeTimestamp(timestampMillis);
+                writeRate(scaledRate);
+            }
+            timestamp = timestampMillis;
+            rate = scaledRate;
+            count++;
+        }
+
+        private void writeTimestamp(long timestampMillis) {
+            long nextDelta = timestampMillis - timestamp;
+            long deltaOfDelta = nextDelta - delta;
+            delta = nextDelta;
+            if (deltaOfDelta == 0) {
+                writeBits(0b0, 1);
+            } else if (fits(deltaOfDelta, 7)) {
+                writeBits(0b10, 2);
+                writeBits(deltaOfDelta, 7);
+            } else if (fits(deltaOfDelta, 9)) {
+                writeBits(0b110, 3);
+                writeBits(deltaOfDelta, 9);
+            } else if (fits(deltaOfDelta, 12)) {
+                writeBits(0b1110, 4);
+                writeBits(deltaOfDelta, 12);
+            } else if (fits(deltaOfDelta, 32)) {
+                writeBits(0b11110, 5);
+                writeBits(deltaOfDelta, 32);
+            } else {
+                writeBits(0b11111, 5);
+                writeBits(deltaOfDelta, 64);
+            }
+        }
+
+        private void writeRate(long scaledRate) {
+            long xor = scaledRate ^ rate;
+            if (xor == 0) {
+                writeBits(0b0, 1);
+                return;
+            }
+            int nextLeading = Long.numberOfLeadingZeros(xor);
+            int nextTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && nextLeading >= leading && nextTrailing >= trailing) {
+                // Meaningful bits fit inside the previous window
+                writeBits(0b10, 2);
+            } else {
+                leading = nextLeading;
+                trailing = nextTrailing;
+                writeBits(0b11, 2);
+                writeBits(leading, 6);
+                writeBits(64 - leading - trailing - 1, 6);
+            }
+            writeBits(xor >>> trailing, 64 - leading - trailing);
+        }
+
+        private static boolean fits(long value, int bits) {
+            return signed(value, bits) == value;
+        }
+
+        private void writeBits(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            int word = (int) (bitCount >>> 6);
+            int used = (int) (bitCount & 63);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+            int available = 64 - used;
+            if (bits <= available) {
+                words[word] |= masked << (available - bits);
+            } else {
+                int rest = bits - available;
+                words[word] |= masked >>> rest;
+                words[word + 1] |= masked << (64 - rest);
+            }
+            bitCount += bits;
+        }
+
+        /**
+         * Writes the block, if it has entries, and resets for the next one
+         * @param channel file to append the block to
+         * @throws IOException if the block cannot be written
+         */
+        void writeTo(FileChannel channel) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            // Round up to whole words, plus the zero word the decoder may peek into
+            int wordCount = (int) ((bitCount + 63) >>> 6) + 1;
+            if (wordCount > words.length) {
+                words = Arrays.copyOf(words, wordCount);
+            }
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + wordCount * Long.BYTES);
+            block.putLong(firstTimestamp).putLong(timestamp).putInt(count).putInt(wordCount);
+            for (int i = 0; i < wordCount; i++) {
+                block.putLong(words[i]);
+            }
+            block.flip();
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+            Arrays.fill(words, 0, wordCount, 0L);
+            bitCount = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,808 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ConversionEngine - Headless fixed-point currency conversion.
+ * Rates are stored as scaled longs (foreign units per USD) in arrays indexed by
+ * CurrencyRegistry id, so a conversion only does long arithmetic and allocates nothing.
+ * A dense cross-rate matrix is kept for every pair so any pair converts with a single
+ * lookup and multiply; an update re-derives only the rows and columns it changes.
+ *
+ * The rates live in an immutable RateSnapshot published through one atomic reference.
+ * Each call reads the reference once, so conversions are lock-free and never see a
+ * half-applied update; callers that make several calls can pin a snapshot and pass it in.
+ *
+ * Results are rounded with the target currency's rounding mode (half-even by default,
+ * which is what DecimalFormat("#,##0.00") applied to the old BigDecimal results).
+ *
+ * With a RateJournal attached, every update is appended to the journal and synced
+ * before its snapshot is published, so nothing a caller has seen is lost in a crash.
+ * Journaled updates take a lock only to build their snapshot and append their records;
+ * the fsync runs outside it, so concurrent updates share one sync, and snapshots are
+ * published strictly in journal order once their records are durable. Conversions
+ * stay lock-free.
+ */
+public class ConversionEngine {
+    // Decimal places kept for each rate (foreign units per 1 USD)
+    public static final int RATE_SCALE = 6;
+    // Fees are a fraction of the converted amount in parts per million (2.5% = 25000)
+    public static final int FEE_SCALE = 6;
+    // A fee percentage typed by the user has two fewer decimal places than the fraction
+    public static final int FEE_PERCENT_SCALE = FEE_SCALE - 2;
+    // Decimal places of the intermediate quotient in foreign -> USD conversions,
+    // matching the old amount.divide(rate, 10, RoundingMode.HALF_UP)
+    static final int QUOTIENT_SCALE = 10;
+    // Decimal places kept for each cross rate (target units per source unit)
+    public static final int CROSS_SCALE = 12;
+    // The base currency is always registered first
+    public static final String USD = "USD";
+    public static final int USD_ID = 0;
+
+    private static final long FEE_ONE = FixedPoint.pow10(FEE_SCALE);
+    // 10^CROSS_SCALE split as 2^12 * 5^12, so batches divide by constants the JIT can
+    // turn into multiplications
+    private static final long CROSS_ONE = 1_000_000_000_000L;
+    private static final int CROSS_TWOS = 12;
+    private static final long CROSS_FIVES = 244_140_625L;
+    // Elements per parallel leaf task: 16K amounts + results is 256 KB, sized for a
+    // typical L2 cache rather than tuned (see ConversionParallelBenchmark). Smaller
+    // batches are not forked.
+    private static final int PARALLEL_CHUNK = 1 << 14;
+    // Leaf boundaries are aligned to 8 longs (one 64-byte cache line) so no two tasks
+    // write to the same line of results
+    private static final int CACHE_LINE_MASK = ~7;
+    // Single-pair batches use VectorBatchKernel when the JVM was started with
+    // --add-modules jdk.incubator.vector; otherwise the kernel class is never loaded
+    static final boolean VECTOR_KERNEL = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private final CurrencyRegistry registry;
+    private final int size;
+    // Rounding mode per currency id, copied from the registry
+    private final RoundingMode[] roundingModes;
+    // Current rates; replaced as a whole on every update
+    private final AtomicReference<RateSnapshot> snapshot;
+    // Journal written before each publish, or null; see attachJournal()
+    private volatile RateJournal journal;
+    // Serialises journal appends; guards journaledSequence, journaledTail and unpublished
+    private final Object publishLock = new Object();
+    // Last journal sequence number included in the current snapshot
+    private long journaledSequence;
+    // Snapshot including every journaled update, published or not; later updates build on it
+    private RateSnapshot journaledTail;
+    // Journaled snapshots waiting for their records to be durable, in sequence order
+    private final ArrayDeque<Unpublished> unpublished = new ArrayDeque<>();
+
+    /**
+     * Builds the engine from one rate per currency, freezing the registry
+     * @param registry registry with USD as id 0
+     * @param scaledRates foreign units per USD at RATE_SCALE, indexed by currency id
+     */
+    public ConversionEngine(CurrencyRegistry registry, long[] scaledRates) {
+        this(registry, scaledRates, 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Builds the engine from rates restored with their snapshot version and publish time.
+     * The registry is frozen: currencies must all be registered before this.
+     * @param registry registry with USD as id 0
+     * @param scaledRates foreign units per USD at RATE_SCALE, indexed by currency id
+     * @param version version of the restored snapshot
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     */
+    public ConversionEngine(CurrencyRegistry registry, long[] scaledRates, long version, long timestampMillis) {
+        if (registry.size() == 0 || !USD.equals(registry.code(USD_ID))) {
+            throw new IllegalArgumentException("USD must be registered first");
+        }
+        if (scaledRates.length != registry.size()) {
+            throw new IllegalArgumentException("Expected " + registry.size() + " rates, got " + scaledRates.length);
+        }
+        // The size and rounding modes are captured here, so the registry must not change
+        registry.freeze();
+        this.registry = registry;
+        size = registry.size();
+        roundingModes = new RoundingMode[size];
+        for (int id = 0; id < size; id++) {
+            roundingModes[id] = registry.roundingMode(id);
+        }
+        snapshot = new AtomicReference<>(new RateSnapshot(registry, version, timestampMillis, scaledRates));
+    }
+
+    /**
+     * Applies a batch of new rates. Only the cross rates of currencies whose rate actually
+     * changed are re-derived, and an update that changes nothing publishes nothing.
+     * The next snapshot is built on the calling thread and swapped in atomically;
+     * concurrent updates are retried against the newest snapshot so none is lost.
+     * Each write is per currency, so every country using it sees the new rate.
+     * @param ids currency ids to update
+     * @param scaledRates new foreign units per USD at RATE_SCALE
+     * @param count number of entries to apply
+     * @return the changes published, for caches, listeners and replicas to apply
+     * @throws IllegalArgumentException if an id is unknown or a rate is not positive;
+     *         nothing is published
+     * @throws UncheckedIOException if a journal is attached and the update cannot be
+     *         journaled; it is not published until a later sync writes it
+     */
+    public RateDelta updateRates(int[] ids, long[] scaledRates, int count) {
+        RateJournal journal = this.journal;
+        if (journal != null) {
+            RateDelta delta;
+            long sequence;
+            synchronized (publishLock) {
+                delta = RateDelta.of(journaledTail, ids, scaledRates, count, System.currentTimeMillis());
+                sequence = appendJournaled(journal, delta);
+            }
+            publishJournaled(journal, delta, sequence);
+            return delta;
+        }
+        RateSnapshot current;
+        RateSnapshot next;
+        RateDelta delta;
+        do {
+            current = snapshot.get();
+            delta = RateDelta.of(current, ids, scaledRates, count, System.currentTimeMillis());
+            next = current.withDelta(registry, delta);
+        } while (next != current && !snapshot.compareAndSet(current, next));
+        return delta;
+    }
+
+    /**
+     * Applies rates published by another process, keeping the version and publish time
+     * they were published under instead of stamping new ones. Rates the engine already
+     * has, or has newer, are ignored, so applying the same publish twice is harmless.
+     * @param ids currency ids to update
+     * @param scaledRates foreign units per USD at RATE_SCALE
+     * @param count number of entries to apply
+     * @param version snapshot version the rates were published as
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     * @return true if the engine moved to the given version
+     * @throws IllegalArgumentException if an id is unknown or a rate is not positive;
+     *         nothing is published
+     * @throws UncheckedIOException if a journal is attached and the rates cannot be journaled
+     */
+    public boolean syncRates(int[] ids, long[] scaledRates, int count, long version, long timestampMillis) {
+        RateJournal journal = this.journal;
+        if (journal != null) {
+            RateDelta delta;
+            long sequence;
+            synchronized (publishLock) {
+                if (journaledTail.version() >= version) {
+                    return false;
+                }
+                delta = RateDelta.of(journaledTail, ids, scaledRates, count, version, timestampMillis);
+                sequence = appendJournaled(journal, delta);
+            }
+            publishJournaled(journal, delta, sequence);
+            return true;
+        }
+        RateSnapshot current;
+        RateSnapshot next;
+        do {
+            current = snapshot.get();
+            if (current.version() >= version) {
+                return false;
+            }
+            next = current.withDelta(registry, RateDelta.of(current, ids, scaledRates, count, version, timestampMillis));
+        } while (!snapshot.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Applies a delta published by another engine, such as a primary this engine replicates.
+     * A delta this engine already has is ignored.
+     * @param delta changes from the engine's current version
+     * @return true if the delta was applied, false if it was already applied
+     * @throws IllegalStateException if the engine is at a version the delta does not start
+     *         from; the caller has missed a delta and must resync from a full snapshot
+     * @throws UncheckedIOException if a journal is attached and the delta cannot be journaled
+     */
+    public boolean applyDelta(RateDelta delta) {
+        RateJournal journal = this.journal;
+        if (journal != null) {
+            long sequence;
+            synchronized (publishLock) {
+                if (journaledTail.version() >= delta.version()) {
+                    return false;
+                }
+                sequence = appendJournaled(journal, delta);
+            }
+            publishJournaled(journal, delta, sequence);
+            return true;
+        }
+        RateSnapshot current;
+        RateSnapshot next;
+        do {
+            current = snapshot.get();
+            if (current.version() >= delta.version()) {
+                return false;
+            }
+            next = current.withDelta(registry, delta);
+        } while (!snapshot.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Builds the next journaled snapshot and buffers the delta's records. The caller holds
+     * publishLock, so snapshots are queued in the same order as their records.
+     * @param journal attached journal
+     * @param delta changes from the newest journaled snapshot
+     * @return sequence number to sync before the snapshot may be published
+     * @throws IllegalStateException if the delta does not start from the newest journaled version
+     */
+    private long appendJournaled(RateJournal journal, RateDelta delta) {
+        RateSnapshot next = journaledTail.withDelta(registry, delta);
+        if (next == journaledTail) {
+            return -1;
+        }
+        long sequence = journal.append(registry, delta);
+        journaledTail = next;
+        unpublished.addLast(new Unpublished(sequence, next));
+        return sequence;
+    }
+
+    /**
+     * Waits for a delta's records to be durable, then publishes every journaled snapshot
+     * that is. The sync runs without publishLock, so updates appended meanwhile join the
+     * next sync, or this one if they make it into the batch.
+     * @param journal attached journal
+     * @param delta changes appended by appendJournaled()
+     * @param sequence sequence number appendJournaled() returned, or -1 if nothing changed
+     * @throws UncheckedIOException if the journal cannot be written; the records stay
+     *         buffered, and the update is published once a later update or checkpoint
+     *         writes them
+     */
+    private void publishJournaled(RateJournal journal, RateDelta delta, long sequence) {
+        if (sequence < 0) {
+            return;
+        }
+        try {
+            // Group commit point: also makes records other threads buffered durable
+            journal.sync(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal rate update " + delta.version(), e);
+        }
+        publishDurable(journal);
+    }
+
+    /**
+     * Publishes queued snapshots, oldest first, up to the journal's durable sequence
+     * @param journal attached journal
+     */
+    private void publishDurable(RateJournal journal) {
+        synchronized (publishLock) {
+            long durable = journal.durableSequence();
+            Unpublished oldest;
+            while ((oldest = unpublished.peekFirst()) != null && oldest.sequence <= durable) {
+                unpublished.removeFirst();
+                snapshot.set(oldest.snapshot);
+                journaledSequence = oldest.sequence;
+            }
+        }
+    }
+
+    /**
+     * Journals every later update before it is published. Call once, after replaying
+     * the journal and before the engine is shared with other threads.
+     * @param journal journal whose records are all included in the current rates
+     */
+    public void attachJournal(RateJournal journal) {
+        synchronized (publishLock) {
+            if (this.journal != null) {
+                throw new IllegalStateException("A journal is already attached");
+            }
+            journaledSequence = journal.lastSequence();
+            journaledTail = snapshot.get();
+            this.journal = journal;
+        }
+    }
+
+    /**
+     * Gets the attached journal
+     * @return the journal, or null if updates are not journaled
+     */
+    public RateJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Saves the current rates to a snapshot file as the attached journal's new recovery
+     * point, dropping the journal records they include
+     * @param snapshotFile snapshot file that recovery loads
+     * @return false if the snapshot file was already up to date
+     * @throws IOException if the snapshot or journal cannot be written
+     * @throws IllegalStateException if no journal is attached
+     */
+    public boolean checkpoint(Path snapshotFile) throws IOException {
+        RateJournal journal = this.journal;
+        if (journal == null) {
+            throw new IllegalStateException("No journal attached");
+        }
+        // Writes and publishes any update whose own sync failed
+        journal.sync(journal.lastSequence());
+        publishDurable(journal);
+        RateSnapshot rates;
+        long sequence;
+        synchronized (publishLock) {
+            rates = snapshot.get();
+            sequence = journaledSequence;
+        }
+        return journal.checkpoint(snapshotFile, registry, rates, sequence);
+    }
+
+    /**
+     * Gets the current rates. Pass the result to the conversion overloads that take a
+     * snapshot to make several calls against the same rates.
+     * @return current rate snapshot
+     */
+    public RateSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Looks up the currency id for a display name without allocating
+     * @param displayName name such as "Kenya (KES)"
+     * @return currency id, or CurrencyRegistry.NONE if the currency is unknown
+     */
+    public int idOf(String displayName) {
+        return registry.idOfDisplayName(displayName);
+    }
+
+    /**
+     * Gets the registry that assigns currency ids
+     * @return currency registry
+     */
+    public CurrencyRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Gets the scaled rate of a currency
+     * @param id currency id
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAt(int id) {
+        return snapshot.get().rateAt(id);
+    }
+
+    /**
+     * Gets the number of currency ids, including USD
+     * @return number of currencies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the cross rate between two currencies
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @return target minor units per source minor unit at CROSS_SCALE
+     */
+    public long crossRate(int fromId, int toId) {
+        return snapshot.get().crossRate(fromId, toId);
+    }
+
+    /**
+     * Converts between any two currencies with one cross-rate lookup, net of the fee.
+     * The fee is folded into a cached effective rate, so a fee-inclusive conversion costs
+     * the same single multiply as a plain one and the result is rounded once.
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @return amount in the target currency's minor units
+     */
+    public long convert(long amount, int fromId, int toId, long feePpm) {
+        return convert(snapshot.get(), amount, fromId, toId, feePpm);
+    }
+
+    /**
+     * Converts between any two currencies using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @return amount in the target currency's minor units
+     */
+    public long convert(RateSnapshot rates, long amount, int fromId, int toId, long feePpm) {
+        return applyCrossRate(amount, rates.netCrossRates(feePpm)[fromId * size + toId], roundingModes[toId]);
+    }
+
+    /**
+     * Computes the fee charged on a conversion between any two currencies,
+     * using the same cached effective rates as convert()
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million
+     * @return fee in the target currency's minor units
+     */
+    public long fee(long amount, int fromId, int toId, long feePpm) {
+        return fee(snapshot.get(), amount, fromId, toId, feePpm);
+    }
+
+    /**
+     * Computes the fee charged on a conversion using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million
+     * @return fee in the target currency's minor units
+     */
+    public long fee(RateSnapshot rates, long amount, int fromId, int toId, long feePpm) {
+        if (feePpm == 0) {
+            return 0;
+        }
+        return applyCrossRate(amount, rates.feeCrossRates(feePpm)[fromId * size + toId], roundingModes[toId]);
+    }
+
+    /**
+     * Converts a batch of minor-unit amounts between arbitrary currency pairs, net of the fee.
+     * The arrays are parallel; element i of results receives amounts[i] converted from
+     * fromIds[i] to toIds[i], in each currency's own minor units and rounded with the
+     * target currency's mode. The loop allocates nothing per element.
+     * @param amounts source amounts in minor units
+     * @param fromIds source currency id per amount
+     * @param toIds target currency id per amount
+     * @param feePpm fee in parts per million applied to every element (0 for no fee)
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    public void convertBatch(long[] amounts, int[] fromIds, int[] toIds, long feePpm,
+            long[] results, int start, int end) {
+        if (end > amounts.length || end > fromIds.length || end > toIds.length || end > results.length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than " + end);
+        }
+        convertRange(amounts, fromIds, toIds, snapshot.get().netCrossRates(feePpm), results, start, end);
+    }
+
+    /**
+     * Converts a batch of minor-unit amounts that all share one currency pair, net of the fee.
+     * The rate and fee are resolved once, so the loop body only streams amounts through
+     * applyCrossRate, or through VectorBatchKernel when the JVM runs with
+     * --add-modules jdk.incubator.vector. Results are identical to the per-pair batch method.
+     * @param amounts source amounts in minor units
+     * @param fromId source currency id for every amount
+     * @param toId target currency id for every amount
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    public void convertBatch(long[] amounts, int fromId, int toId, long feePpm,
+            long[] results, int start, int end) {
+        if (end > amounts.length || end > results.length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than " + end);
+        }
+        long rate = snapshot.get().netCrossRates(feePpm)[fromId * size + toId];
+        convertRange(amounts, rate, roundingModes[toId], results, start, end);
+    }
+
+    /**
+     * Parallel version of the per-pair convertBatch for very large batches. The range is
+     * split into cache-sized chunks converted on the fork/join common pool; every element
+     * goes through the same arithmetic as the sequential method, so results are identical.
+     * @param amounts source amounts in minor units
+     * @param fromIds source currency id per amount
+     * @param toIds target currency id per amount
+     * @param feePpm fee in parts per million applied to every element (0 for no fee)
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    public void convertBatchParallel(long[] amounts, int[] fromIds, int[] toIds, long feePpm,
+            long[] results, int start, int end) {
+        if (end > amounts.length || end > fromIds.length || end > toIds.length || end > results.length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than " + end);
+        }
+        // Resolve the rates here so every worker uses the same snapshot
+        long[] netRates = snapshot.get().netCrossRates(feePpm);
+        new BatchTask(amounts, fromIds, toIds, netRates, 0, null, results, start, end).invoke();
+    }
+
+    /**
+     * Parallel version of the single-pair convertBatch for very large batches.
+     * Results are identical to the sequential method.
+     * @param amounts source amounts in minor units
+     * @param fromId source currency id for every amount
+     * @param toId target currency id for every amount
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    public void convertBatchParallel(long[] amounts, int fromId, int toId, long feePpm,
+            long[] results, int start, int end) {
+        if (end > amounts.length || end > results.length) {
+            throw new IllegalArgumentException("Batch arrays are shorter than " + end);
+        }
+        long rate = snapshot.get().netCrossRates(feePpm)[fromId * size + toId];
+        new BatchTask(amounts, null, null, null, rate, roundingModes[toId], results, start, end).invoke();
+    }
+
+    /**
+     * Converts a range of a per-pair batch with already resolved net rates
+     * @param amounts source amounts in minor units
+     * @param fromIds source currency id per amount
+     * @param toIds target currency id per amount
+     * @param netRates fee-inclusive cross rates from RateSnapshot.netCrossRates()
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    private void convertRange(long[] amounts, int[] fromIds, int[] toIds, long[] netRates,
+            long[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int toId = toIds[i];
+            results[i] = applyCrossRate(amounts[i], netRates[fromIds[i] * size + toId], roundingModes[toId]);
+        }
+    }
+
+    /**
+     * Converts a range of a single-pair batch with an already resolved net rate
+     * @param amounts source amounts in minor units
+     * @param rate fee-inclusive cross rate of the pair
+     * @param mode rounding mode of the target currency
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     */
+    private static void convertRange(long[] amounts, long rate, RoundingMode mode,
+            long[] results, int start, int end) {
+        if (VECTOR_KERNEL && rate > 0 && VectorBatchKernel.supports(mode)) {
+            start = VectorBatchKernel.convertRange(amounts, rate, mode, results, start, end);
+        }
+        for (int i = start; i < end; i++) {
+            results[i] = applyCrossRate(amounts[i], rate, mode);
+        }
+    }
+
+    /**
+     * Fork/join task that halves a batch range until it fits in PARALLEL_CHUNK.
+     * Each element is written by exactly one leaf, so the split does not affect results.
+     * A null fromIds means every element uses the single rate and mode.
+     */
+    private final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] amounts;
+        private final int[] fromIds;
+        private final int[] toIds;
+        private final long[] netRates;
+        private final long rate;
+        private final RoundingMode mode;
+        private final long[] results;
+        private final int start;
+        private final int end;
+
+        BatchTask(long[] amounts, int[] fromIds, int[] toIds, long[] netRates, long rate,
+                RoundingMode mode, long[] results, int start, int end) {
+            this.amounts = amounts;
+            this.fromIds = fromIds;
+            this.toIds = toIds;
+            this.netRates = netRates;
+            this.rate = rate;
+            this.mode = mode;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            int mid = (start + (end - start) / 2) & CACHE_LINE_MASK;
+            if (end - start <= PARALLEL_CHUNK || mid <= start) {
+                if (fromIds == null) {
+                    convertRange(amounts, rate, mode, results, start, end);
+                } else {
+                    convertRange(amounts, fromIds, toIds, netRates, results, start, end);
+                }
+                return;
+            }
+            invokeAll(new BatchTask(amounts, fromIds, toIds, netRates, rate, mode, results, start, mid),
+                    new BatchTask(amounts, fromIds, toIds, netRates, rate, mode, results, mid, end));
+        }
+    }
+
+    /**
+     * Computes amount * rate / 10^CROSS_SCALE, the same as FixedPoint.mulDiv but
+     * specialised for the constant divisor. The 128-bit product is shifted right by 12
+     * and then divided by 5^12 in two 32-bit steps. Single-pair batches use
+     * VectorBatchKernel instead when it is available, with identical results.
+     * ConversionBatchBenchmark measures both against plain mulDiv.
+     * @param amount minor-unit amount
+     * @param rate cross rate at CROSS_SCALE
+     * @param mode rounding mode of the target currency
+     * @return minor-unit result
+     */
+    static long applyCrossRate(long amount, long rate, RoundingMode mode) {
+        if (amount < 0 || rate <= 0) {
+            return FixedPoint.mulDiv(amount, rate, CROSS_ONE, mode);
+        }
+        long hi = Math.multiplyHigh(amount, rate);
+        long lo = amount * rate;
+
+        // Divide by 2^12: keep the shifted-out bits for the remainder
+        long lowBits = lo & ((1L << CROSS_TWOS) - 1);
+        long shiftedLo = (lo >>> CROSS_TWOS) | (hi << (64 - CROSS_TWOS));
+        long shiftedHi = hi >>> CROSS_TWOS;
+        if (shiftedHi >= CROSS_FIVES) {
+            // Result does not fit in a long; let mulDiv report it
+            return FixedPoint.mulDiv(amount, rate, CROSS_ONE, mode);
+        }
+
+        // Divide by 5^12 one 32-bit digit at a time; each partial dividend fits in 60 bits
+        long part = (shiftedHi << 32) | (shiftedLo >>> 32);
+        long q1 = part / CROSS_FIVES;
+        long r = part - q1 * CROSS_FIVES;
+        part = (r << 32) | (shiftedLo & 0xFFFFFFFFL);
+        long q0 = part / CROSS_FIVES;
+        r = part - q0 * CROSS_FIVES;
+        long quotient = (q1 << 32) + q0;
+        if (quotient < 0) {
+            return FixedPoint.mulDiv(amount, rate, CROSS_ONE, mode);
+        }
+
+        long remainder = (r << CROSS_TWOS) | lowBits;
+        if (remainder != 0 && FixedPoint.roundsAway(quotient, remainder, CROSS_ONE, 1, mode)) {
+            quotient = Math.addExact(quotient, 1L);
+        }
+        return quotient;
+    }
+
+    /**
+     * Converts USD to a foreign currency, net of the fee, rounded with the
+     * foreign currency's mode
+     * @param usdAmount unscaled USD amount
+     * @param amountScale decimal places of usdAmount
+     * @param id target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param resultScale decimal places of the result
+     * @return unscaled amount in the foreign currency
+     */
+    public long convertFromUSD(long usdAmount, int amountScale, int id, long feePpm, int resultScale) {
+        return convertFromUSD(snapshot.get(), usdAmount, amountScale, id, feePpm, resultScale);
+    }
+
+    /**
+     * Converts USD to a foreign currency using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param usdAmount unscaled USD amount
+     * @param amountScale decimal places of usdAmount
+     * @param id target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param resultScale decimal places of the result
+     * @return unscaled amount in the foreign currency
+     */
+    public long convertFromUSD(RateSnapshot rates, long usdAmount, int amountScale, int id, long feePpm,
+            int resultScale) {
+        long factor = Math.multiplyExact(rates.rateAt(id), FEE_ONE - feePpm);
+        return FixedPoint.mulDiv(usdAmount, factor,
+                FixedPoint.pow10(amountScale + RATE_SCALE + FEE_SCALE - resultScale), roundingModes[id]);
+    }
+
+    /**
+     * Computes the fee charged on a USD to foreign conversion
+     * @param usdAmount unscaled USD amount
+     * @param amountScale decimal places of usdAmount
+     * @param id target currency id
+     * @param feePpm fee in parts per million
+     * @param resultScale decimal places of the result
+     * @return unscaled fee in the foreign currency
+     */
+    public long feeFromUSD(long usdAmount, int amountScale, int id, long feePpm, int resultScale) {
+        return feeFromUSD(snapshot.get(), usdAmount, amountScale, id, feePpm, resultScale);
+    }
+
+    /**
+     * Computes the fee charged on a USD to foreign conversion using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param usdAmount unscaled USD amount
+     * @param amountScale decimal places of usdAmount
+     * @param id target currency id
+     * @param feePpm fee in parts per million
+     * @param resultScale decimal places of the result
+     * @return unscaled fee in the foreign currency
+     */
+    public long feeFromUSD(RateSnapshot rates, long usdAmount, int amountScale, int id, long feePpm,
+            int resultScale) {
+        long factor = Math.multiplyExact(rates.rateAt(id), feePpm);
+        return FixedPoint.mulDiv(usdAmount, factor,
+                FixedPoint.pow10(amountScale + RATE_SCALE + FEE_SCALE - resultScale), roundingModes[id]);
+    }
+
+    /**
+     * Converts a foreign currency to USD, net of the fee
+     * @param foreignAmount unscaled foreign amount
+     * @param amountScale decimal places of foreignAmount
+     * @param id source currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param resultScale decimal places of the result
+     * @return unscaled amount in USD
+     */
+    public long convertToUSD(long foreignAmount, int amountScale, int id, long feePpm, int resultScale) {
+        return convertToUSD(snapshot.get(), foreignAmount, amountScale, id, feePpm, resultScale);
+    }
+
+    /**
+     * Converts a foreign currency to USD using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param foreignAmount unscaled foreign amount
+     * @param amountScale decimal places of foreignAmount
+     * @param id source currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @param resultScale decimal places of the result
+     * @return unscaled amount in USD
+     */
+    public long convertToUSD(RateSnapshot rates, long foreignAmount, int amountScale, int id, long feePpm,
+            int resultScale) {
+        return FixedPoint.mulDiv(quotientToUSD(rates, foreignAmount, amountScale, id), FEE_ONE - feePpm,
+                FixedPoint.pow10(QUOTIENT_SCALE + FEE_SCALE - resultScale), roundingModes[USD_ID]);
+    }
+
+    /**
+     * Computes the fee charged on a foreign to USD conversion
+     * @param foreignAmount unscaled foreign amount
+     * @param amountScale decimal places of foreignAmount
+     * @param id source currency id
+     * @param feePpm fee in parts per million
+     * @param resultScale decimal places of the result
+     * @return unscaled fee in USD
+     */
+    public long feeToUSD(long foreignAmount, int amountScale, int id, long feePpm, int resultScale) {
+        return feeToUSD(snapshot.get(), foreignAmount, amountScale, id, feePpm, resultScale);
+    }
+
+    /**
+     * Computes the fee charged on a foreign to USD conversion using the given snapshot
+     * @param rates snapshot from snapshot()
+     * @param foreignAmount unscaled foreign amount
+     * @param amountScale decimal places of foreignAmount
+     * @param id source currency id
+     * @param feePpm fee in parts per million
+     * @param resultScale decimal places of the result
+     * @return unscaled fee in USD
+     */
+    public long feeToUSD(RateSnapshot rates, long foreignAmount, int amountScale, int id, long feePpm,
+            int resultScale) {
+        return FixedPoint.mulDiv(quotientToUSD(rates, foreignAmount, amountScale, id), feePpm,
+                FixedPoint.pow10(QUOTIENT_SCALE + FEE_SCALE - resultScale), roundingModes[USD_ID]);
+    }
+
+    /**
+     * Divides a foreign amount by its rate, rounded half-up at QUOTIENT_SCALE.
+     * The division is done by multiplying with the precomputed reciprocal; the result
+     * is exactly what amount.divide(rate, 10, RoundingMode.HALF_UP) returned.
+     * @param rates snapshot holding the rate and its reciprocal
+     * @param foreignAmount unscaled foreign amount
+     * @param amountScale decimal places of foreignAmount
+     * @param id source currency id
+     * @return unscaled USD amount at QUOTIENT_SCALE
+     */
+    private static long quotientToUSD(RateSnapshot rates, long foreignAmount, int amountScale, int id) {
+        return FixedPoint.mulDivByReciprocal(foreignAmount, FixedPoint.pow10(QUOTIENT_SCALE + RATE_SCALE - amountScale),
+                rates.rateAt(id), rates.reciprocalAt(id), RoundingMode.HALF_UP);
+    }
+
+    /**
+     * A journaled snapshot and the sequence number that must be durable before it is published
+     */
+    private static final class Unpublished {
+        final long sequence;
+        final RateSnapshot snapshot;
+
+        Unpublished(long sequence, RateSnapshot snapshot) {
+            this.sequence = sequence;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -10,13 +10,10 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.prefs.Preferences;
 
 import java.awt.image.BufferedImage;
@@ -57,6 +54,7 @@ public class CurrencyConverterTest extends JFrame {
     private static final String PREF_LAST_CURRENCY = "lastCurrency";
     private static final String PREF_LAST_AMOUNT = "lastAmount";
     private static final String PREF_FEE_PERCENTAGE = "feePercentage";
+    private static final int AMOUNT_SCALE = 6; // Decimal places kept from the typed amount
     private static final String API_KEY = "13bcb8956948bd59e9bdb08757b5424a"; // Your API key
     private static final String API_URL = "https://manage.exchangeratesapi.io/dashboard" + API_KEY + "/latest/USD";
     
@@ -71,7 +69,10 @@ public class CurrencyConverterTest extends JFrame {
     private final JCheckBox applyFeeCheckbox;
     
     // Data model and preferences
-    private static Map<String, Double> exchangeRates = new HashMap<>();
+    private static ConversionEngine engine;
+    private static RateFetcher rateFetcher;
+    // Rates shared with the other converters on this host, or null if unavailable
+    private static SharedRateTable sharedRates;
     private final Preferences prefs;
     private boolean convertToUSD = false;
     private Timer rateUpdateTimer;
@@ -105,84 +106,32 @@ public class CurrencyConverterTest extends JFrame {
     }
     
     /**
-     * Initialize exchange rates with predefined values
+     * Initialize exchange rates from the saved rate snapshot (or the bundled
+     * defaults when there is none) plus any journaled updates made after it,
+     * or from the last provider response if that is newer.
+     * Later updates are journaled before they are shown and checkpointed into
+     * the snapshot file in the background.
+     * The first converter open on the host publishes its rates to the shared table,
+     * and any others take theirs from it instead of calling the provider themselves.
+     * Rates are kept once per currency; each country just points at its currency.
      */
     private static void initializeExchangeRates() {
-        // Middle Eastern countries
-        exchangeRates.put("Afghanistan (AFN)", 71.00);
-        exchangeRates.put("Armenia (AMD)", 391.14);
-        exchangeRates.put("Bahrain (BHD)", 0.38);
-        exchangeRates.put("Cyprus (EUR)", 0.92);
-        exchangeRates.put("Egypt (EGP)", 51.39);
-        exchangeRates.put("Georgia (GEL)", 2.75);
-        exchangeRates.put("Iran (IRR)", 42100.00);
-        exchangeRates.put("Iraq (IQD)", 1309.96);
-        exchangeRates.put("Israel (ILS)", 3.78);
-        exchangeRates.put("Jordan (JOD)", 0.71);
-        exchangeRates.put("Kuwait (KWD)", 0.31);
-        exchangeRates.put("Lebanon (LBP)", 90798.48);
-        exchangeRates.put("Oman (OMR)", 0.38);
-        exchangeRates.put("Palestine (ILS)", 3.78);
-        exchangeRates.put("Qatar (QAR)", 3.64);
-        exchangeRates.put("Saudi Arabia (SAR)", 3.75);
-        exchangeRates.put("Syria (SYP)", 13001.81);
-        exchangeRates.put("Turkey (TRY)", 38.01);
-        exchangeRates.put("United Arab Emirates (AED)", 3.67);
-        exchangeRates.put("Yemen (YER)", 245.65);
-        // African countries
-        exchangeRates.put("Algeria (DZD)", 133.41);
-        exchangeRates.put("Angola (AOA)", 916.00);
-        exchangeRates.put("Benin (XOF)", 599.58);
-        exchangeRates.put("Botswana (BWP)", 14.09);
-        exchangeRates.put("Burkina Faso (XOF)", 597.84);
-        exchangeRates.put("Burundi (BIF)", 2976.63);
-        exchangeRates.put("Cabo Verde (CVE)", 100.38);
-        exchangeRates.put("Cameroon (XAF)", 599.57);
-        exchangeRates.put("Central African Republic (XAF)", 599.57);
-        exchangeRates.put("Chad (XAF)", 599.57);
-        exchangeRates.put("Comoros (KMF)", 448.02);
-        exchangeRates.put("Democratic Republic of the Congo (CDF)", 2906.33);
-        exchangeRates.put("Republic of the Congo (XAF)", 2871.00);
-        exchangeRates.put("Djibouti (DJF)", 178.38);
-        exchangeRates.put("Equatorial Guinea (XAF)", 8657.72);
-        exchangeRates.put("Eritrea (ERN)", 15.00);
-        exchangeRates.put("Eswatini (ZAR)", 19.54);
-        exchangeRates.put("Ethiopia (ETB)", 132.60);
-        exchangeRates.put("Gabon (XAF)", 599.57);
-        exchangeRates.put("Gambia (GMD)", 71.50);
-        exchangeRates.put("Ghana (GHS)", 15.53);
-        exchangeRates.put("Guinea (GNF)", 8667.85);
-        exchangeRates.put("Guinea-Bissau (XOF)", 8650.41);
-        exchangeRates.put("Ivory Coast (XOF)", 598.34);
-        exchangeRates.put("Kenya (KES)", 129.71);
-        exchangeRates.put("Lesotho (LSL)", 19.40);
-        exchangeRates.put("Liberia (LRD)", 199.49);
-        exchangeRates.put("Libya (LYD)", 5.56);
-        exchangeRates.put("Madagascar (MGA)", 4675.33);
-        exchangeRates.put("Malawi (MWK)", 1736.96);
-        exchangeRates.put("Mali (XOF)", 598.34);
-        exchangeRates.put("Mauritania (MRU)", 39.70);
-        exchangeRates.put("Mauritius (MUR)", 45.12);
-        exchangeRates.put("Morocco (MAD)", 9.54);
-        exchangeRates.put("Mozambique (MZN)", 63.90);
-        exchangeRates.put("Namibia (NAD)", 18.72);
-        exchangeRates.put("Niger (XOF)", 1546.27);
-        exchangeRates.put("Nigeria (NGN)", 1566.0);
-        exchangeRates.put("Rwanda (RWF)", 1412.25);
-        exchangeRates.put("São Tomé and Príncipe (STN)", 22281.80);
-        exchangeRates.put("Senegal (XOF)", 598.34);
-        exchangeRates.put("Seychelles (SCR)", 14.29);
-        exchangeRates.put("Sierra Leone (SLL)", 22639.50);
-        exchangeRates.put("Somalia (SOS)", 572.25);
-        exchangeRates.put("South Africa (ZAR)", 19.50);
-        exchangeRates.put("South Sudan (SSP)", 130.26);
-        exchangeRates.put("Sudan (SDG)", 600.50);
-        exchangeRates.put("Tanzania (TZS)", 2691.72);
-        exchangeRates.put("Togo (XOF)", 598.35);
-        exchangeRates.put("Tunisia (TND)", 3.07);
-        exchangeRates.put("Uganda (UGX)", 3722.90);
-        exchangeRates.put("Zambia (ZMW)", 28.02);
-        exchangeRates.put("Zimbabwe (ZWL)", 322.00);
+        engine = RateJournal.recover(RateSnapshotFile.defaultLocation(), RateJournal.defaultLocation());
+        rateFetcher = RateFetcher.configured(engine, API_URL,
+                RateResponseCache.load(RateResponseCache.defaultLocation()));
+        // Every window runs an hourly refresh timer; they share one provider call per hour
+        rateFetcher.setMinRefreshInterval(Duration.ofMinutes(59));
+        rateFetcher.warmStart();
+        try {
+            sharedRates = SharedRateTable.open(SharedRateTable.defaultLocation());
+            if (sharedRates.isWriter()) {
+                sharedRates.publish(engine.registry(), engine.snapshot());
+            } else {
+                sharedRates.syncTo(engine);
+            }
+        } catch (IOException e) {
+            System.err.println("Not sharing exchange rates: " + e.getMessage());
+        }
     }
 
     /**
@@ -214,7 +163,7 @@ public class CurrencyConverterTest extends JFrame {
         amountField = new JTextField(prefs.get(PREF_LAST_AMOUNT, "1.00"), 10);
         
         // Configure amount field to accept only numeric input
-        configureDecimalTextField(amountField);
+        configureDecimalTextField(amountField, AMOUNT_SCALE);
         
         // Currency selection dropdown
         JLabel currencyLabel = new JLabel("Currency:");
@@ -224,7 +173,7 @@ public class CurrencyConverterTest extends JFrame {
         // Setup fee components
         JLabel feeLabel = new JLabel("Fee (%):");
         feeField = new JTextField(prefs.get(PREF_FEE_PERCENTAGE, "2.5"), 5);
-        configureDecimalTextField(feeField);
+        configureDecimalTextField(feeField, ConversionEngine.FEE_PERCENT_SCALE);
         
         applyFeeCheckbox = new JCheckBox("Apply fee to conversion");
         
@@ -278,7 +227,7 @@ public class CurrencyConverterTest extends JFrame {
         
         // Restore previous settings from preferences
         String lastCurrency = prefs.get(PREF_LAST_CURRENCY, null);
-        if (lastCurrency != null && exchangeRates.containsKey(lastCurrency)) {
+        if (lastCurrency != null && engine.registry().displayNames().contains(lastCurrency)) {
             currencyCombo.setSelectedItem(lastCurrency);
         }
         
@@ -336,12 +285,20 @@ public class CurrencyConverterTest extends JFrame {
         graphics2D.dispose();
         return resizedImage;
     }
-    private void configureDecimalTextField(JTextField textField) {
+    /**
+     * Restricts a text field to unsigned decimals with at most the given number of
+     * decimal places, so nothing typed is silently rounded away when it is parsed
+     * @param textField field to restrict
+     * @param maxDecimals decimal places the field's value is parsed at
+     */
+    private void configureDecimalTextField(JTextField textField, int maxDecimals) {
+        String decimalPattern = "^\\d*(\\.\\d{0," + maxDecimals + "})?$";
         ((AbstractDocument) textField.getDocument()).setDocumentFilter(new DocumentFilter() {
             @Override
             public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) 
                     throws BadLocationException {
-                if (isValidDecimalInput(fb.getDocument().getText(0, fb.getDocument().getLength()) + string)) {
+                String currentText = fb.getDocument().getText(0, fb.getDocument().getLength());
+                if (isValidDecimalInput(currentText.substring(0, offset) + string + currentText.substring(offset))) {
                     super.insertString(fb, offset, string, attr);
                 }
             }
@@ -365,8 +322,8 @@ public class CurrencyConverterTest extends JFrame {
                 
                 // Check for valid decimal format
                 try {
-                    // Check if it's a valid decimal number with optional decimal point
-                    if (text.matches("^\\d*\\.?\\d*$")) {
+                    // Check for a decimal number with no more places than are kept
+                    if (text.matches(decimalPattern)) {
                         return true;
                     }
                 } catch (NumberFormatException e) {
@@ -398,7 +355,7 @@ public class CurrencyConverterTest extends JFrame {
                 
                 // Filter currencies based on input text
                 DefaultComboBoxModel<String> filteredModel = new DefaultComboBoxModel<>();
-                for (String currency : exchangeRates.keySet()) {
+                for (String currency : engine.registry().displayNames()) {
                     if (currency.toLowerCase().contains(input)) {
                         filteredModel.addElement(currency);
                     }
@@ -417,7 +374,7 @@ public class CurrencyConverterTest extends JFrame {
      */
     private void refreshCurrencyList() {
         // Sort currencies in alphabetical order
-        java.util.List<String> sortedCurrencies = new ArrayList<>(exchangeRates.keySet());
+        java.util.List<String> sortedCurrencies = engine.registry().displayNames();
         Collections.sort(sortedCurrencies);
         
         DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>();
@@ -451,10 +408,11 @@ public class CurrencyConverterTest extends JFrame {
                 return;
             }
             
-            BigDecimal amount;
+            // Parse the amount into fixed point for the conversion engine
+            long amount;
             try {
-                amount = new BigDecimal(amountText);
-                if (amount.compareTo(BigDecimal.ZERO) < 0) {
+                amount = FixedPoint.parse(amountText, AMOUNT_SCALE, RoundingMode.HALF_UP);
+                if (amount < 0) {
                     JOptionPane.showMessageDialog(this, "Please enter a positive amount.",
                             "Input Error", JOptionPane.WARNING_MESSAGE);
                     return;
@@ -465,22 +423,24 @@ public class CurrencyConverterTest extends JFrame {
                 return;
             }
             
-            // Get selected currency
+            // Get selected currency; the id comes straight from the "(CODE)" suffix
             String selectedCurrency = (String) currencyCombo.getSelectedItem();
-            if (selectedCurrency == null || !exchangeRates.containsKey(selectedCurrency)) {
+            int currencyId = selectedCurrency == null ? CurrencyRegistry.NONE : engine.idOf(selectedCurrency);
+            if (currencyId == CurrencyRegistry.NONE) {
                 JOptionPane.showMessageDialog(this, "Please select a valid currency.",
                         "Input Error", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             
-            // Get fee percentage if applicable
-            BigDecimal feePercentage = BigDecimal.ZERO;
+            // Get fee percentage if applicable (as parts per million of the result)
+            long feePpm = 0;
+            String feeText = "";
             if (applyFeeCheckbox.isSelected()) {
                 try {
-                    String feeText = feeField.getText().trim();
+                    feeText = feeField.getText().trim();
                     if (!feeText.isEmpty()) {
-                        feePercentage = new BigDecimal(feeText);
-                        if (feePercentage.compareTo(BigDecimal.ZERO) < 0) {
+                        feePpm = FixedPoint.parse(feeText, ConversionEngine.FEE_PERCENT_SCALE, RoundingMode.HALF_UP);
+                        if (feePpm < 0) {
                             JOptionPane.showMessageDialog(this, "Fee percentage cannot be negative.",
                                     "Input Error", JOptionPane.WARNING_MESSAGE);
                             return;
@@ -494,45 +454,38 @@ public class CurrencyConverterTest extends JFrame {
             }
             
             // Perform conversion based on direction
-            BigDecimal result;
-            BigDecimal feeAmount = BigDecimal.ZERO;
-            String currencyCode = getCurrencyCode(selectedCurrency);
-            Double rate = exchangeRates.get(selectedCurrency);
+            long result;
+            long feeAmount;
+            String currencyCode = engine.registry().code(currencyId);
+            // Pin one snapshot so the result and fee use the same rates even if a refresh lands
+            RateSnapshot rates = engine.snapshot();
+            // Results are rounded to the ISO 4217 minor units of the currency they are in
+            int usdDigits = engine.registry().minorDigits(ConversionEngine.USD_ID);
+            int currencyDigits = engine.registry().minorDigits(currencyId);
             
             if (convertToUSD) {
-                // Convert from foreign currency to USD
-                result = amount.divide(BigDecimal.valueOf(rate), 10, RoundingMode.HALF_UP);
-                
-                // Calculate and apply fee if needed
-                if (applyFeeCheckbox.isSelected() && feePercentage.compareTo(BigDecimal.ZERO) > 0) {
-                    feeAmount = result.multiply(feePercentage.divide(new BigDecimal("100")));
-                    result = result.subtract(feeAmount);
-                }
+                // Convert the amount exactly as typed; only the result is rounded, to the
+                // minor units of the currency it is in
+                result = engine.convertToUSD(rates, amount, AMOUNT_SCALE, currencyId, feePpm, usdDigits);
+                feeAmount = engine.feeToUSD(rates, amount, AMOUNT_SCALE, currencyId, feePpm, usdDigits);
                 
                 // Format the result display
-                DecimalFormat df = new DecimalFormat("#,##0.00");
                 resultLabel.setText(String.format("<html>%s %s = %s USD<br>%s</html>", 
-                        df.format(amount), 
+                        formatTypedAmount(amount, currencyDigits), 
                         currencyCode, 
-                        df.format(result),
-                        formatFeeDisplay(feeAmount, feePercentage)));
+                        formatAmount(result, usdDigits, usdDigits),
+                        formatFeeDisplay(feeAmount, feeText, usdDigits)));
             } else {
-                // Convert from USD to foreign currency
-                result = amount.multiply(BigDecimal.valueOf(rate));
-                
-                // Calculate and apply fee if needed
-                if (applyFeeCheckbox.isSelected() && feePercentage.compareTo(BigDecimal.ZERO) > 0) {
-                    feeAmount = result.multiply(feePercentage.divide(new BigDecimal("100")));
-                    result = result.subtract(feeAmount);
-                }
+                // Convert from USD to foreign currency, net of the fee
+                result = engine.convertFromUSD(rates, amount, AMOUNT_SCALE, currencyId, feePpm, currencyDigits);
+                feeAmount = engine.feeFromUSD(rates, amount, AMOUNT_SCALE, currencyId, feePpm, currencyDigits);
                 
                 // Format the result display
-                DecimalFormat df = new DecimalFormat("#,##0.00");
                 resultLabel.setText(String.format("<html>%s USD = %s %s<br>%s</html>", 
-                        df.format(amount),
-                        df.format(result), 
+                        formatTypedAmount(amount, usdDigits),
+                        formatAmount(result, currencyDigits, currencyDigits), 
                         currencyCode,
-                        formatFeeDisplay(feeAmount, feePercentage)));
+                        formatFeeDisplay(feeAmount, feeText, currencyDigits)));
             }
             
             // Save preferences
@@ -549,47 +502,64 @@ public class CurrencyConverterTest extends JFrame {
     
     /**
      * Creates a formatted fee display string
-     * @param feeAmount the calculated fee amount
-     * @param feePercentage the fee percentage
+     * @param feeAmount the calculated fee amount in minor units
+     * @param feePercentage the fee percentage as typed
+     * @param digits minor-unit digits of the currency the fee is in
      * @return formatted string for display
      */
-    private String formatFeeDisplay(BigDecimal feeAmount, BigDecimal feePercentage) {
-        if (feeAmount.compareTo(BigDecimal.ZERO) > 0) {
-            DecimalFormat df = new DecimalFormat("#,##0.00");
+    private String formatFeeDisplay(long feeAmount, String feePercentage, int digits) {
+        if (feeAmount > 0) {
             return String.format("Fee (%s%%): %s", 
-                    feePercentage.toString(), 
-                    df.format(feeAmount));
+                    feePercentage, 
+                    formatAmount(feeAmount, digits, digits));
         }
         return "";
     }
     
     /**
-     * Extracts the currency code from the full currency name
-     * @param currencyName full currency name (e.g., "United States Dollar (USD)")
-     * @return currency code (e.g., "USD")
+     * Formats a scaled amount with a currency's number of decimal places
+     * @param value scaled amount
+     * @param valueScale decimal places held by value
+     * @param digits decimal places to show
+     * @return formatted amount such as "1,234.50"
      */
-    private String getCurrencyCode(String currencyName) {
-        int openParenIndex = currencyName.indexOf('(');
-        int closeParenIndex = currencyName.indexOf(')');
-        
-        if (openParenIndex >= 0 && closeParenIndex > openParenIndex) {
-            return currencyName.substring(openParenIndex + 1, closeParenIndex);
-        }
-        return currencyName;
+    private static String formatAmount(long value, int valueScale, int digits) {
+        DecimalFormat df = new DecimalFormat(digits == 0 ? "#,##0" : "#,##0." + "0".repeat(digits));
+        return df.format(FixedPoint.toBigDecimal(value, valueScale));
+    }
+    
+    /**
+     * Formats a typed amount with at least a currency's number of decimal places and
+     * any further places that were typed, so the amount shown is the amount converted
+     * @param amount amount scaled by AMOUNT_SCALE
+     * @param digits minimum decimal places to show
+     * @return formatted amount such as "1,234.50" or "1.005"
+     */
+    private static String formatTypedAmount(long amount, int digits) {
+        DecimalFormat df = new DecimalFormat("#,##0." + "0".repeat(digits) + "#".repeat(AMOUNT_SCALE - digits));
+        return df.format(FixedPoint.toBigDecimal(amount, AMOUNT_SCALE));
     }
     
     /**
-     * Fetch exchange rates from API (implementation currently commented out)
+     * Fetch exchange rates from the API in the background. The timer calls this on the
+     * event dispatch thread, so it only starts the request; conversions keep using the
+     * current rates until the new ones are swapped in. A converter reading the shared
+     * table takes the rates its writer published and only fetches if there are none.
      */
     private static void fetchExchangeRates() {
-        try {
-            // This is a placeholder for API integration
-            // The actual implementation would fetch rates from the API
-            // but is currently using static rates defined in initializeExchangeRates()
-            
-            System.out.println("Exchange rates updated.");
-        } catch (Exception e) {
-            System.err.println("Error fetching exchange rates: " + e.getMessage());
+        if (sharedRates != null && !sharedRates.isWriter() && sharedRates.syncTo(engine)) {
+            System.out.println("Exchange rates updated from the shared table.");
+            return;
         }
+        rateFetcher.refresh().whenComplete((delta, error) -> {
+            if (error != null) {
+                System.err.println("Error fetching exchange rates: " + RateFetcher.cause(error).getMessage());
+            } else {
+                if (sharedRates != null && sharedRates.isWriter()) {
+                    sharedRates.publish(engine.registry(), delta);
+                }
+                System.out.println("Exchange rates updated.");
+            }
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,326 @@
+package com.example;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CurrencyRegistry - Maps 3-letter ISO 4217 codes to small dense integer ids.
+ * A code is packed into 15 bits (5 bits per letter), and a lookup table turns the packed
+ * code into the id used to index rate arrays, so no String hashing happens per lookup.
+ * Countries are aliases that point at a currency id; they carry the display names.
+ * Each currency also carries its ISO 4217 minor-unit exponent and rounding mode.
+ *
+ * A ConversionEngine sizes its arrays and copies the rounding modes from the registry
+ * when it is built, so it freezes the registry: after that no currency can be added
+ * and no minor units changed. Countries can still be added for known currencies.
+ */
+public final class CurrencyRegistry {
+    public static final int NONE = -1;
+
+    // 5 bits per letter, 3 letters
+    private static final int PACKED_SPACE = 1 << 15;
+
+    // ISO 4217 currencies whose minor unit is not 1/100
+    private static final String[] ZERO_DECIMAL_CODES = {
+        "BIF", "CLP", "DJF", "GNF", "ISK", "JPY", "KMF", "KRW", "PYG",
+        "RWF", "UGX", "UYI", "VND", "VUV", "XAF", "XOF", "XPF"
+    };
+    private static final String[] THREE_DECIMAL_CODES = {
+        "BHD", "IQD", "JOD", "KWD", "LYD", "OMR", "TND"
+    };
+
+    private final short[] idByPacked = new short[PACKED_SPACE];
+    private int[] packedById = new int[16];
+    private String[] codeById = new String[16];
+    private int size;
+
+    // Minor-unit metadata per currency id, with 10^digits precomputed
+    private int[] minorDigits = new int[16];
+    private long[] minorFactors = new long[16];
+    private RoundingMode[] roundingModes = new RoundingMode[16];
+
+    // Country alias index: display name and currency id per country
+    private String[] displayNames = new String[16];
+    private int[] countryCurrency = new int[16];
+    private int countryCount;
+    // Set once an engine has been built on this registry
+    private boolean frozen;
+
+    /**
+     * Creates an empty registry
+     */
+    public CurrencyRegistry() {
+        Arrays.fill(idByPacked, (short) NONE);
+    }
+
+    /**
+     * Packs a 3-letter upper-case code into 15 bits
+     * @param code ISO code (e.g. "KES")
+     * @return packed code, or NONE if the text is not three letters A-Z
+     */
+    public static int pack(CharSequence code) {
+        if (code.length() != 3) {
+            return NONE;
+        }
+        return pack(code.charAt(0), code.charAt(1), code.charAt(2));
+    }
+
+    /**
+     * Packs three upper-case letters into 15 bits
+     * @param a first letter
+     * @param b second letter
+     * @param c third letter
+     * @return packed code, or NONE if any character is not A-Z
+     */
+    public static int pack(char a, char b, char c) {
+        if (a < 'A' || a > 'Z' || b < 'A' || b > 'Z' || c < 'A' || c > 'Z') {
+            return NONE;
+        }
+        return (a - 'A') << 10 | (b - 'A') << 5 | (c - 'A');
+    }
+
+    /**
+     * Turns a packed code back into its letters
+     * @param packed packed code
+     * @return ISO code
+     */
+    public static String unpack(int packed) {
+        return new String(new char[] {
+            (char) ('A' + (packed >> 10 & 31)),
+            (char) ('A' + (packed >> 5 & 31)),
+            (char) ('A' + (packed & 31))
+        });
+    }
+
+    /**
+     * Registers a currency, returning its existing id if already known
+     * @param code ISO code
+     * @return dense currency id
+     * @throws IllegalStateException if the code is new and the registry is frozen
+     */
+    public int register(String code) {
+        int packed = pack(code);
+        if (packed == NONE) {
+            throw new IllegalArgumentException("Invalid currency code: " + code);
+        }
+        int id = idByPacked[packed];
+        if (id != NONE) {
+            return id;
+        }
+        if (frozen) {
+            throw new IllegalStateException("Registry is frozen, cannot register " + code);
+        }
+        if (size == packedById.length) {
+            packedById = Arrays.copyOf(packedById, size * 2);
+            codeById = Arrays.copyOf(codeById, size * 2);
+            minorDigits = Arrays.copyOf(minorDigits, size * 2);
+            minorFactors = Arrays.copyOf(minorFactors, size * 2);
+            roundingModes = Arrays.copyOf(roundingModes, size * 2);
+        }
+        id = size++;
+        idByPacked[packed] = (short) id;
+        packedById[id] = packed;
+        codeById[id] = unpack(packed);
+        // Half-even is what the old DecimalFormat display used
+        setMinorUnits(id, defaultMinorDigits(codeById[id]), RoundingMode.HALF_EVEN);
+        return id;
+    }
+
+    /**
+     * Gets the ISO 4217 minor-unit exponent of a currency code
+     * @param code ISO code
+     * @return number of decimal places (0, 2 or 3)
+     */
+    public static int defaultMinorDigits(String code) {
+        if (Arrays.asList(ZERO_DECIMAL_CODES).contains(code)) {
+            return 0;
+        }
+        if (Arrays.asList(THREE_DECIMAL_CODES).contains(code)) {
+            return 3;
+        }
+        return 2;
+    }
+
+    /**
+     * Overrides the minor units and rounding mode of a currency
+     * @param id currency id
+     * @param digits number of decimal places in the minor unit
+     * @param mode rounding mode used when amounts are rounded to minor units
+     * @throws IllegalStateException if the registry is frozen
+     */
+    public void setMinorUnits(int id, int digits, RoundingMode mode) {
+        if (frozen) {
+            throw new IllegalStateException("Registry is frozen, cannot change " + codeById[id]);
+        }
+        if (mode == RoundingMode.UNNECESSARY) {
+            throw new IllegalArgumentException("Rounding mode must round");
+        }
+        minorFactors[id] = FixedPoint.pow10(digits);
+        minorDigits[id] = digits;
+        roundingModes[id] = mode;
+    }
+
+    /**
+     * Stops currencies from being added or their minor units changed. Called by
+     * ConversionEngine, whose arrays are sized to the registry when it is built.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * Checks whether the registry has been frozen
+     * @return true once an engine has been built on it
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Gets the number of decimal places in a currency's minor unit
+     * @param id currency id
+     * @return minor-unit exponent
+     */
+    public int minorDigits(int id) {
+        return minorDigits[id];
+    }
+
+    /**
+     * Gets the number of minor units in one major unit
+     * @param id currency id
+     * @return 10^minorDigits(id)
+     */
+    public long minorFactor(int id) {
+        return minorFactors[id];
+    }
+
+    /**
+     * Gets the rounding mode used for amounts in a currency
+     * @param id currency id
+     * @return rounding mode
+     */
+    public RoundingMode roundingMode(int id) {
+        return roundingModes[id];
+    }
+
+    /**
+     * Adds a country that uses a currency, registering the currency if needed
+     * @param country country name (e.g. "Senegal")
+     * @param code ISO code of the currency it uses
+     * @return index of the new country
+     */
+    public int addCountry(String country, String code) {
+        int id = register(code);
+        if (countryCount == displayNames.length) {
+            displayNames = Arrays.copyOf(displayNames, countryCount * 2);
+            countryCurrency = Arrays.copyOf(countryCurrency, countryCount * 2);
+        }
+        displayNames[countryCount] = country + " (" + codeById[id] + ")";
+        countryCurrency[countryCount] = id;
+        return countryCount++;
+    }
+
+    /**
+     * Gets the number of countries
+     * @return number of country aliases
+     */
+    public int countryCount() {
+        return countryCount;
+    }
+
+    /**
+     * Gets the display name of a country
+     * @param country country index
+     * @return name such as "Senegal (XOF)"
+     */
+    public String displayName(int country) {
+        return displayNames[country];
+    }
+
+    /**
+     * Gets the currency a country uses
+     * @param country country index
+     * @return currency id
+     */
+    public int currencyOfCountry(int country) {
+        return countryCurrency[country];
+    }
+
+    /**
+     * Gets the display names of all countries, for filling the UI
+     * @return display names in the order countries were added
+     */
+    public List<String> displayNames() {
+        List<String> names = new ArrayList<>(countryCount);
+        for (int i = 0; i < countryCount; i++) {
+            names.add(displayNames[i]);
+        }
+        return names;
+    }
+
+    /**
+     * Looks up a currency id by ISO code
+     * @param code ISO code
+     * @return currency id, or NONE if unknown
+     */
+    public int idOf(CharSequence code) {
+        int packed = pack(code);
+        return packed == NONE ? NONE : idByPacked[packed];
+    }
+
+    /**
+     * Looks up a currency id by packed code
+     * @param packed packed code from pack()
+     * @return currency id, or NONE if unknown
+     */
+    public int idOfPacked(int packed) {
+        return packed < 0 || packed >= idByPacked.length ? NONE : idByPacked[packed];
+    }
+
+    /**
+     * Looks up a currency id from a display name such as "Kenya (KES)"
+     * without allocating a substring
+     * @param displayName name with the ISO code in parentheses
+     * @return currency id, or NONE if the name has no known code
+     */
+    public int idOfDisplayName(CharSequence displayName) {
+        int close = displayName.length() - 1;
+        // Display names end with "(CODE)"; allow trailing spaces from the editable combo box
+        while (close >= 0 && displayName.charAt(close) == ' ') {
+            close--;
+        }
+        if (close < 4 || displayName.charAt(close) != ')' || displayName.charAt(close - 4) != '(') {
+            return NONE;
+        }
+        int packed = pack(displayName.charAt(close - 3), displayName.charAt(close - 2), displayName.charAt(close - 1));
+        return packed == NONE ? NONE : idByPacked[packed];
+    }
+
+    /**
+     * Gets the ISO code for an id
+     * @param id currency id
+     * @return ISO code
+     */
+    public String code(int id) {
+        return codeById[id];
+    }
+
+    /**
+     * Gets the packed code for an id
+     * @param id currency id
+     * @return packed code
+     */
+    public int packed(int id) {
+        return packedById[id];
+    }
+
+    /**
+     * Gets the number of registered currencies
+     * @return number of ids in use
+     */
+    public int size() {
+        return size;
+    }
+}
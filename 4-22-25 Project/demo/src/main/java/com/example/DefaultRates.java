@@ -0,0 +1,101 @@
+package com.example;
+
+import java.math.RoundingMode;
+
+/**
+ * DefaultRates - Bundled exchange rates used when nothing newer is available.
+ * Rates are stored once per ISO currency; countries only name the currency they use,
+ * so countries that share a currency (e.g. the XOF zone) always see the same rate.
+ */
+public final class DefaultRates {
+    // When the bundled rates were last updated: 2025-04-07T00:00:00Z
+    public static final long TIMESTAMP_MILLIS = 1_743_984_000_000L;
+
+    // Foreign units per 1 USD, one entry per currency (last updated 04/07/25)
+    private static final String[][] CURRENCY_RATES = {
+        {"AED", "3.67"}, {"AFN", "71.00"}, {"AMD", "391.14"}, {"AOA", "916.00"},
+        {"BHD", "0.38"}, {"BIF", "2976.63"}, {"BWP", "14.09"}, {"CDF", "2906.33"},
+        {"CVE", "100.38"}, {"DJF", "178.38"}, {"DZD", "133.41"}, {"EGP", "51.39"},
+        {"ERN", "15.00"}, {"ETB", "132.60"}, {"EUR", "0.92"}, {"GEL", "2.75"},
+        {"GHS", "15.53"}, {"GMD", "71.50"}, {"GNF", "8667.85"}, {"ILS", "3.78"},
+        {"IQD", "1309.96"}, {"IRR", "42100.00"}, {"JOD", "0.71"}, {"KES", "129.71"},
+        {"KMF", "448.02"}, {"KWD", "0.31"}, {"LBP", "90798.48"}, {"LRD", "199.49"},
+        {"LSL", "19.40"}, {"LYD", "5.56"}, {"MAD", "9.54"}, {"MGA", "4675.33"},
+        {"MRU", "39.70"}, {"MUR", "45.12"}, {"MWK", "1736.96"}, {"MZN", "63.90"},
+        {"NAD", "18.72"}, {"NGN", "1566.00"}, {"OMR", "0.38"}, {"QAR", "3.64"},
+        {"RWF", "1412.25"}, {"SAR", "3.75"}, {"SCR", "14.29"}, {"SDG", "600.50"},
+        {"SLL", "22639.50"}, {"SOS", "572.25"}, {"SSP", "130.26"}, {"STN", "22281.80"},
+        {"SYP", "13001.81"}, {"TND", "3.07"}, {"TRY", "38.01"}, {"TZS", "2691.72"},
+        {"UGX", "3722.90"}, {"XAF", "599.57"}, {"XOF", "598.34"}, {"YER", "245.65"},
+        {"ZAR", "19.50"}, {"ZMW", "28.02"}, {"ZWL", "322.00"}
+    };
+
+    // Country -> currency alias index
+    private static final String[][] COUNTRIES = {
+        // Middle Eastern countries
+        {"Afghanistan", "AFN"}, {"Armenia", "AMD"}, {"Bahrain", "BHD"}, {"Cyprus", "EUR"},
+        {"Egypt", "EGP"}, {"Georgia", "GEL"}, {"Iran", "IRR"}, {"Iraq", "IQD"},
+        {"Israel", "ILS"}, {"Jordan", "JOD"}, {"Kuwait", "KWD"}, {"Lebanon", "LBP"},
+        {"Oman", "OMR"}, {"Palestine", "ILS"}, {"Qatar", "QAR"}, {"Saudi Arabia", "SAR"},
+        {"Syria", "SYP"}, {"Turkey", "TRY"}, {"United Arab Emirates", "AED"}, {"Yemen", "YER"},
+        // African countries
+        {"Algeria", "DZD"}, {"Angola", "AOA"}, {"Benin", "XOF"}, {"Botswana", "BWP"},
+        {"Burkina Faso", "XOF"}, {"Burundi", "BIF"}, {"Cabo Verde", "CVE"}, {"Cameroon", "XAF"},
+        {"Central African Republic", "XAF"}, {"Chad", "XAF"}, {"Comoros", "KMF"},
+        {"Democratic Republic of the Congo", "CDF"}, {"Republic of the Congo", "XAF"},
+        {"Djibouti", "DJF"}, {"Equatorial Guinea", "XAF"}, {"Eritrea", "ERN"}, {"Eswatini", "ZAR"},
+        {"Ethiopia", "ETB"}, {"Gabon", "XAF"}, {"Gambia", "GMD"}, {"Ghana", "GHS"},
+        {"Guinea", "GNF"}, {"Guinea-Bissau", "XOF"}, {"Ivory Coast", "XOF"}, {"Kenya", "KES"},
+        {"Lesotho", "LSL"}, {"Liberia", "LRD"}, {"Libya", "LYD"}, {"Madagascar", "MGA"},
+        {"Malawi", "MWK"}, {"Mali", "XOF"}, {"Mauritania", "MRU"}, {"Mauritius", "MUR"},
+        {"Morocco", "MAD"}, {"Mozambique", "MZN"}, {"Namibia", "NAD"}, {"Niger", "XOF"},
+        {"Nigeria", "NGN"}, {"Rwanda", "RWF"}, {"São Tomé and Príncipe", "STN"},
+        {"Senegal", "XOF"}, {"Seychelles", "SCR"}, {"Sierra Leone", "SLL"}, {"Somalia", "SOS"},
+        {"South Africa", "ZAR"}, {"South Sudan", "SSP"}, {"Sudan", "SDG"}, {"Tanzania", "TZS"},
+        {"Togo", "XOF"}, {"Tunisia", "TND"}, {"Uganda", "UGX"}, {"Zambia", "ZMW"},
+        {"Zimbabwe", "ZWL"}
+    };
+
+    private DefaultRates() {
+    }
+
+    /**
+     * Creates a registry holding USD, every bundled currency and the country aliases
+     * @return a new registry with USD as id 0
+     */
+    public static CurrencyRegistry createRegistry() {
+        CurrencyRegistry registry = new CurrencyRegistry();
+        registry.register(ConversionEngine.USD);
+        for (String[] rate : CURRENCY_RATES) {
+            registry.register(rate[0]);
+        }
+        for (String[] country : COUNTRIES) {
+            registry.addCountry(country[0], country[1]);
+        }
+        return registry;
+    }
+
+    /**
+     * Builds the bundled rate table for a registry
+     * @param registry registry created by createRegistry()
+     * @return foreign units per USD at ConversionEngine.RATE_SCALE, indexed by currency id
+     */
+    public static long[] scaledRates(CurrencyRegistry registry) {
+        long[] rates = new long[registry.size()];
+        rates[ConversionEngine.USD_ID] = FixedPoint.pow10(ConversionEngine.RATE_SCALE);
+        for (String[] rate : CURRENCY_RATES) {
+            rates[registry.idOf(rate[0])] = FixedPoint.parse(rate[1], ConversionEngine.RATE_SCALE, RoundingMode.HALF_UP);
+        }
+        return rates;
+    }
+
+    /**
+     * Creates a conversion engine loaded with the bundled rates, stamped with the date
+     * they were last updated so any newer source takes precedence
+     * @return a new engine
+     */
+    public static ConversionEngine createEngine() {
+        CurrencyRegistry registry = createRegistry();
+        return new ConversionEngine(registry, scaledRates(registry), 1, TIMESTAMP_MILLIS);
+    }
+}
@@ -0,0 +1,369 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * FixedPoint - Allocation-free arithmetic on scaled long values.
+ * A value is stored as an unscaled long with an implied number of decimal places,
+ * e.g. 12.34 at scale 2 is stored as 1234.
+ */
+public final class FixedPoint {
+    // Powers of ten that fit in a long (10^0 .. 10^18)
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1L;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10L;
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Returns 10 raised to the given exponent
+     * @param exponent power of ten between 0 and 18
+     * @return 10^exponent
+     */
+    public static long pow10(int exponent) {
+        if (exponent < 0 || exponent >= POW10.length) {
+            throw new ArithmeticException("Scale out of range: " + exponent);
+        }
+        return POW10[exponent];
+    }
+
+    /**
+     * Computes a * b / divisor with a single rounding step.
+     * The intermediate product is kept at 128 bits, so it never overflows;
+     * only a final result outside the long range throws.
+     * @param a first factor
+     * @param b second factor
+     * @param divisor non-zero divisor
+     * @param mode rounding mode applied to the quotient
+     * @return the rounded quotient
+     */
+    public static long mulDiv(long a, long b, long divisor, RoundingMode mode) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (a == Long.MIN_VALUE || b == Long.MIN_VALUE || divisor == Long.MIN_VALUE) {
+            throw new ArithmeticException("Overflow");
+        }
+        int sign = Long.signum(a) * Long.signum(b) * Long.signum(divisor);
+        long x = Math.abs(a);
+        long y = Math.abs(b);
+        long d = Math.abs(divisor);
+
+        // 128-bit unsigned product hi:lo (hi is non-negative because x and y are)
+        long hi = Math.multiplyHigh(x, y);
+        long lo = x * y;
+
+        long quotient;
+        long remainder;
+        if (hi == 0 && lo >= 0) {
+            quotient = lo / d;
+            remainder = lo - quotient * d;
+        } else {
+            if (hi >= d) {
+                throw new ArithmeticException("Overflow");
+            }
+            quotient = divideUnsigned128(hi, lo, d);
+            if (quotient < 0) {
+                throw new ArithmeticException("Overflow");
+            }
+            // The remainder is below d, so the low 64 bits are enough to recover it
+            remainder = lo - quotient * d;
+        }
+
+        if (remainder != 0 && roundsAway(quotient, remainder, d, sign, mode)) {
+            quotient = Math.addExact(quotient, 1L);
+        }
+        return sign < 0 ? -quotient : quotient;
+    }
+
+    /**
+     * Precomputes a binary reciprocal of a divisor for mulDivByReciprocal.
+     * The reciprocal is floor(2^(64+s) / divisor) with s = floor(log2(divisor)),
+     * an unsigned value between 2^63 and 2^64; powers of two return 0 and divide by shifting.
+     * @param divisor positive divisor
+     * @return the unsigned reciprocal
+     */
+    public static long reciprocal(long divisor) {
+        if (divisor <= 0) {
+            throw new ArithmeticException("Reciprocal needs a positive divisor");
+        }
+        if ((divisor & (divisor - 1)) == 0) {
+            return 0;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(divisor);
+        return divideUnsigned128(1L << shift, 0, divisor);
+    }
+
+    /**
+     * Computes a * b / divisor like mulDiv, but replaces the division with multiplications
+     * by a reciprocal from reciprocal(divisor). The estimate is corrected against the exact
+     * remainder, so the result is always identical to mulDiv.
+     * @param a first factor
+     * @param b second factor
+     * @param divisor positive divisor
+     * @param reciprocal value of reciprocal(divisor)
+     * @param mode rounding mode applied to the quotient
+     * @return the rounded quotient
+     */
+    public static long mulDivByReciprocal(long a, long b, long divisor, long reciprocal, RoundingMode mode) {
+        if (a == Long.MIN_VALUE || b == Long.MIN_VALUE) {
+            throw new ArithmeticException("Overflow");
+        }
+        int sign = Long.signum(a) * Long.signum(b);
+        long x = Math.abs(a);
+        long y = Math.abs(b);
+        long hi = Math.multiplyHigh(x, y);
+        long lo = x * y;
+        if (hi >= divisor) {
+            throw new ArithmeticException("Overflow");
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(divisor);
+        long quotient;
+        if (reciprocal == 0) {
+            // Power of two: hi < divisor, so the shifted value fits in 64 unsigned bits
+            quotient = shift == 0 ? lo : (lo >>> shift) | (hi << (64 - shift));
+        } else {
+            // Top bits of the 192-bit product (hi:lo) * reciprocal, shifted down by 64 + shift
+            long lowTop = unsignedMultiplyHigh(lo, reciprocal);
+            long middle = hi * reciprocal;
+            long top = unsignedMultiplyHigh(hi, reciprocal);
+            long sum = lowTop + middle;
+            if (Long.compareUnsigned(sum, lowTop) < 0) {
+                top++;
+            }
+            quotient = (sum >>> shift) | (top << (64 - shift));
+        }
+
+        // The estimate is never too large and at most a few units too small
+        long productHi = unsignedMultiplyHigh(quotient, divisor);
+        long productLo = quotient * divisor;
+        long remainderHi = hi - productHi - (Long.compareUnsigned(lo, productLo) < 0 ? 1 : 0);
+        long remainder = lo - productLo;
+        while (remainderHi != 0 || Long.compareUnsigned(remainder, divisor) >= 0) {
+            if (Long.compareUnsigned(remainder, divisor) < 0) {
+                remainderHi--;
+            }
+            remainder -= divisor;
+            quotient++;
+        }
+        if (quotient < 0) {
+            throw new ArithmeticException("Overflow");
+        }
+
+        if (remainder != 0 && roundsAway(quotient, remainder, divisor, sign, mode)) {
+            quotient = Math.addExact(quotient, 1L);
+        }
+        return sign < 0 ? -quotient : quotient;
+    }
+
+    /**
+     * Returns the high 64 bits of the unsigned 128-bit product of two longs
+     * @param a first factor, read as unsigned
+     * @param b second factor, read as unsigned
+     * @return high half of the product
+     */
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    /**
+     * Divides the unsigned 128-bit value hi:lo by d using 32-bit digits
+     * (long division as in Hacker's Delight, divlu). Requires hi &lt; d.
+     * @param hi high 64 bits of the dividend
+     * @param lo low 64 bits of the dividend
+     * @param d positive divisor
+     * @return the truncated unsigned quotient
+     */
+    private static long divideUnsigned128(long hi, long lo, long d) {
+        final long base = 1L << 32;
+        final long mask = base - 1;
+
+        // Normalize so the divisor's top bit is set; d is positive, so shift >= 1
+        int shift = Long.numberOfLeadingZeros(d);
+        long v = d << shift;
+        long vn1 = v >>> 32;
+        long vn0 = v & mask;
+        long un32 = (hi << shift) | (lo >>> (64 - shift));
+        long un10 = lo << shift;
+        long un1 = un10 >>> 32;
+        long un0 = un10 & mask;
+
+        // First quotient digit
+        long q1 = Long.divideUnsigned(un32, vn1);
+        long rhat = un32 - q1 * vn1;
+        while (Long.compareUnsigned(q1, base) >= 0
+                || Long.compareUnsigned(q1 * vn0, (rhat << 32) + un1) > 0) {
+            q1--;
+            rhat += vn1;
+            if (Long.compareUnsigned(rhat, base) >= 0) {
+                break;
+            }
+        }
+
+        // Second quotient digit
+        long un21 = (un32 << 32) + un1 - q1 * v;
+        long q0 = Long.divideUnsigned(un21, vn1);
+        rhat = un21 - q0 * vn1;
+        while (Long.compareUnsigned(q0, base) >= 0
+                || Long.compareUnsigned(q0 * vn0, (rhat << 32) + un0) > 0) {
+            q0--;
+            rhat += vn1;
+            if (Long.compareUnsigned(rhat, base) >= 0) {
+                break;
+            }
+        }
+        return (q1 << 32) + q0;
+    }
+
+    /**
+     * Decides whether a truncated magnitude must be incremented
+     * @param quotient truncated magnitude
+     * @param remainder non-zero remainder of the division
+     * @param divisor positive divisor
+     * @param sign sign of the exact result
+     * @param mode rounding mode
+     * @return true if the magnitude should be rounded away from zero
+     */
+    static boolean roundsAway(long quotient, long remainder, long divisor, int sign, RoundingMode mode) {
+        // Compare the remainder with half the divisor without overflowing
+        long half = remainder - (divisor - remainder);
+        switch (mode) {
+            case UP:
+                return true;
+            case DOWN:
+                return false;
+            case CEILING:
+                return sign > 0;
+            case FLOOR:
+                return sign < 0;
+            case HALF_UP:
+                return half >= 0;
+            case HALF_DOWN:
+                return half > 0;
+            case HALF_EVEN:
+                return half > 0 || (half == 0 && (quotient & 1L) != 0);
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+    }
+
+    /**
+     * Moves a value from one scale to another
+     * @param value unscaled value
+     * @param fromScale current number of decimal places
+     * @param toScale wanted number of decimal places
+     * @param mode rounding mode used when decimal places are dropped
+     * @return the value at the new scale
+     */
+    public static long rescale(long value, int fromScale, int toScale, RoundingMode mode) {
+        if (toScale >= fromScale) {
+            return Math.multiplyExact(value, pow10(toScale - fromScale));
+        }
+        return mulDiv(value, 1L, pow10(fromScale - toScale), mode);
+    }
+
+    /**
+     * Parses a plain decimal string (e.g. "-12.345") into an unscaled long.
+     * Digits beyond the requested scale are rounded with the given mode.
+     * @param text decimal text without exponent or grouping
+     * @param scale number of decimal places to keep
+     * @param mode rounding mode for extra digits
+     * @return the unscaled value
+     * @throws NumberFormatException if the text is not a plain decimal number
+     */
+    public static long parse(CharSequence text, int scale, RoundingMode mode) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+
+        long value = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean seenPoint = false;
+        boolean sticky = false;
+        int firstDropped = -1;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid decimal: " + text);
+            }
+            digits++;
+            if (seenPoint && fractionDigits == scale) {
+                // Remember the first dropped digit and whether anything follows it
+                if (firstDropped < 0) {
+                    firstDropped = c - '0';
+                } else if (c != '0') {
+                    sticky = true;
+                }
+                continue;
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10L), c - '0');
+            if (seenPoint) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid decimal: " + text);
+        }
+
+        value = Math.multiplyExact(value, pow10(scale - fractionDigits));
+        if (firstDropped > 0 || sticky) {
+            // Round value + tail/100, where the tail encodes the dropped digits
+            long tail = firstDropped * 10L + (sticky ? 1 : 0);
+            value = mulDiv(Math.addExact(Math.multiplyExact(value, 100L), tail), 1L, 100L,
+                    negative ? negate(mode) : mode);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Mirrors a directed rounding mode so a magnitude can be rounded for a negative value
+     * @param mode rounding mode for the signed value
+     * @return rounding mode to apply to the magnitude
+     */
+    private static RoundingMode negate(RoundingMode mode) {
+        if (mode == RoundingMode.CEILING) {
+            return RoundingMode.FLOOR;
+        }
+        if (mode == RoundingMode.FLOOR) {
+            return RoundingMode.CEILING;
+        }
+        return mode;
+    }
+
+    /**
+     * Converts a decimal to an unscaled long, used when loading rates rather than on the hot path
+     * @param value decimal value
+     * @param scale number of decimal places to keep
+     * @return the unscaled value rounded half-up
+     */
+    public static long fromBigDecimal(BigDecimal value, int scale) {
+        return value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converts an unscaled long back to a decimal for display
+     * @param unscaled unscaled value
+     * @param scale number of decimal places
+     * @return the decimal value
+     */
+    public static BigDecimal toBigDecimal(long unscaled, int scale) {
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HttpRateProvider - A provider endpoint returning the latest USD rates as JSON.
+ * The body is parsed as it streams in on the HTTP client's threads. With a
+ * RateResponseCache the request is conditional: the last response's ETag and
+ * Last-Modified are sent back, and a 304 Not Modified completes the fetch without
+ * downloading or parsing anything. A response is only cached once the fetcher reports
+ * that it won and was published.
+ */
+public final class HttpRateProvider implements RateProvider {
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI uri;
+    private final HttpClient client;
+    // Last good response and its validators, or null to always download in full
+    private final RateResponseCache cache;
+
+    /**
+     * Creates a provider
+     * @param uri endpoint returning the latest USD rates
+     * @param client client to send requests with
+     * @param cache cache for the last good response, or null for none
+     */
+    public HttpRateProvider(URI uri, HttpClient client, RateResponseCache cache) {
+        this.uri = uri;
+        this.client = client;
+        this.cache = cache;
+    }
+
+    /**
+     * Creates an HTTP client suitable for sharing between providers
+     * @return a new client
+     */
+    public static HttpClient newClient() {
+        return HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    /**
+     * Gets the endpoint's host and port
+     * @return provider name
+     */
+    @Override
+    public String name() {
+        return uri.getAuthority();
+    }
+
+    /**
+     * Sends the request and parses the response as it arrives
+     * @param registry registry that assigns the currency ids
+     * @return completes with the rates, with RateResponse.notModified() on 304, or
+     *         exceptionally with an IOException
+     */
+    @Override
+    public CompletableFuture<RateResponse> fetch(CurrencyRegistry registry) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header("Accept", "application/json")
+                .GET();
+        if (cache != null && !cache.isEmpty()) {
+            if (!cache.etag().isEmpty()) {
+                request.header("If-None-Match", cache.etag());
+            }
+            if (!cache.lastModified().isEmpty()) {
+                request.header("If-Modified-Since", cache.lastModified());
+            }
+        }
+        CompletableFuture<HttpResponse<InputStream>> send =
+                client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<RateResponse> payload = send.thenApply(response -> read(response, registry));
+        // Cancelling the fetch aborts the exchange, or the body download if it has begun
+        payload.whenComplete((result, error) -> {
+            if (payload.isCancelled()) {
+                send.cancel(true);
+                send.thenAccept(response -> {
+                    try {
+                        response.body().close();
+                    } catch (IOException e) {
+                        // Nothing more to abort
+                    }
+                });
+            }
+        });
+        return payload;
+    }
+
+    /**
+     * Parses a response, keeping its bytes and validators if there is a cache.
+     * Runs on an HTTP client thread.
+     * @param response provider response
+     * @param registry registry that assigns the currency ids
+     * @return the rates, or RateResponse.notModified()
+     */
+    private RateResponse read(HttpResponse<InputStream> response, CurrencyRegistry registry) {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 304 && cache != null) {
+                // Nothing changed since the cached response: no download, no parse
+                return RateResponse.notModified();
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException(name() + " returned HTTP " + response.statusCode());
+            }
+            if (cache == null) {
+                return RateResponse.of(RatePayload.read(body, registry));
+            }
+            // Keep a copy of the bytes as they are parsed, for the cache
+            ByteArrayOutputStream copy = new ByteArrayOutputStream((int) Math.min(
+                    response.headers().firstValueAsLong("Content-Length").orElse(8192), 1 << 20));
+            RatePayload payload = RatePayload.read(new Recording(body, copy), registry);
+            return RateResponse.of(payload, copy.toByteArray(),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Caches a response after the fetcher published it
+     * @param response response returned by fetch()
+     * @throws IOException if the cache file cannot be written
+     */
+    @Override
+    public void accepted(RateResponse response) throws IOException {
+        if (cache != null && response.body() != null) {
+            cache.store(response.etag(), response.lastModified(), response.body(), response.receivedAtMillis());
+        }
+    }
+
+    /**
+     * Reads the cached response if it was received after a given time
+     * @param registry registry that assigns the currency ids
+     * @param newerThanMillis epoch milliseconds
+     * @return the cached rates, or null if there are none or they are not newer
+     * @throws IOException if the cached body is unusable
+     */
+    @Override
+    public RatePayload cached(CurrencyRegistry registry, long newerThanMillis) throws IOException {
+        if (cache == null || cache.isEmpty() || cache.fetchedAtMillis() <= newerThanMillis) {
+            return null;
+        }
+        return RatePayload.read(ByteBuffer.wrap(cache.body()), registry);
+    }
+
+    /**
+     * A stream that copies every byte read from it
+     */
+    private static final class Recording extends FilterInputStream {
+        private final ByteArrayOutputStream copy;
+
+        Recording(InputStream in, ByteArrayOutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                copy.write(buffer, offset, n);
+            }
+            return n;
+        }
+    }
+}
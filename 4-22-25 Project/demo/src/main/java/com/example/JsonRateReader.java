@@ -0,0 +1,549 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JsonRateReader - A streaming pull parser for provider JSON.
+ * Reads UTF-8 straight from an InputStream or ByteBuffer through one fixed buffer and
+ * hands out one token at a time; the document is never held as a String or a tree.
+ * Names and strings are kept as bytes in a reused scratch array, so matching member
+ * names, packing ISO codes and reading dates allocate nothing, and numbers are decoded
+ * straight to scaled longs without String or BigDecimal.
+ *
+ * The structure is checked as it is read: a token out of place, an unterminated string
+ * or a truncated document fails with an IOException.
+ */
+public final class JsonRateReader implements AutoCloseable {
+    /**
+     * Kinds of token returned by next()
+     */
+    public enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 64;
+    // Significant digits kept when decoding a number; the rest only steer rounding
+    private static final int KEPT_DIGITS = 18;
+
+    private final InputStream stream;
+    private final ByteBuffer source;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // Bytes of the current name, string or number; strings are unescaped UTF-8
+    private byte[] scratch = new byte[64];
+    private int scratchLength;
+    private Token token;
+
+    // Open containers, innermost last: true for objects
+    private final boolean[] objects = new boolean[MAX_DEPTH];
+    private int depth;
+    // True once a container has at least one member, so a comma is required before the next
+    private boolean hasMember;
+    // True after a name and its colon, while the member's value is pending
+    private boolean expectingValue;
+
+    /**
+     * Creates a reader over a stream; the stream is closed with the reader
+     * @param stream UTF-8 JSON
+     */
+    public JsonRateReader(InputStream stream) {
+        this.stream = stream;
+        source = null;
+    }
+
+    /**
+     * Creates a reader over the remaining bytes of a buffer
+     * @param source UTF-8 JSON; its position is advanced as the reader consumes it
+     */
+    public JsonRateReader(ByteBuffer source) {
+        stream = null;
+        this.source = source;
+    }
+
+    /**
+     * Reads the next token
+     * @return token type; END_DOCUMENT once the top-level value has been read
+     * @throws IOException if the document is malformed or cannot be read
+     */
+    public Token next() throws IOException {
+        int c = skipWhitespace();
+        if (depth > 0 && !expectingValue) {
+            boolean inObject = objects[depth - 1];
+            if (c == (inObject ? '}' : ']')) {
+                position++;
+                depth--;
+                endValue();
+                return token = inObject ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+            if (hasMember) {
+                if (c != ',') {
+                    throw error("Expected ',' or '" + (inObject ? '}' : ']') + "'");
+                }
+                position++;
+                c = skipWhitespace();
+            }
+            if (inObject) {
+                if (c != '"') {
+                    throw error("Expected a member name");
+                }
+                position++;
+                readString();
+                if (skipWhitespace() != ':') {
+                    throw error("Expected ':'");
+                }
+                position++;
+                expectingValue = true;
+                return token = Token.NAME;
+            }
+        } else if (depth == 0 && token != null) {
+            if (c != -1) {
+                throw error("Unexpected data after the document");
+            }
+            return token = Token.END_DOCUMENT;
+        }
+        return token = readValue(c);
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+            case '[':
+                if (depth == MAX_DEPTH) {
+                    throw error("Document is nested too deeply");
+                }
+                position++;
+                objects[depth++] = c == '{';
+                hasMember = false;
+                expectingValue = false;
+                return c == '{' ? Token.START_OBJECT : Token.START_ARRAY;
+            case '"':
+                position++;
+                readString();
+                endValue();
+                return Token.STRING;
+            case 't':
+                readLiteral("true");
+                endValue();
+                return Token.TRUE;
+            case 'f':
+                readLiteral("false");
+                endValue();
+                return Token.FALSE;
+            case 'n':
+                readLiteral("null");
+                endValue();
+                return Token.NULL;
+            case -1:
+                throw error("Document is truncated");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                    endValue();
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void endValue() {
+        hasMember = true;
+        expectingValue = false;
+    }
+
+    /**
+     * Skips the value of the member just named, or the rest of the container just opened.
+     * After any other token this does nothing, as that value has already been read.
+     * @throws IOException if the document is malformed or cannot be read
+     */
+    public void skipValue() throws IOException {
+        if (token == Token.NAME) {
+            next();
+        }
+        if (token != Token.START_OBJECT && token != Token.START_ARRAY) {
+            return;
+        }
+        int target = depth - 1;
+        while (depth > target) {
+            next();
+        }
+    }
+
+    /**
+     * Checks the current name or string against an ASCII constant without allocating
+     * @param text ASCII text
+     * @return true if they are equal
+     */
+    public boolean textEquals(String text) {
+        if (scratchLength != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < scratchLength; i++) {
+            if (scratch[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs the current name or string as an ISO code
+     * @return packed code, or CurrencyRegistry.NONE if it is not three letters
+     */
+    public int packedCode() {
+        if (scratchLength != 3) {
+            return CurrencyRegistry.NONE;
+        }
+        return CurrencyRegistry.pack((char) (scratch[0] & 0xFF), (char) (scratch[1] & 0xFF), (char) (scratch[2] & 0xFF));
+    }
+
+    /**
+     * Reads the current name or string as an ISO date ("2024-03-15"), or a date-time
+     * whose first ten characters are one
+     * @return epoch milliseconds at the start of that day, UTC
+     * @throws IOException if the text is not a date
+     */
+    public long dateMillis() throws IOException {
+        if (scratchLength < 10 || scratch[4] != '-' || scratch[7] != '-') {
+            throw error("Expected a date");
+        }
+        int year = digits(0, 4);
+        int month = digits(5, 2);
+        int day = digits(8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw error("Expected a date");
+        }
+        // Days from civil date (proleptic Gregorian), shifting the year to start in March
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097L + dayOfEra - 719468;
+        return epochDay * 86_400_000L;
+    }
+
+    private int digits(int start, int count) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = scratch[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Expected a date");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the current number (or a string holding one) as a scaled long.
+     * Digits beyond the scale are rounded once with the given mode; exponents are allowed.
+     * @param scale number of decimal places to keep
+     * @param mode rounding mode for extra digits
+     * @return the unscaled value
+     * @throws IOException if the current token is not a number
+     * @throws ArithmeticException if the value does not fit in a long at that scale
+     */
+    public long scaledValue(int scale, RoundingMode mode) throws IOException {
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw error("Expected a number");
+        }
+        int i = 0;
+        int sign = 1;
+        if (scratchLength > 0 && (scratch[0] == '-' || scratch[0] == '+')) {
+            sign = scratch[0] == '-' ? -1 : 1;
+            i++;
+        }
+        long value = 0;
+        int kept = 0;
+        int exponent = 0;
+        // First two digits past those kept, and whether any later one is nonzero
+        int firstDropped = -1;
+        int secondDropped = -1;
+        boolean sticky = false;
+        boolean seenPoint = false;
+        int digitCount = 0;
+        for (; i < scratchLength; i++) {
+            int c = scratch[i];
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+                continue;
+            }
+            if (c == 'e' || c == 'E') {
+                break;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Expected a number");
+            }
+            digitCount++;
+            if (value == 0 && digit == 0) {
+                // Leading zeros carry no significance; after the point they only move it
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (kept < KEPT_DIGITS) {
+                value = value * 10 + digit;
+                kept++;
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else {
+                if (firstDropped < 0) {
+                    firstDropped = digit;
+                } else if (secondDropped < 0) {
+                    secondDropped = digit;
+                } else if (digit != 0) {
+                    sticky = true;
+                }
+                if (!seenPoint) {
+                    exponent++;
+                }
+            }
+        }
+        if (digitCount == 0) {
+            throw error("Expected a number");
+        }
+        if (i < scratchLength) {
+            exponent += exponentPart(i + 1);
+        }
+        if (value == 0) {
+            return 0;
+        }
+
+        // value.tail x 10^exponent; split it at the scale into a quotient and remainder
+        int shift = scale + exponent;
+        boolean tail = firstDropped > 0 || secondDropped > 0 || sticky;
+        long quotient;
+        long remainder;
+        long divisor = 10;
+        if (shift > 18) {
+            throw new ArithmeticException("Number does not fit at scale " + scale);
+        } else if (shift == 0) {
+            quotient = value;
+            remainder = Math.max(firstDropped, 0);
+            tail = secondDropped > 0 || sticky;
+        } else if (shift > 0) {
+            // Dropped digits only occur with a full value, which overflows past shift 1
+            quotient = Math.multiplyExact(value, FixedPoint.pow10(shift));
+            quotient = Math.addExact(quotient, Math.max(firstDropped, 0) * FixedPoint.pow10(shift - 1));
+            remainder = Math.max(secondDropped, 0);
+            tail = sticky;
+        } else if (shift >= -18) {
+            divisor = FixedPoint.pow10(-shift);
+            quotient = value / divisor;
+            remainder = value - quotient * divisor;
+        } else {
+            // Far below the last place kept: a tiny remainder
+            quotient = 0;
+            remainder = 1;
+            divisor = Long.MAX_VALUE;
+        }
+        if (tail) {
+            // Nonzero digits past the remainder only matter when it is zero or exactly half
+            if (remainder == 0) {
+                remainder = 1;
+            } else if (remainder * 2 == divisor) {
+                remainder++;
+            }
+        }
+        if (remainder != 0 && FixedPoint.roundsAway(quotient, remainder, divisor, sign, mode)) {
+            quotient = Math.addExact(quotient, 1L);
+        }
+        return sign * quotient;
+    }
+
+    private int exponentPart(int start) throws IOException {
+        int i = start;
+        boolean negative = false;
+        if (i < scratchLength && (scratch[i] == '-' || scratch[i] == '+')) {
+            negative = scratch[i] == '-';
+            i++;
+        }
+        if (i == scratchLength) {
+            throw error("Expected a number");
+        }
+        int exponent = 0;
+        for (; i < scratchLength; i++) {
+            int digit = scratch[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Expected a number");
+            }
+            // Anything this large over- or underflows every scale anyway
+            exponent = Math.min(exponent * 10 + digit, 10_000);
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Gets the current name or string; allocates, so meant for rare fields such as errors
+     * @return decoded text
+     */
+    public String text() {
+        return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int c = buffer[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Refills the buffer once it has been consumed
+     * @return false at the end of the input
+     * @throws IOException if the stream cannot be read
+     */
+    private boolean fill() throws IOException {
+        position = 0;
+        if (stream != null) {
+            limit = Math.max(stream.read(buffer, 0, BUFFER_SIZE), 0);
+        } else {
+            limit = Math.min(source.remaining(), BUFFER_SIZE);
+            source.get(buffer, 0, limit);
+        }
+        return limit > 0;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            throw error("Document is truncated");
+        }
+        return buffer[position++];
+    }
+
+    private void append(int b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLength * 2);
+        }
+        scratch[scratchLength++] = (byte) b;
+    }
+
+    /**
+     * Reads a string body after its opening quote into the scratch array, unescaping it
+     * @throws IOException if the string is unterminated or has a bad escape
+     */
+    private void readString() throws IOException {
+        scratchLength = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                b = read();
+                switch (b) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        append(b);
+                        break;
+                    case 'b':
+                        append('\b');
+                        break;
+                    case 'f':
+                        append('\f');
+                        break;
+                    case 'n':
+                        append('\n');
+                        break;
+                    case 'r':
+                        append('\r');
+                        break;
+                    case 't':
+                        append('\t');
+                        break;
+                    case 'u':
+                        appendCodeUnit(hex() << 12 | hex() << 8 | hex() << 4 | hex());
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            } else if (b >= 0 && b < 0x20) {
+                throw error("Control character in string");
+            } else {
+                append(b);
+            }
+        }
+    }
+
+    private int hex() throws IOException {
+        int c = read();
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw error("Invalid escape");
+        }
+        return digit;
+    }
+
+    /**
+     * Appends an escaped UTF-16 code unit as UTF-8. Surrogates are written one at a time,
+     * which is enough for comparing codes and names.
+     * @param unit code unit
+     */
+    private void appendCodeUnit(int unit) {
+        if (unit < 0x80) {
+            append(unit);
+        } else if (unit < 0x800) {
+            append(0xC0 | unit >> 6);
+            append(0x80 | unit & 0x3F);
+        } else {
+            append(0xE0 | unit >> 12);
+            append(0x80 | unit >> 6 & 0x3F);
+            append(0x80 | unit & 0x3F);
+        }
+    }
+
+    private void readNumber() throws IOException {
+        scratchLength = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                return;
+            }
+            int c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                append(c);
+                position++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw error("Unexpected literal");
+            }
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " in rate payload");
+    }
+
+    /**
+     * Closes the underlying stream, if any
+     * @throws IOException if the stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * RateDelta - The currencies whose rate changed between two snapshot versions, with
+ * their new rates. A refresh usually moves a handful of currencies, so publishing,
+ * saving or replicating the delta costs O(changed) instead of the whole table, and a
+ * consumer holding version baseVersion() reaches version() by applying it.
+ *
+ * Entries are sorted by currency id and hold absolute rates, so applying a delta twice
+ * is harmless. Encoded deltas name currencies by packed ISO code (big-endian):
+ * <pre>
+ *   int  magic "RDL1"
+ *   long base version
+ *   long version
+ *   long publish time, epoch milliseconds
+ *   int  entry count n
+ *   (int packed ISO code, long scaled rate) x n
+ *   int  CRC32C of everything above
+ * </pre>
+ */
+public final class RateDelta {
+    // "RDL1"
+    private static final int MAGIC = 0x52444C31;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 3 * Long.BYTES;
+    private static final int ENTRY_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final long baseVersion;
+    private final long version;
+    private final long timestampMillis;
+    // Changed currency ids in ascending order, and their new rates
+    private final int[] ids;
+    private final long[] rates;
+
+    private RateDelta(long baseVersion, long version, long timestampMillis, int[] ids, long[] rates) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.timestampMillis = timestampMillis;
+        this.ids = ids;
+        this.rates = rates;
+    }
+
+    /**
+     * Compares two snapshots of the same registry
+     * @param from older snapshot
+     * @param to newer snapshot
+     * @return the entries that turn from into to
+     */
+    public static RateDelta between(RateSnapshot from, RateSnapshot to) {
+        if (from.size() != to.size()) {
+            throw new IllegalArgumentException("Snapshots have " + from.size() + " and " + to.size() + " currencies");
+        }
+        int count = 0;
+        for (int id = 0; id < to.size(); id++) {
+            if (from.rateAt(id) != to.rateAt(id)) {
+                count++;
+            }
+        }
+        int[] ids = new int[count];
+        long[] rates = new long[count];
+        count = 0;
+        for (int id = 0; id < to.size(); id++) {
+            if (from.rateAt(id) != to.rateAt(id)) {
+                ids[count] = id;
+                rates[count++] = to.rateAt(id);
+            }
+        }
+        return new RateDelta(from.version(), to.version(), to.timestampMillis(), ids, rates);
+    }
+
+    /**
+     * Builds the delta a batch of updates makes to a snapshot. Updates that repeat the
+     * current rate are dropped, USD is never changed, and the last update of a currency wins.
+     * @param base snapshot the updates apply to
+     * @param ids currency ids to update
+     * @param scaledRates new foreign units per USD at RATE_SCALE
+     * @param count number of entries to apply
+     * @param timestampMillis time the new rates were published, in epoch milliseconds
+     * @return the delta, with version base.version() + 1, or an empty delta at
+     *         base.version() if nothing changes
+     * @throws IllegalArgumentException if an id is not in the snapshot or a rate is not positive
+     */
+    static RateDelta of(RateSnapshot base, int[] ids, long[] scaledRates, int count, long timestampMillis) {
+        RateDelta delta = of(base, ids, scaledRates, count, base.version() + 1, timestampMillis);
+        return delta.isEmpty()
+                ? new RateDelta(base.version(), base.version(), base.timestampMillis(), delta.ids, delta.rates)
+                : delta;
+    }
+
+    /**
+     * Builds the delta a batch of updates makes to a snapshot, stamped with a version and
+     * publish time chosen by the caller, such as those another process published under.
+     * The delta carries the stamp even when no rate changes.
+     * @param base snapshot the updates apply to
+     * @param ids currency ids to update
+     * @param scaledRates new foreign units per USD at RATE_SCALE
+     * @param count number of entries to apply
+     * @param version version of the newer snapshot, above base.version()
+     * @param timestampMillis time the new rates were published, in epoch milliseconds
+     * @return the delta from base.version() to version
+     * @throws IllegalArgumentException if an id is not in the snapshot, a rate is not
+     *         positive or the version is not above the base's
+     */
+    static RateDelta of(RateSnapshot base, int[] ids, long[] scaledRates, int count, long version,
+            long timestampMillis) {
+        if (version <= base.version()) {
+            throw new IllegalArgumentException("Version " + version + " is not after " + base.version());
+        }
+        // Validate everything up front so a bad entry publishes nothing
+        for (int i = 0; i < count; i++) {
+            if (ids[i] < 0 || ids[i] >= base.size()) {
+                throw new IllegalArgumentException("Unknown currency id " + ids[i]);
+            }
+            if (scaledRates[i] <= 0) {
+                throw new IllegalArgumentException("Rate for currency id " + ids[i]
+                        + " must be positive, got " + scaledRates[i]);
+            }
+        }
+        // Last write per id, so duplicates collapse before comparing with the base;
+        // 0 marks an id already taken
+        long[] latest = new long[base.size()];
+        for (int i = 0; i < count; i++) {
+            latest[ids[i]] = scaledRates[i];
+        }
+        int changed = 0;
+        int[] changedIds = new int[Math.min(count, base.size())];
+        long[] changedRates = new long[changedIds.length];
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            long rate = latest[id];
+            if (id != ConversionEngine.USD_ID && rate != 0 && rate != base.rateAt(id)) {
+                changedIds[changed] = id;
+                changedRates[changed++] = rate;
+            }
+            // Later duplicates of this id are skipped
+            latest[id] = 0;
+        }
+        changedIds = Arrays.copyOf(changedIds, changed);
+        changedRates = Arrays.copyOf(changedRates, changed);
+        sortById(changedIds, changedRates);
+        return new RateDelta(base.version(), version, timestampMillis, changedIds, changedRates);
+    }
+
+    /**
+     * Gets the version this delta applies to
+     * @return version of the older snapshot
+     */
+    public long baseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * Gets the version a consumer holds after applying this delta
+     * @return version of the newer snapshot
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Gets the time the newer rates were published
+     * @return epoch milliseconds
+     */
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * Gets the number of changed currencies
+     * @return number of entries
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Checks whether any rate changed
+     * @return true if the delta has no entries
+     */
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * Gets the currency id of an entry
+     * @param index entry index, in ascending id order
+     * @return currency id
+     */
+    public int idAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Gets the new rate of an entry
+     * @param index entry index, in ascending id order
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAt(int index) {
+        return rates[index];
+    }
+
+    /**
+     * Applies the delta to a rate table held by a consumer, touching only changed entries
+     * @param scaledRates foreign units per USD at RATE_SCALE, indexed by currency id
+     */
+    public void applyTo(long[] scaledRates) {
+        for (int i = 0; i < ids.length; i++) {
+            scaledRates[ids[i]] = rates[i];
+        }
+    }
+
+    /**
+     * Encodes the delta for persistence or replication
+     * @param registry registry that assigned the currency ids
+     * @return buffer positioned at the start of the encoding
+     */
+    public ByteBuffer encode(CurrencyRegistry registry) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + ids.length * ENTRY_BYTES + Integer.BYTES);
+        buffer.putInt(MAGIC).putLong(baseVersion).putLong(version).putLong(timestampMillis).putInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            buffer.putInt(registry.packed(ids[i])).putLong(rates[i]);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.flip();
+    }
+
+    /**
+     * Decodes a delta written by encode(), possibly by a process with another registry order.
+     * The buffer's position is advanced past the delta.
+     * @param buffer encoded delta
+     * @param registry registry of the receiving side
+     * @return the decoded delta
+     * @throws IOException if the data is truncated, corrupt or names an unknown currency
+     */
+    public static RateDelta decode(ByteBuffer buffer, CurrencyRegistry registry) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES + Integer.BYTES || buffer.getInt(start) != MAGIC) {
+            throw new IOException("Not a rate delta");
+        }
+        int count = buffer.getInt(start + HEADER_BYTES - Integer.BYTES);
+        if (count < 0 || count > (buffer.remaining() - HEADER_BYTES - Integer.BYTES) / ENTRY_BYTES) {
+            throw new IOException("Rate delta is truncated");
+        }
+        int checksum = start + HEADER_BYTES + count * ENTRY_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(checksum));
+        if ((int) crc.getValue() != buffer.getInt(checksum)) {
+            throw new IOException("Rate delta checksum mismatch");
+        }
+
+        long baseVersion = buffer.getLong(start + Integer.BYTES);
+        long version = buffer.getLong(start + Integer.BYTES + Long.BYTES);
+        long timestampMillis = buffer.getLong(start + Integer.BYTES + 2 * Long.BYTES);
+        int[] ids = new int[count];
+        long[] rates = new long[count];
+        for (int i = 0; i < count; i++) {
+            int entry = start + HEADER_BYTES + i * ENTRY_BYTES;
+            int packed = buffer.getInt(entry);
+            int id = registry.idOfPacked(packed);
+            if (id == CurrencyRegistry.NONE || id == ConversionEngine.USD_ID) {
+                throw new IOException("Rate delta names an unknown currency: " + CurrencyRegistry.unpack(packed));
+            }
+            long rate = buffer.getLong(entry + Integer.BYTES);
+            if (rate <= 0) {
+                throw new IOException("Rate delta has an invalid rate for " + CurrencyRegistry.unpack(packed));
+            }
+            ids[i] = id;
+            rates[i] = rate;
+        }
+        buffer.position(checksum + Integer.BYTES);
+        // The sender's id order may differ from ours
+        sortById(ids, rates);
+        return new RateDelta(baseVersion, version, timestampMillis, ids, rates);
+    }
+
+    /**
+     * Sorts entries by id with an insertion sort, which suits the few entries of a delta
+     * @param ids currency ids
+     * @param rates rates moved along with their ids
+     */
+    private static void sortById(int[] ids, long[] rates) {
+        for (int i = 1; i < ids.length; i++) {
+            int id = ids[i];
+            long rate = rates[i];
+            int j = i - 1;
+            while (j >= 0 && ids[j] > id) {
+                ids[j + 1] = ids[j];
+                rates[j + 1] = rates[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            rates[j + 1] = rate;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RateFetcher - Fetches the latest rates from one or more providers and swaps them into an engine.
+ * Fetches are asynchronous: the body is parsed as it streams in and the new snapshot
+ * built on the HTTP client's worker threads, so a refresh started from the event
+ * dispatch thread never blocks it. Conversions keep running against the old snapshot
+ * until the new one is published in a single atomic swap; a failed refresh leaves the
+ * old rates in place.
+ *
+ * With several providers a refresh is hedged: the primary is asked first, and if it
+ * has not answered within HEDGE_PERCENTILE of its recent response times the next
+ * provider is asked as well (at once if the primary fails). The first response that
+ * passes validation is published and the requests still running are cancelled, so a
+ * slow provider costs roughly the primary's usual latency rather than its worst. Only
+ * the winner's response is handed back to its provider for caching, after publishing.
+ *
+ * Refreshes are single-flight: callers arriving while one is running share it, and
+ * every one of them sees the same outcome and snapshot. With a minimum refresh
+ * interval, callers arriving soon after a successful refresh share that one too, so
+ * timers in several windows still cost one provider call per interval.
+ */
+public final class RateFetcher {
+    // System property that points the applications at another provider, e.g. the test StubRateServer
+    public static final String URL_PROPERTY = "currencyconverter.ratesUrl";
+    // System property naming a secondary provider to hedge slow refreshes with
+    public static final String SECONDARY_URL_PROPERTY = "currencyconverter.secondaryRatesUrl";
+    // Share of primary responses expected before the next provider is asked
+    public static final double HEDGE_PERCENTILE = 0.95;
+    // Hedge delay used until the primary has answered MIN_SAMPLES times
+    private static final long INITIAL_HEDGE_DELAY_MILLIS = 1000;
+    private static final int MIN_SAMPLES = 8;
+
+    private final ConversionEngine engine;
+    private final RateProvider[] providers;
+    // Recent response times of the primary, which set the hedge delay
+    private final LatencyWindow primaryLatencies = new LatencyWindow(128);
+    // The running refresh, or the last one; replaced when a caller needs a new one
+    private final AtomicReference<Flight> flight = new AtomicReference<>();
+    private volatile long minRefreshIntervalNanos;
+    // Table every published refresh is also written to, or null
+    private volatile TickRateTable ticks;
+
+    /**
+     * Creates a fetcher for one endpoint with its own HTTP client and no response cache
+     * @param engine engine to refresh
+     * @param uri provider endpoint returning the latest USD rates
+     */
+    public RateFetcher(ConversionEngine engine, URI uri) {
+        this(engine, uri, null);
+    }
+
+    /**
+     * Creates a fetcher for one endpoint with its own HTTP client
+     * @param engine engine to refresh
+     * @param uri provider endpoint returning the latest USD rates
+     * @param cache cache for the last good response, or null for none
+     */
+    public RateFetcher(ConversionEngine engine, URI uri, RateResponseCache cache) {
+        this(engine, uri, HttpRateProvider.newClient(), cache);
+    }
+
+    /**
+     * Creates a fetcher for one endpoint sharing an HTTP client
+     * @param engine engine to refresh
+     * @param uri provider endpoint returning the latest USD rates
+     * @param client client to send requests with
+     * @param cache cache for the last good response, or null for none
+     */
+    public RateFetcher(ConversionEngine engine, URI uri, HttpClient client, RateResponseCache cache) {
+        this(engine, List.of(new HttpRateProvider(uri, client, cache)));
+    }
+
+    /**
+     * Creates a fetcher that hedges across providers
+     * @param engine engine to refresh
+     * @param providers providers in order of preference, primary first
+     */
+    public RateFetcher(ConversionEngine engine, List<? extends RateProvider> providers) {
+        if (providers.isEmpty()) {
+            throw new IllegalArgumentException("At least one rate provider is required");
+        }
+        this.engine = engine;
+        this.providers = providers.toArray(new RateProvider[0]);
+    }
+
+    /**
+     * Creates the applications' fetcher: the endpoint from URL_PROPERTY (or the default)
+     * with the response cache, hedged with the endpoint from SECONDARY_URL_PROPERTY if set
+     * @param engine engine to refresh
+     * @param defaultUrl primary endpoint used when URL_PROPERTY is not set
+     * @param cache cache for the primary's last good response, or null for none
+     * @return the fetcher
+     */
+    public static RateFetcher configured(ConversionEngine engine, String defaultUrl, RateResponseCache cache) {
+        HttpClient client = HttpRateProvider.newClient();
+        List<RateProvider> providers = new ArrayList<>();
+        providers.add(new HttpRateProvider(configuredUri(defaultUrl), client, cache));
+        String secondary = System.getProperty(SECONDARY_URL_PROPERTY);
+        if (secondary != null && !secondary.isEmpty()) {
+            providers.add(new HttpRateProvider(URI.create(secondary), client, null));
+        }
+        return new RateFetcher(engine, providers);
+    }
+
+    /**
+     * Resolves the provider endpoint, letting the URL_PROPERTY system property override it
+     * @param defaultUrl endpoint used when the property is not set
+     * @return provider endpoint
+     */
+    public static URI configuredUri(String defaultUrl) {
+        return URI.create(System.getProperty(URL_PROPERTY, defaultUrl));
+    }
+
+    /**
+     * Applies the first provider's cached response that is newer than the engine's rates,
+     * so a launch starts from the last rates fetched rather than the bundled ones
+     * @return true if cached rates were applied
+     */
+    public boolean warmStart() {
+        for (RateProvider provider : providers) {
+            try {
+                RatePayload cached = provider.cached(engine.registry(), engine.snapshot().timestampMillis());
+                if (cached != null) {
+                    cached.applyTo(engine);
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring cached rate response from " + provider.name() + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts a refresh, or joins the one running, and returns at once
+     * @return completes with the changes published (empty if the winning provider
+     *         reported no change), or exceptionally with the primary's IOException if
+     *         every provider failed; callers sharing a refresh get the same delta
+     */
+    public CompletableFuture<RateDelta> refresh() {
+        // A copy, so one caller cancelling its future cannot fail the others
+        return join().delta.copy();
+    }
+
+    /**
+     * Refreshes, or joins the refresh running, and waits for it. Blocks, so not for
+     * the event dispatch thread.
+     * @return the snapshot the refresh left in the engine; the same instance for
+     *         every caller that shared the refresh
+     * @throws IOException if every provider failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public RateSnapshot awaitRefresh() throws IOException, InterruptedException {
+        try {
+            return join().snapshot.get();
+        } catch (ExecutionException e) {
+            Throwable cause = cause(e);
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Starts a refresh, or joins the one running, without waiting for it
+     * @return the engine's current, possibly stale, snapshot
+     */
+    public RateSnapshot refreshInBackground() {
+        join();
+        return engine.snapshot();
+    }
+
+    /**
+     * Lets callers share a successful refresh for a while after it completes
+     * @param interval how long a refresh result is reused; zero to only share
+     *        refreshes that are still running
+     */
+    public void setMinRefreshInterval(Duration interval) {
+        minRefreshIntervalNanos = interval.toNanos();
+    }
+
+    /**
+     * Writes every published refresh into a tick table as well as the engine
+     * @param ticks table sharing the engine's registry, or null to stop
+     */
+    public void setTickTable(TickRateTable ticks) {
+        this.ticks = ticks;
+    }
+
+    /**
+     * Gets the refresh to wait on: the running one, a recent successful one, or a new one
+     * @return the shared refresh
+     */
+    private Flight join() {
+        while (true) {
+            Flight current = flight.get();
+            if (current != null && current.reusable()) {
+                return current;
+            }
+            Flight next = new Flight();
+            if (flight.compareAndSet(current, next)) {
+                next.start();
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Gets how long a refresh waits for the primary before asking the next provider
+     * @return delay in milliseconds
+     */
+    public long hedgeDelayMillis() {
+        long nanos = primaryLatencies.percentile(HEDGE_PERCENTILE, MIN_SAMPLES);
+        return nanos < 0 ? INITIAL_HEDGE_DELAY_MILLIS : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Unwraps the failure a refresh completed with, for reporting
+     * @param error exception passed to a completion stage or thrown by get()
+     * @return the underlying cause
+     */
+    public static Throwable cause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Gets the engine this fetcher refreshes
+     * @return conversion engine
+     */
+    public ConversionEngine engine() {
+        return engine;
+    }
+
+    /**
+     * One refresh shared by every caller that joins it
+     */
+    private final class Flight {
+        private final CompletableFuture<RateDelta> delta = new CompletableFuture<>();
+        private final CompletableFuture<RateSnapshot> snapshot = new CompletableFuture<>();
+        private volatile long completedNanos;
+
+        void start() {
+            new Hedge().start().thenApply(this::publish).whenComplete((published, error) -> {
+                        completedNanos = System.nanoTime();
+                        if (error != null) {
+                            // Let the next caller try again rather than share the failure
+                            flight.compareAndSet(this, null);
+                            delta.completeExceptionally(cause(error));
+                            snapshot.completeExceptionally(cause(error));
+                        } else {
+                            // Read once here, so every waiter gets the same snapshot
+                            RateSnapshot current = engine.snapshot();
+                            // The delta first: reusable() checks the snapshot, so a caller
+                            // that reuses this refresh always finds both complete
+                            delta.complete(published);
+                            snapshot.complete(current);
+                        }
+                    });
+        }
+
+        /**
+         * Publishes the winning response, then lets its provider cache it
+         * @param win winning provider and response
+         * @return the changes published, empty if the provider reported no change
+         */
+        private RateDelta publish(Win win) {
+            if (win.response.isNotModified()) {
+                return RateDelta.of(engine.snapshot(), new int[0], new long[0], 0, 0);
+            }
+            RateDelta published = win.response.payload().applyTo(engine);
+            TickRateTable table = ticks;
+            if (table != null) {
+                table.apply(published);
+            }
+            try {
+                win.provider.accepted(win.response);
+            } catch (IOException e) {
+                System.err.println("Could not cache rate response from " + win.provider.name() + ": "
+                        + e.getMessage());
+            }
+            return published;
+        }
+
+        /**
+         * Checks whether a new caller can share this refresh
+         * @return true while it is running, or within the minimum interval of succeeding
+         */
+        boolean reusable() {
+            if (!snapshot.isDone()) {
+                return true;
+            }
+            return !snapshot.isCompletedExceptionally()
+                    && System.nanoTime() - completedNanos < minRefreshIntervalNanos;
+        }
+    }
+
+    /**
+     * The provider that won a hedged refresh and its response
+     */
+    private static final class Win {
+        final RateProvider provider;
+        final RateResponse response;
+
+        Win(RateProvider provider, RateResponse response) {
+            this.provider = provider;
+            this.response = response;
+        }
+    }
+
+    /**
+     * One hedged refresh: starts providers in turn and keeps the first good response
+     */
+    private final class Hedge {
+        private final CompletableFuture<Win> result = new CompletableFuture<>();
+        private final CompletableFuture<?>[] attempts = new CompletableFuture<?>[providers.length];
+        private final Throwable[] errors = new Throwable[providers.length];
+        private int failures;
+
+        /**
+         * Asks the primary and schedules the hedged requests
+         * @return completes with the winning response
+         */
+        CompletableFuture<Win> start() {
+            long delay = hedgeDelayMillis();
+            for (int i = 1; i < providers.length; i++) {
+                int index = i;
+                CompletableFuture.delayedExecutor(delay * i, TimeUnit.MILLISECONDS).execute(() -> attempt(index));
+            }
+            attempt(0);
+            return result;
+        }
+
+        /**
+         * Starts a provider unless it has started already or the refresh is decided
+         * @param index provider index
+         */
+        private void attempt(int index) {
+            CompletableFuture<RateResponse> claimed = new CompletableFuture<>();
+            synchronized (this) {
+                if (result.isDone() || attempts[index] != null) {
+                    return;
+                }
+                attempts[index] = claimed;
+            }
+            long started = System.nanoTime();
+            CompletableFuture<RateResponse> fetch;
+            try {
+                fetch = providers[index].fetch(engine.registry());
+            } catch (RuntimeException e) {
+                fetch = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                attempts[index] = fetch;
+            }
+            fetch.whenComplete((response, error) -> finished(index, started, response, error));
+            if (result.isDone()) {
+                // Decided while this request was being sent
+                fetch.cancel(true);
+            }
+        }
+
+        /**
+         * Settles the refresh with a good response, or moves on after a failure
+         * @param index provider index
+         * @param started System.nanoTime() when the request was sent
+         * @param response the provider's response, or null on failure
+         * @param error failure, or null on success
+         */
+        private void finished(int index, long started, RateResponse response, Throwable error) {
+            boolean cancelled = error != null && cause(error) instanceof CancellationException;
+            if (index == 0 && (error == null || cancelled)) {
+                // A cancelled primary still shows it took at least this long; failures
+                // are left out, as a fast error says nothing about how long answers take
+                primaryLatencies.record(System.nanoTime() - started);
+            }
+            if (error == null) {
+                if (result.complete(new Win(providers[index], response))) {
+                    cancelOthers(index);
+                }
+                return;
+            }
+            if (cancelled) {
+                return;
+            }
+            int next = -1;
+            synchronized (this) {
+                errors[index] = cause(error);
+                if (++failures == providers.length) {
+                    Throwable first = errors[0];
+                    for (int i = 1; i < errors.length; i++) {
+                        first.addSuppressed(errors[i]);
+                    }
+                    result.completeExceptionally(first);
+                    return;
+                }
+                // Don't wait out the hedge delay behind a provider that has already failed
+                for (int i = 0; i < attempts.length && next < 0; i++) {
+                    if (attempts[i] == null) {
+                        next = i;
+                    }
+                }
+            }
+            if (next >= 0) {
+                attempt(next);
+            }
+        }
+
+        private void cancelOthers(int winner) {
+            CompletableFuture<?>[] running;
+            synchronized (this) {
+                running = attempts.clone();
+            }
+            for (int i = 0; i < running.length; i++) {
+                if (i != winner && running[i] != null) {
+                    running[i].cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * The most recent response times of a provider
+     */
+    private static final class LatencyWindow {
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        LatencyWindow(int capacity) {
+            samples = new long[capacity];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * Gets a percentile of the recorded times
+         * @param fraction percentile as a fraction, e.g. 0.95
+         * @param minimum number of samples needed for a meaningful answer
+         * @return time in nanoseconds, or -1 if fewer than minimum samples are recorded
+         */
+        synchronized long percentile(double fraction, int minimum) {
+            if (count < minimum) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+        }
+    }
+}
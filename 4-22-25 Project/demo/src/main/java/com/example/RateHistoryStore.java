@@ -0,0 +1,380 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * RateHistoryStore - On-disk history of every rate each currency has had.
+ * Each currency has two column files in the store directory: CODE.time holds publish
+ * times in epoch milliseconds and CODE.rate holds the scaled rates (foreign units per
+ * USD at RATE_SCALE), both as little-endian longs in time order. Columns are read
+ * through FileChannel.map, so years of history are queried without copying it onto
+ * the heap; the OS pages in only what a lookup touches.
+ *
+ * Columns are mapped with headroom and written through the mapping; a column is only
+ * remapped when it fills, at twice its capacity, so the number of mappings grows with
+ * the log of the history rather than with every append. Files are therefore longer than
+ * their entries, padded with zeros: the entry count is where the time column first
+ * holds 0, which is why times must be positive. force() makes appends durable.
+ *
+ * Appends are serialised and must be in increasing time order per currency.
+ * Readers never block: each append publishes a new column count, and a remap a new
+ * set of mapped columns.
+ */
+public final class RateHistoryStore implements AutoCloseable {
+    private static final String TIME_SUFFIX = ".time";
+    private static final String RATE_SUFFIX = ".rate";
+    // Entries mapped for an empty column; columns double from here as they fill
+    static final int INITIAL_CAPACITY = 1024;
+
+    private final Path directory;
+    private final CurrencyRegistry registry;
+    private final FileChannel[] timeChannels;
+    private final FileChannel[] rateChannels;
+    // Mapped columns per currency id; replaced copy-on-write by appends
+    private volatile Column[] columns;
+
+    private RateHistoryStore(Path directory, CurrencyRegistry registry) {
+        this.directory = directory;
+        this.registry = registry;
+        timeChannels = new FileChannel[registry.size()];
+        rateChannels = new FileChannel[registry.size()];
+        columns = new Column[registry.size()];
+    }
+
+    /**
+     * Opens a store, creating the directory and column files as needed. An entry whose
+     * time or rate did not reach the file before a crash is dropped along with the
+     * padding after it, and overwritten by the next append.
+     * @param directory directory holding the column files
+     * @param registry registry that assigns the currency ids
+     * @return an open store
+     * @throws IOException if a column file cannot be opened or mapped
+     */
+    public static RateHistoryStore open(Path directory, CurrencyRegistry registry) throws IOException {
+        Files.createDirectories(directory);
+        RateHistoryStore store = new RateHistoryStore(directory, registry);
+        try {
+            Column[] columns = store.columns;
+            for (int id = 0; id < registry.size(); id++) {
+                FileChannel time = store.openColumn(id, TIME_SUFFIX);
+                store.timeChannels[id] = time;
+                FileChannel rate = store.openColumn(id, RATE_SUFFIX);
+                store.rateChannels[id] = rate;
+                long records = Math.min(time.size(), rate.size()) / Long.BYTES;
+                if (records > Integer.MAX_VALUE / Long.BYTES) {
+                    throw new IOException("History of " + registry.code(id) + " is too large to map");
+                }
+                Column column = Column.map(time, rate, Math.max(INITIAL_CAPACITY, (int) records), 0);
+                columns[id] = column.withCount(column.recoverCount((int) records));
+            }
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private FileChannel openColumn(int id, String suffix) throws IOException {
+        return FileChannel.open(directory.resolve(registry.code(id) + suffix),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends one rate to a currency's history
+     * @param id currency id
+     * @param timestampMillis time the rate took effect, in epoch milliseconds
+     * @param scaledRate foreign units per USD at RATE_SCALE
+     * @throws IOException if the columns cannot be written or remapped
+     */
+    public void append(int id, long timestampMillis, long scaledRate) throws IOException {
+        appendAll(id, new long[] {timestampMillis}, new long[] {scaledRate}, 1);
+    }
+
+    /**
+     * Appends a run of rates to a currency's history with at most one remap, for
+     * importing history in bulk
+     * @param id currency id
+     * @param timestampsMillis times the rates took effect, positive and in increasing order
+     * @param scaledRates foreign units per USD at RATE_SCALE
+     * @param count number of entries to append
+     * @throws IOException if the columns cannot be remapped
+     */
+    public synchronized void appendAll(int id, long[] timestampsMillis, long[] scaledRates, int count)
+            throws IOException {
+        Column column = columns[id];
+        long last = column.count > 0 ? column.times.get(column.count - 1) : 0;
+        for (int i = 0; i < count; i++) {
+            if (timestampsMillis[i] <= last) {
+                throw new IllegalArgumentException("Rates for " + registry.code(id)
+                        + " must be appended in increasing time order after the epoch");
+            }
+            if (scaledRates[i] <= 0) {
+                throw new IllegalArgumentException("Rate for " + registry.code(id) + " must be positive, got "
+                        + scaledRates[i]);
+            }
+            last = timestampsMillis[i];
+        }
+        int needed = column.count + count;
+        if (needed < 0 || needed > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IOException("History of " + registry.code(id) + " is too large to map");
+        }
+        if (needed > column.capacity) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE / Long.BYTES, Math.max(needed, 2L * column.capacity));
+            column = Column.map(timeChannels[id], rateChannels[id], capacity, column.count);
+        }
+        for (int i = 0; i < count; i++) {
+            column.rates.put(column.count + i, scaledRates[i]);
+        }
+        // The time column is written last, so an entry without its rate is never counted
+        for (int i = 0; i < count; i++) {
+            column.times.put(column.count + i, timestampsMillis[i]);
+        }
+
+        Column[] next = columns.clone();
+        next[id] = column.withCount(needed);
+        columns = next;
+    }
+
+    /**
+     * Appends every rate in a snapshot that differs from the latest stored rate of its
+     * currency, stamped with the snapshot's publish time
+     * @param snapshot rates to record
+     * @return number of rates appended
+     * @throws IOException if the columns cannot be written or remapped
+     */
+    public synchronized int appendSnapshot(RateSnapshot snapshot) throws IOException {
+        int appended = 0;
+        for (int id = 0; id < snapshot.size(); id++) {
+            Column column = columns[id];
+            long rate = snapshot.rateAt(id);
+            if (id == ConversionEngine.USD_ID || column.count > 0 && column.rates.get(column.count - 1) == rate) {
+                continue;
+            }
+            append(id, snapshot.timestampMillis(), rate);
+            appended++;
+        }
+        return appended;
+    }
+
+    /**
+     * Writes every appended entry to disk. Rate columns are forced before time columns,
+     * so after a crash every entry with its time on disk has its rate there too.
+     */
+    public synchronized void force() {
+        Column[] current = columns;
+        for (Column column : current) {
+            if (column != null) {
+                column.rateBytes.force();
+            }
+        }
+        for (Column column : current) {
+            if (column != null) {
+                column.timeBytes.force();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stored rates for a currency
+     * @param id currency id
+     * @return number of history entries
+     */
+    public int count(int id) {
+        return columns[id].count;
+    }
+
+    /**
+     * Gets the number of entries a currency's current mapping holds
+     * @param id currency id
+     * @return mapped capacity, at least count(id)
+     */
+    int capacity(int id) {
+        return columns[id].capacity;
+    }
+
+    /**
+     * Gets the time a stored rate took effect
+     * @param id currency id
+     * @param index entry index, 0 being the oldest
+     * @return epoch milliseconds
+     */
+    public long timestampAt(int id, int index) {
+        Column column = columns[id];
+        return column.times.get(Objects.checkIndex(index, column.count));
+    }
+
+    /**
+     * Gets a stored rate
+     * @param id currency id
+     * @param index entry index, 0 being the oldest
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAt(int id, int index) {
+        Column column = columns[id];
+        return column.rates.get(Objects.checkIndex(index, column.count));
+    }
+
+    /**
+     * Finds the entry in effect at an instant: the last one stamped at or before it.
+     * Binary search over the mapped time column, O(log n).
+     * @param id currency id
+     * @param timestampMillis instant in epoch milliseconds
+     * @return entry index, or -1 if the currency has no rate that early
+     */
+    public int indexAsOf(int id, long timestampMillis) {
+        Column column = columns[id];
+        return search(column.times, 0, column.count - 1, timestampMillis);
+    }
+
+    /**
+     * Finds the entry in effect at an instant, first checking a hint and the entry after
+     * it so time-ordered lookups rarely search
+     * @param id currency id
+     * @param timestampMillis instant in epoch milliseconds
+     * @param hint index returned by an earlier lookup, or -1
+     * @return entry index, or -1 if the currency has no rate that early
+     */
+    int indexAsOf(int id, long timestampMillis, int hint) {
+        Column column = columns[id];
+        LongBuffer times = column.times;
+        int count = column.count;
+        if (hint >= 0 && hint < count && times.get(hint) <= timestampMillis) {
+            if (hint + 1 == count || timestampMillis < times.get(hint + 1)) {
+                return hint;
+            }
+            if (hint + 2 == count || timestampMillis < times.get(hint + 2)) {
+                return hint + 1;
+            }
+            return search(times, hint + 2, count - 1, timestampMillis);
+        }
+        return search(times, 0, count - 1, timestampMillis);
+    }
+
+    /**
+     * Binary search for the last time at or before an instant
+     * @param times time column
+     * @param low first candidate index
+     * @param high last candidate index
+     * @param timestampMillis instant in epoch milliseconds
+     * @return index of the last time at or before the instant, or low - 1 if none
+     */
+    private static int search(LongBuffer times, int low, int high, long timestampMillis) {
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times.get(mid) <= timestampMillis) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Gets the registry that assigns currency ids
+     * @return currency registry
+     */
+    public CurrencyRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Forces and closes the column files. Existing mappings stay readable until they
+     * are garbage collected.
+     * @throws IOException if a file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        IOException failure = null;
+        for (FileChannel[] channels : new FileChannel[][] {timeChannels, rateChannels}) {
+            for (FileChannel channel : channels) {
+                if (channel == null) {
+                    continue;
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Mapped views of one currency's time and rate columns and how many entries they
+     * hold. Appends within the capacity publish a new Column over the same mappings.
+     */
+    private static final class Column {
+        private final MappedByteBuffer timeBytes;
+        private final MappedByteBuffer rateBytes;
+        private final LongBuffer times;
+        private final LongBuffer rates;
+        private final int capacity;
+        private final int count;
+
+        private Column(MappedByteBuffer timeBytes, MappedByteBuffer rateBytes, int capacity, int count) {
+            this.timeBytes = timeBytes;
+            this.rateBytes = rateBytes;
+            times = timeBytes.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            rates = rateBytes.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            this.capacity = capacity;
+            this.count = count;
+        }
+
+        /**
+         * Maps both columns read-write, growing the files to the capacity if needed
+         * @param time time column file
+         * @param rate rate column file
+         * @param capacity entries to map
+         * @param count entries already stored
+         * @return the mapped column
+         * @throws IOException if a file cannot be mapped
+         */
+        static Column map(FileChannel time, FileChannel rate, int capacity, int count) throws IOException {
+            long bytes = (long) capacity * Long.BYTES;
+            return new Column(time.map(FileChannel.MapMode.READ_WRITE, 0, bytes),
+                    rate.map(FileChannel.MapMode.READ_WRITE, 0, bytes), capacity, count);
+        }
+
+        Column withCount(int newCount) {
+            return new Column(timeBytes, rateBytes, capacity, newCount);
+        }
+
+        /**
+         * Finds the stored entries after open: times are positive and increasing up to
+         * the first zero, so the end is found by binary search. A trailing entry whose
+         * rate never reached the file is dropped.
+         * @param records entries the shorter file had room for
+         * @return number of complete entries
+         */
+        int recoverCount(int records) {
+            int low = 0;
+            int high = records - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (times.get(mid) > 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int recovered = low;
+            while (recovered > 0 && rates.get(recovered - 1) <= 0) {
+                recovered--;
+            }
+            return recovered;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * RateJournal - Write-ahead journal of rate updates, so a crash mid-refresh loses nothing.
+ * Every update is appended as a fixed 32-byte record (sequence number, publish time,
+ * packed ISO code, scaled rate, CRC32C) before it is applied. Appends only buffer in
+ * memory; sync() writes and fsyncs everything buffered in one go, and callers that
+ * arrive while a flush is running find their records already durable, so a busy feed
+ * costs one fsync per batch rather than one per tick. An optional background flusher
+ * syncs on a fixed interval. An engine with the journal attached appends each delta
+ * under its publish lock but syncs outside it, so threads updating at once share an
+ * fsync, and publishes each snapshot once its records are durable (see
+ * ConversionEngine.attachJournal).
+ *
+ * checkpoint() saves the engine's rates with RateSnapshotFile and records the last
+ * sequence number they include in the journal header; the records it covers are then
+ * dropped. Recovery loads the snapshot and replays only the records after it. Replaying
+ * a record twice is harmless because each one carries an absolute rate.
+ */
+public final class RateJournal implements AutoCloseable {
+    // "RJN1"
+    private static final int MAGIC = 0x524A4E31;
+    private static final int FORMAT_VERSION = 1;
+    // magic, format, checkpoint sequence, reserved
+    private static final int HEADER_BYTES = 32;
+    private static final int CHECKPOINT_OFFSET = 8;
+    // sequence, publish time, packed code, rate, CRC32C
+    private static final int RECORD_BYTES = 32;
+    private static final int RECORD_CRC = 28;
+    // Records handed to the engine per delta during replay
+    private static final int REPLAY_BATCH = 1024;
+    // How often recover() schedules a checkpoint of the attached engine
+    static final long CHECKPOINT_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private final Path file;
+    // Runs the background flusher and checkpoints; created on first use
+    private ScheduledExecutorService scheduler;
+
+    // Guards pending and lastAppended
+    private final Object appendLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * RECORD_BYTES);
+    private long lastAppended;
+
+    // Guards the file: channel, spare, writePosition, firstSequence, checkpointSequence
+    private final Object flushLock = new Object();
+    private FileChannel channel;
+    private ByteBuffer spare = ByteBuffer.allocate(64 * RECORD_BYTES);
+    private long writePosition;
+    // Sequence number of the first record in the file
+    private long firstSequence;
+    private long checkpointSequence;
+    private volatile long durableSequence;
+
+    private RateJournal(Path file, FileChannel channel, long checkpointSequence) {
+        this.file = file;
+        this.channel = channel;
+        this.checkpointSequence = checkpointSequence;
+    }
+
+    /**
+     * Gets where the applications keep their rate journal
+     * @return path next to the rate snapshot
+     */
+    public static Path defaultLocation() {
+        return RateSnapshotFile.defaultLocation().resolveSibling("rates.journal");
+    }
+
+    /**
+     * Restores the rates after a restart: loads the last checkpoint snapshot (or the
+     * bundled defaults) and replays the journal records written after it. The journal
+     * then stays attached to the engine, so later updates are journaled before they are
+     * published, and the engine is checkpointed into the snapshot file periodically.
+     * If the journal cannot be used the engine runs without one.
+     * @param snapshotFile snapshot file written by checkpoint()
+     * @param journalFile journal file
+     * @return an engine holding every durable update
+     */
+    public static ConversionEngine recover(Path snapshotFile, Path journalFile) {
+        ConversionEngine engine = RateSnapshotFile.loadEngine(snapshotFile);
+        RateJournal journal = null;
+        try {
+            journal = open(journalFile, 0);
+            journal.replay(engine);
+            engine.attachJournal(journal);
+            journal.scheduleCheckpoints(engine, snapshotFile, CHECKPOINT_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            System.err.println("Error replaying rate journal, updates will not be journaled: " + e.getMessage());
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Opens a journal, creating it if needed. A torn or corrupt tail left by a crash is
+     * cut off at the last good record.
+     * @param file journal file
+     * @param flushIntervalMillis how often a background thread syncs, or 0 for no thread
+     * @return the open journal
+     * @throws IOException if the file cannot be read or is not a rate journal
+     */
+    public static RateJournal open(Path file, long flushIntervalMillis) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return open(file, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE), flushIntervalMillis);
+    }
+
+    /**
+     * Opens a journal over a channel the caller opened on the file, which tests use to
+     * inject write failures. The channel is closed if the journal cannot be opened.
+     * @param file journal file
+     * @param channel readable and writable channel on the file
+     * @param flushIntervalMillis how often a background thread syncs, or 0 for no thread
+     * @return the open journal
+     * @throws IOException if the file cannot be read or is not a rate journal
+     */
+    static RateJournal open(Path file, FileChannel channel, long flushIntervalMillis) throws IOException {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            long checkpoint = 0;
+            if (channel.size() == 0) {
+                header.putInt(0, MAGIC).putInt(Integer.BYTES, FORMAT_VERSION).putLong(CHECKPOINT_OFFSET, 0);
+                writeFully(channel, header, 0);
+                channel.force(true);
+            } else {
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                    throw new IOException("Not a rate journal: " + file);
+                }
+                checkpoint = header.getLong(CHECKPOINT_OFFSET);
+            }
+
+            RateJournal journal = new RateJournal(file, channel, checkpoint);
+            journal.scanTail();
+            if (flushIntervalMillis > 0) {
+                journal.startFlusher(flushIntervalMillis);
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void startFlusher(long flushIntervalMillis) {
+        scheduler().scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "rate-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Checkpoints an engine on a fixed interval from a background thread, so the
+     * snapshot file stays current and the journal stays short
+     * @param engine engine with this journal attached
+     * @param snapshotFile snapshot file that recovery loads
+     * @param intervalMillis time between checkpoints
+     */
+    public void scheduleCheckpoints(ConversionEngine engine, Path snapshotFile, long intervalMillis) {
+        scheduler().scheduleWithFixedDelay(() -> {
+            try {
+                engine.checkpoint(snapshotFile);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error checkpointing rate journal: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Validates the records after the header, truncating at the first record that is
+     * torn, fails its checksum or breaks the sequence
+     * @throws IOException if the file cannot be read or truncated
+     */
+    private void scanTail() throws IOException {
+        long size = channel.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        long position = HEADER_BYTES;
+        long expected = -1;
+        long first = checkpointSequence + 1;
+        while (position + RECORD_BYTES <= size) {
+            record.clear();
+            readFully(channel, record, position);
+            long sequence = record.getLong(0);
+            if (!checksumMatches(record) || expected >= 0 && sequence != expected) {
+                break;
+            }
+            if (expected < 0) {
+                first = sequence;
+            }
+            expected = sequence + 1;
+            position += RECORD_BYTES;
+        }
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        firstSequence = first;
+        writePosition = position;
+        lastAppended = expected < 0 ? checkpointSequence : expected - 1;
+        durableSequence = lastAppended;
+    }
+
+    /**
+     * Buffers one rate update
+     * @param packedCode packed ISO code from CurrencyRegistry.pack()
+     * @param scaledRate foreign units per USD at RATE_SCALE
+     * @param timestampMillis time the rate was published, in epoch milliseconds
+     * @return sequence number of the record; pass it to sync() to make it durable
+     */
+    public long append(int packedCode, long scaledRate, long timestampMillis) {
+        synchronized (appendLock) {
+            if (pending.remaining() < RECORD_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            long sequence = ++lastAppended;
+            int start = pending.position();
+            pending.putLong(sequence).putLong(timestampMillis).putInt(packedCode).putLong(scaledRate);
+            CRC32C crc = new CRC32C();
+            crc.update(pending.array(), start, RECORD_CRC);
+            pending.putInt((int) crc.getValue());
+            return sequence;
+        }
+    }
+
+    /**
+     * Buffers a batch of rate updates, as passed to ConversionEngine.updateRates()
+     * @param registry registry that assigned the currency ids
+     * @param ids currency ids to update
+     * @param scaledRates new foreign units per USD at RATE_SCALE
+     * @param count number of entries to append
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     * @return sequence number of the last record
+     */
+    public long append(CurrencyRegistry registry, int[] ids, long[] scaledRates, int count, long timestampMillis) {
+        synchronized (appendLock) {
+            long sequence = lastAppended;
+            for (int i = 0; i < count; i++) {
+                sequence = append(registry.packed(ids[i]), scaledRates[i], timestampMillis);
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * Buffers the changes of a delta, stamped with its publish time
+     * @param registry registry that assigned the currency ids
+     * @param delta changes about to be published
+     * @return sequence number of the last record, or of the last earlier record if the
+     *         delta is empty
+     */
+    public long append(CurrencyRegistry registry, RateDelta delta) {
+        synchronized (appendLock) {
+            long sequence = lastAppended;
+            for (int i = 0; i < delta.size(); i++) {
+                sequence = append(registry.packed(delta.idAt(i)), delta.rateAt(i), delta.timestampMillis());
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last record appended, durable or not
+     * @return last sequence number
+     */
+    public long lastSequence() {
+        synchronized (appendLock) {
+            return lastAppended;
+        }
+    }
+
+    /**
+     * Makes every record up to a sequence number durable. Records buffered by other
+     * threads are written in the same batch, and a caller whose records were already
+     * flushed by someone else returns without any I/O. If the write fails the batch
+     * goes back in front of the records buffered since, so the next sync writes it
+     * again at the same place and the file never skips a sequence number.
+     * @param sequence sequence number returned by append()
+     * @throws IOException if the journal cannot be written or forced to disk
+     */
+    public void sync(long sequence) throws IOException {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            ByteBuffer batch;
+            long last;
+            synchronized (appendLock) {
+                batch = pending;
+                pending = spare;
+                last = lastAppended;
+            }
+            batch.flip();
+            int bytes = batch.remaining();
+            try {
+                writeFully(channel, batch, writePosition);
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                restore(batch);
+                throw e;
+            }
+            writePosition += bytes;
+            durableSequence = last;
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    /**
+     * Puts a batch that failed to write back in front of the pending records
+     * @param batch flipped batch taken from pending
+     */
+    private void restore(ByteBuffer batch) {
+        synchronized (appendLock) {
+            batch.rewind();
+            ByteBuffer merged = ByteBuffer.allocate(Math.max(pending.capacity(), batch.limit() + pending.position()));
+            merged.put(batch);
+            pending.flip();
+            merged.put(pending);
+            pending.clear();
+            spare = pending;
+            pending = merged;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            long last;
+            synchronized (appendLock) {
+                last = lastAppended;
+            }
+            sync(last);
+        } catch (IOException e) {
+            System.err.println("Error flushing rate journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the records after the last checkpoint to an engine, in order. Consecutive
+     * records with the same publish time were one delta and are applied as one, stamped
+     * with that time, so the engine ends at the journaled timestamp.
+     * @param engine engine restored from the checkpoint snapshot, with no journal attached
+     * @return number of records applied
+     * @throws IOException if the journal cannot be read
+     */
+    public long replay(ConversionEngine engine) throws IOException {
+        CurrencyRegistry registry = engine.registry();
+        int[] ids = new int[REPLAY_BATCH];
+        long[] rates = new long[REPLAY_BATCH];
+        int count = 0;
+        long timestamp = 0;
+        long applied = 0;
+        synchronized (flushLock) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            long start = HEADER_BYTES + Math.max(0, checkpointSequence + 1 - firstSequence) * RECORD_BYTES;
+            for (long position = start; position < writePosition; position += RECORD_BYTES) {
+                record.clear();
+                readFully(channel, record, position);
+                int id = registry.idOf(CurrencyRegistry.unpack(record.getInt(2 * Long.BYTES)));
+                long rate = record.getLong(2 * Long.BYTES + Integer.BYTES);
+                if (id == CurrencyRegistry.NONE || rate <= 0) {
+                    continue;
+                }
+                long recordTimestamp = record.getLong(Long.BYTES);
+                if (count == REPLAY_BATCH || count > 0 && recordTimestamp != timestamp) {
+                    engine.applyDelta(RateDelta.of(engine.snapshot(), ids, rates, count, timestamp));
+                    applied += count;
+                    count = 0;
+                }
+                timestamp = recordTimestamp;
+                ids[count] = id;
+                rates[count++] = rate;
+            }
+        }
+        engine.applyDelta(RateDelta.of(engine.snapshot(), ids, rates, count, timestamp));
+        return applied + count;
+    }
+
+    /**
+     * Saves a snapshot as the new recovery point and drops the journal records it
+     * includes. The file is rewritten with only the later records and moved into place
+     * atomically. Engines with the journal attached call this from checkpoint(), which
+     * pairs the snapshot with its sequence number.
+     * @param snapshotFile snapshot file that recovery loads
+     * @param registry registry that assigned the currency ids
+     * @param rates snapshot holding every update up to sequence
+     * @param sequence last journal sequence number included in the snapshot
+     * @return false if nothing was written because the snapshot file already holds sequence
+     * @throws IOException if the snapshot or journal cannot be written
+     */
+    public synchronized boolean checkpoint(Path snapshotFile, CurrencyRegistry registry, RateSnapshot rates,
+            long sequence) throws IOException {
+        synchronized (flushLock) {
+            if (sequence < checkpointSequence) {
+                throw new IllegalArgumentException("Checkpoint " + sequence + " is older than " + checkpointSequence);
+            }
+            if (sequence == checkpointSequence && Files.exists(snapshotFile)) {
+                return false;
+            }
+        }
+        sync(sequence);
+        RateSnapshotFile.write(snapshotFile, registry, rates);
+        synchronized (flushLock) {
+            long keepFrom = HEADER_BYTES + Math.max(0, sequence + 1 - firstSequence) * RECORD_BYTES;
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel rewritten = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(0, MAGIC).putInt(Integer.BYTES, FORMAT_VERSION).putLong(CHECKPOINT_OFFSET, sequence);
+                    writeFully(rewritten, header, 0);
+                    long tail = writePosition - keepFrom;
+                    long copied = 0;
+                    while (copied < tail) {
+                        copied += channel.transferTo(keepFrom + copied, tail - copied, rewritten);
+                    }
+                    rewritten.force(true);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writePosition = HEADER_BYTES + (writePosition - keepFrom);
+            firstSequence = Math.max(firstSequence, sequence + 1);
+            checkpointSequence = sequence;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the last sequence number known to be on disk
+     * @return durable sequence number
+     */
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Syncs anything still buffered, stops the flusher and closes the file
+     * @throws IOException if the final sync or close fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        }
+        try {
+            long last;
+            synchronized (appendLock) {
+                last = lastAppended;
+            }
+            sync(last);
+        } finally {
+            synchronized (flushLock) {
+                channel.close();
+            }
+        }
+    }
+
+    private static boolean checksumMatches(ByteBuffer record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, RECORD_CRC);
+        return (int) crc.getValue() == record.getInt(RECORD_CRC);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of rate journal");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RatePayload - Rates read from a provider response, ready for ConversionEngine.updateRates().
+ * The provider answers with a JSON object whose "rates" member maps ISO codes to
+ * foreign units per USD:
+ * <pre>
+ *   {"success": true, "base": "USD", "rates": {"EUR": 0.92, "KES": 129.71, ...}}
+ * </pre>
+ * A base other than USD is rejected. Codes the registry does not know are skipped;
+ * rates are rounded half-up to RATE_SCALE, like the bundled rates. The body is read
+ * with JsonRateReader, so the rates go straight from the response bytes into
+ * primitive arrays.
+ */
+public final class RatePayload {
+    private final int[] ids;
+    private final long[] rates;
+    private final int count;
+
+    private RatePayload(int[] ids, long[] rates, int count) {
+        this.ids = ids;
+        this.rates = rates;
+        this.count = count;
+    }
+
+    /**
+     * Reads the rates out of a provider response body as it arrives
+     * @param body response body; read to the end of the JSON document but not closed
+     * @param registry registry that assigns the currency ids
+     * @return the rates of every known currency in the body
+     * @throws IOException if the body is an error response, has no rates object,
+     *         is malformed, or names no known currency
+     */
+    public static RatePayload read(InputStream body, CurrencyRegistry registry) throws IOException {
+        return read(new JsonRateReader(body), registry);
+    }
+
+    /**
+     * Reads the rates out of a provider response body held in memory
+     * @param body response body; its position is advanced past the bytes read
+     * @param registry registry that assigns the currency ids
+     * @return the rates of every known currency in the body
+     * @throws IOException if the body is an error response, has no rates object,
+     *         is malformed, or names no known currency
+     */
+    public static RatePayload read(ByteBuffer body, CurrencyRegistry registry) throws IOException {
+        return read(new JsonRateReader(body), registry);
+    }
+
+    private static RatePayload read(JsonRateReader reader, CurrencyRegistry registry) throws IOException {
+        if (reader.next() != JsonRateReader.Token.START_OBJECT) {
+            throw new IOException("Rate payload is not a JSON object");
+        }
+        boolean failed = false;
+        boolean hasRates = false;
+        int[] ids = new int[registry.size()];
+        long[] rates = new long[registry.size()];
+        int count = 0;
+        while (reader.next() == JsonRateReader.Token.NAME) {
+            if (reader.textEquals("success")) {
+                failed = reader.next() == JsonRateReader.Token.FALSE;
+                reader.skipValue();
+            } else if (reader.textEquals("base")) {
+                checkBase(reader);
+            } else if (reader.textEquals("rates")) {
+                if (reader.next() != JsonRateReader.Token.START_OBJECT) {
+                    throw new IOException("Rate payload has no rates object");
+                }
+                hasRates = true;
+                while (reader.next() == JsonRateReader.Token.NAME) {
+                    int id = registry.idOfPacked(reader.packedCode());
+                    if (id == CurrencyRegistry.NONE || id == ConversionEngine.USD_ID) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    long rate = rate(reader, registry, id);
+                    if (count == ids.length) {
+                        // Repeated codes; the last one wins when applied
+                        ids = Arrays.copyOf(ids, count * 2);
+                        rates = Arrays.copyOf(rates, count * 2);
+                    }
+                    ids[count] = id;
+                    rates[count++] = rate;
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.next();
+        if (failed) {
+            throw new IOException("Rate provider reported an error");
+        }
+        if (!hasRates) {
+            throw new IOException("Rate payload has no rates object");
+        }
+        if (count == 0) {
+            throw new IOException("Rate payload has no known currencies");
+        }
+        return new RatePayload(ids, rates, count);
+    }
+
+    /**
+     * Rejects a payload quoted against anything but USD, which every rate is relative to
+     * @param reader reader positioned on the "base" member name
+     * @throws IOException if the base is not USD
+     */
+    static void checkBase(JsonRateReader reader) throws IOException {
+        if (reader.next() == JsonRateReader.Token.STRING && !reader.textEquals("USD")) {
+            throw new IOException("Rate payload is based on " + reader.text() + ", not USD");
+        }
+        reader.skipValue();
+    }
+
+    /**
+     * Reads the value of a rate member named by a known currency
+     * @param reader reader positioned on the member name
+     * @param registry registry that assigned the id
+     * @param id currency id of the member
+     * @return foreign units per USD, rounded half-up to RATE_SCALE
+     * @throws IOException if the value is not a positive number
+     */
+    static long rate(JsonRateReader reader, CurrencyRegistry registry, int id) throws IOException {
+        JsonRateReader.Token token = reader.next();
+        if (token == JsonRateReader.Token.NUMBER || token == JsonRateReader.Token.STRING) {
+            try {
+                long rate = reader.scaledValue(ConversionEngine.RATE_SCALE, RoundingMode.HALF_UP);
+                if (rate > 0) {
+                    return rate;
+                }
+            } catch (IOException | ArithmeticException e) {
+                // Reported below with the offending text
+            }
+            throw new IOException("Invalid rate for " + registry.code(id) + ": " + reader.text());
+        }
+        throw new IOException("Invalid rate for " + registry.code(id));
+    }
+
+    /**
+     * Gets the number of rates read
+     * @return number of entries
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Gets the currency ids read, parallel to rates()
+     * @return currency ids; only the first count() entries are used
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    /**
+     * Gets the rates read, parallel to ids()
+     * @return foreign units per USD at RATE_SCALE; only the first count() entries are used
+     */
+    public long[] rates() {
+        return rates;
+    }
+
+    /**
+     * Applies the rates to an engine as one snapshot swap
+     * @param engine engine sharing the registry the payload was read with
+     * @return the changes published
+     */
+    public RateDelta applyTo(ConversionEngine engine) {
+        return engine.updateRates(ids, rates, count);
+    }
+}
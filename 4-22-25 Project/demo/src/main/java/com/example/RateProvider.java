@@ -0,0 +1,47 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RateProvider - A source of the latest USD rates that RateFetcher can query.
+ * Fetches are asynchronous and cancellable, so a fetcher can race several providers
+ * and abort the ones that lose.
+ */
+public interface RateProvider {
+    /**
+     * Gets a short name for logs and error messages
+     * @return provider name
+     */
+    String name();
+
+    /**
+     * Starts fetching the provider's latest rates. Cancelling the returned future
+     * aborts the request. Nothing is cached here; see accepted().
+     * @param registry registry that assigns the currency ids
+     * @return completes with the validated rates, with RateResponse.notModified() if they
+     *         have not changed since this provider's last good response, or exceptionally
+     *         with an IOException if the provider cannot be reached or its response is unusable
+     */
+    CompletableFuture<RateResponse> fetch(CurrencyRegistry registry);
+
+    /**
+     * Tells the provider one of its responses won and its rates were published, so it
+     * can keep the response for conditional requests and warm starts
+     * @param response response returned by fetch()
+     * @throws IOException if the response cannot be kept
+     */
+    default void accepted(RateResponse response) throws IOException {
+    }
+
+    /**
+     * Gets the rates of the provider's last good response, if it kept one
+     * @param registry registry that assigns the currency ids
+     * @param newerThanMillis only return rates received after this time, epoch milliseconds
+     * @return the cached rates, or null if none are kept or they are not newer
+     * @throws IOException if the kept response cannot be read
+     */
+    default RatePayload cached(CurrencyRegistry registry, long newerThanMillis) throws IOException {
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example;
+
+/**
+ * RateResponse - One provider answer to a fetch: the parsed rates, or "not modified".
+ * A response that may be cached also carries its raw body and HTTP validators. The
+ * fetcher hands the winning response back to its provider with RateProvider.accepted()
+ * only after publishing the rates, so a cache never holds a response that lost the
+ * hedge or failed to publish.
+ */
+public final class RateResponse {
+    private static final RateResponse NOT_MODIFIED = new RateResponse(null, null, "", "", 0);
+
+    private final RatePayload payload;
+    private final byte[] body;
+    private final String etag;
+    private final String lastModified;
+    private final long receivedAtMillis;
+
+    private RateResponse(RatePayload payload, byte[] body, String etag, String lastModified,
+            long receivedAtMillis) {
+        this.payload = payload;
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.receivedAtMillis = receivedAtMillis;
+    }
+
+    /**
+     * Gets the response to a conditional request whose rates have not changed
+     * @return a shared response with no payload
+     */
+    public static RateResponse notModified() {
+        return NOT_MODIFIED;
+    }
+
+    /**
+     * Creates a response with nothing to cache
+     * @param payload validated rates
+     * @return the response
+     */
+    public static RateResponse of(RatePayload payload) {
+        return new RateResponse(payload, null, "", "", System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a response that can be cached once it is published
+     * @param payload validated rates
+     * @param body raw response body the rates were read from
+     * @param etag ETag header, or null if none
+     * @param lastModified Last-Modified header, or null if none
+     * @param receivedAtMillis time the response arrived, epoch milliseconds
+     * @return the response
+     */
+    public static RateResponse of(RatePayload payload, byte[] body, String etag, String lastModified,
+            long receivedAtMillis) {
+        return new RateResponse(payload, body, etag == null ? "" : etag,
+                lastModified == null ? "" : lastModified, receivedAtMillis);
+    }
+
+    /**
+     * Checks whether the provider reported no change since its last good response
+     * @return true for a 304 Not Modified
+     */
+    public boolean isNotModified() {
+        return payload == null;
+    }
+
+    /**
+     * Gets the rates
+     * @return validated rates, or null if not modified
+     */
+    public RatePayload payload() {
+        return payload;
+    }
+
+    /**
+     * Gets the raw body, for caching
+     * @return body bytes, or null if the response is not to be cached
+     */
+    public byte[] body() {
+        return body;
+    }
+
+    /**
+     * Gets the ETag validator
+     * @return ETag header, or "" if none
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * Gets the Last-Modified validator
+     * @return Last-Modified header, or "" if none
+     */
+    public String lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets when the response arrived
+     * @return epoch milliseconds
+     */
+    public long receivedAtMillis() {
+        return receivedAtMillis;
+    }
+}
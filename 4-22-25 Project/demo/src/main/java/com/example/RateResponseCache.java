@@ -0,0 +1,198 @@
+package com.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * RateResponseCache - The last good provider response and its HTTP validators, kept on disk.
+ * The fetcher sends the validators back as If-None-Match / If-Modified-Since, so an
+ * unchanged provider answers 304 with no body to download or parse. The cached body
+ * also warm-starts the next launch with the last rates fetched.
+ * Layout (big-endian):
+ * <pre>
+ *   int  magic "RRC1"
+ *   long fetch time, epoch milliseconds
+ *   UTF  ETag ("" if none)
+ *   UTF  Last-Modified ("" if none)
+ *   int  body length n
+ *   byte body x n
+ *   int  CRC32C of everything above
+ * </pre>
+ */
+public final class RateResponseCache {
+    // "RRC1"
+    private static final int MAGIC = 0x52524331;
+
+    private final Path file;
+    // Replaced as a whole, so readers see one response's body and validators together
+    private volatile Entry entry;
+
+    private RateResponseCache(Path file, Entry entry) {
+        this.file = file;
+        this.entry = entry;
+    }
+
+    /**
+     * Gets where the applications keep their cached provider response
+     * @return path next to the rate snapshot
+     */
+    public static Path defaultLocation() {
+        return RateSnapshotFile.defaultLocation().resolveSibling("rates.response");
+    }
+
+    /**
+     * Opens a cache, starting empty if the file is missing or unusable
+     * @param file cache file
+     * @return the cache
+     */
+    public static RateResponseCache load(Path file) {
+        try {
+            return new RateResponseCache(file, read(file));
+        } catch (NoSuchFileException e) {
+            // First run: nothing cached yet
+        } catch (IOException e) {
+            System.err.println("Ignoring cached rate response: " + e.getMessage());
+        }
+        return new RateResponseCache(file, null);
+    }
+
+    private static Entry read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int checksum = bytes.length - Integer.BYTES;
+        if (checksum < Integer.BYTES || ByteBuffer.wrap(bytes).getInt() != MAGIC) {
+            throw new IOException("Not a cached rate response: " + file);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, checksum);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes).getInt(checksum)) {
+            throw new IOException("Cached rate response checksum mismatch: " + file);
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, Integer.BYTES, checksum - Integer.BYTES));
+        long fetchedAtMillis = in.readLong();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        int length = in.readInt();
+        if (length < 0 || length != in.available()) {
+            throw new IOException("Cached rate response has the wrong length: " + file);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return new Entry(fetchedAtMillis, etag, lastModified, body);
+    }
+
+    /**
+     * Replaces the cached response, writing the file atomically
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     * @param body response body
+     * @param fetchedAtMillis time the response was received, in epoch milliseconds
+     * @throws IOException if the file cannot be written; the cache then keeps the new
+     *         response in memory only
+     */
+    public void store(String etag, String lastModified, byte[] body, long fetchedAtMillis) throws IOException {
+        Entry next = new Entry(fetchedAtMillis, etag == null ? "" : etag,
+                lastModified == null ? "" : lastModified, body);
+        entry = next;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(next.fetchedAtMillis);
+        out.writeUTF(next.etag);
+        out.writeUTF(next.lastModified);
+        out.writeInt(body.length);
+        out.write(body);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Checks whether a response is cached
+     * @return true if nothing has been cached
+     */
+    public boolean isEmpty() {
+        return entry == null;
+    }
+
+    /**
+     * Gets the ETag of the cached response
+     * @return ETag, or "" if the provider sent none or nothing is cached
+     */
+    public String etag() {
+        Entry current = entry;
+        return current == null ? "" : current.etag;
+    }
+
+    /**
+     * Gets the Last-Modified value of the cached response
+     * @return Last-Modified, or "" if the provider sent none or nothing is cached
+     */
+    public String lastModified() {
+        Entry current = entry;
+        return current == null ? "" : current.lastModified;
+    }
+
+    /**
+     * Gets the cached response body
+     * @return body bytes, or an empty array if nothing is cached
+     */
+    public byte[] body() {
+        Entry current = entry;
+        return current == null ? new byte[0] : current.body.clone();
+    }
+
+    /**
+     * Gets the time the cached response was received
+     * @return epoch milliseconds, or Long.MIN_VALUE if nothing is cached
+     */
+    public long fetchedAtMillis() {
+        Entry current = entry;
+        return current == null ? Long.MIN_VALUE : current.fetchedAtMillis;
+    }
+
+    /**
+     * One cached response
+     */
+    private static final class Entry {
+        private final long fetchedAtMillis;
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+
+        Entry(long fetchedAtMillis, String etag, String lastModified, byte[] body) {
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
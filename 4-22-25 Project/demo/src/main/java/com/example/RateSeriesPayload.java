@@ -0,0 +1,189 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RateSeriesPayload - Rate history read from a provider's time-series response.
+ * The provider answers a date range with one rates object per day:
+ * <pre>
+ *   {"success": true, "timeseries": true, "base": "USD",
+ *    "rates": {"2024-01-02": {"EUR": 0.91, ...}, "2024-01-03": {...}, ...}}
+ * </pre>
+ * Responses covering years run to megabytes, so the body is streamed through
+ * JsonRateReader and each day's rates go straight into per-currency primitive
+ * columns; apart from growing those columns nothing is allocated per entry.
+ * Days must be in increasing order, as the provider sends them.
+ */
+public final class RateSeriesPayload {
+    private final CurrencyRegistry registry;
+    // Per currency id: day times and rates, parallel; null for currencies not in the body
+    private final long[][] timestamps;
+    private final long[][] rates;
+    private final int[] counts;
+
+    private RateSeriesPayload(CurrencyRegistry registry) {
+        this.registry = registry;
+        timestamps = new long[registry.size()][];
+        rates = new long[registry.size()][];
+        counts = new int[registry.size()];
+    }
+
+    /**
+     * Reads a time-series response as it arrives
+     * @param body response body; read to the end of the JSON document but not closed
+     * @param registry registry that assigns the currency ids
+     * @return the series of every known currency in the body
+     * @throws IOException if the body is an error response, is malformed, has days
+     *         out of order, or names no known currency
+     */
+    public static RateSeriesPayload read(InputStream body, CurrencyRegistry registry) throws IOException {
+        return read(new JsonRateReader(body), registry);
+    }
+
+    /**
+     * Reads a time-series response held in memory
+     * @param body response body; its position is advanced past the bytes read
+     * @param registry registry that assigns the currency ids
+     * @return the series of every known currency in the body
+     * @throws IOException if the body is an error response, is malformed, has days
+     *         out of order, or names no known currency
+     */
+    public static RateSeriesPayload read(ByteBuffer body, CurrencyRegistry registry) throws IOException {
+        return read(new JsonRateReader(body), registry);
+    }
+
+    private static RateSeriesPayload read(JsonRateReader reader, CurrencyRegistry registry) throws IOException {
+        if (reader.next() != JsonRateReader.Token.START_OBJECT) {
+            throw new IOException("Rate series is not a JSON object");
+        }
+        RateSeriesPayload series = new RateSeriesPayload(registry);
+        boolean failed = false;
+        boolean hasRates = false;
+        while (reader.next() == JsonRateReader.Token.NAME) {
+            if (reader.textEquals("success")) {
+                failed = reader.next() == JsonRateReader.Token.FALSE;
+                reader.skipValue();
+            } else if (reader.textEquals("base")) {
+                RatePayload.checkBase(reader);
+            } else if (reader.textEquals("rates")) {
+                if (reader.next() != JsonRateReader.Token.START_OBJECT) {
+                    throw new IOException("Rate series has no rates object");
+                }
+                hasRates = true;
+                while (reader.next() == JsonRateReader.Token.NAME) {
+                    long day = reader.dateMillis();
+                    if (reader.next() != JsonRateReader.Token.START_OBJECT) {
+                        throw new IOException("Rate series has no rates for " + reader.text());
+                    }
+                    series.readDay(reader, day);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.next();
+        if (failed) {
+            throw new IOException("Rate provider reported an error");
+        }
+        if (!hasRates) {
+            throw new IOException("Rate series has no rates object");
+        }
+        for (int id = 0; id < series.counts.length; id++) {
+            if (series.counts[id] > 0) {
+                return series;
+            }
+        }
+        throw new IOException("Rate series has no known currencies");
+    }
+
+    /**
+     * Reads one day's rates object into the columns
+     * @param reader reader positioned just inside the day's object
+     * @param day start of the day, epoch milliseconds
+     * @throws IOException if a rate is invalid or the day is out of order
+     */
+    private void readDay(JsonRateReader reader, long day) throws IOException {
+        while (reader.next() == JsonRateReader.Token.NAME) {
+            int id = registry.idOfPacked(reader.packedCode());
+            if (id == CurrencyRegistry.NONE || id == ConversionEngine.USD_ID) {
+                reader.skipValue();
+                continue;
+            }
+            long rate = RatePayload.rate(reader, registry, id);
+            int count = counts[id];
+            if (count == 0) {
+                timestamps[id] = new long[64];
+                rates[id] = new long[64];
+            } else if (timestamps[id][count - 1] >= day) {
+                throw new IOException("Rate series is not in date order for " + registry.code(id));
+            } else if (count == timestamps[id].length) {
+                timestamps[id] = Arrays.copyOf(timestamps[id], count * 2);
+                rates[id] = Arrays.copyOf(rates[id], count * 2);
+            }
+            timestamps[id][count] = day;
+            rates[id][count] = rate;
+            counts[id] = count + 1;
+        }
+    }
+
+    /**
+     * Gets the number of days read for a currency
+     * @param id currency id
+     * @return number of entries, 0 if the currency was not in the body
+     */
+    public int count(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Gets a currency's day times, parallel to rates(id)
+     * @param id currency id
+     * @return epoch milliseconds at the start of each day, ascending; only the first
+     *         count(id) entries are used
+     */
+    public long[] timestampsMillis(int id) {
+        return counts[id] == 0 ? new long[0] : timestamps[id];
+    }
+
+    /**
+     * Gets a currency's rates, parallel to timestampsMillis(id)
+     * @param id currency id
+     * @return foreign units per USD at RATE_SCALE; only the first count(id) entries are used
+     */
+    public long[] rates(int id) {
+        return counts[id] == 0 ? new long[0] : rates[id];
+    }
+
+    /**
+     * Appends the series to a history store, skipping days it already holds,
+     * so overlapping ranges can be imported repeatedly
+     * @param history store sharing the registry the series was read with
+     * @return number of entries appended
+     * @throws IOException if the store cannot be written
+     */
+    public int appendTo(RateHistoryStore history) throws IOException {
+        int appended = 0;
+        for (int id = 0; id < counts.length; id++) {
+            int stored = history.count(id);
+            int from = 0;
+            if (stored > 0) {
+                long last = history.timestampAt(id, stored - 1);
+                while (from < counts[id] && timestamps[id][from] <= last) {
+                    from++;
+                }
+            }
+            int count = counts[id] - from;
+            if (count > 0 && from == 0) {
+                history.appendAll(id, timestamps[id], rates[id], count);
+            } else if (count > 0) {
+                history.appendAll(id, Arrays.copyOfRange(timestamps[id], from, counts[id]),
+                        Arrays.copyOfRange(rates[id], from, counts[id]), count);
+            }
+            appended += count;
+        }
+        return appended;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example;
+
+import java.math.RoundingMode;
+
+/**
+ * RateSnapshot - One immutable, versioned set of exchange rates.
+ * Holds the USD rates together with everything derived from them (reciprocals and the
+ * cross-rate matrix), so a reader that takes a snapshot sees one consistent rate table
+ * no matter how many updates are published while it works. Updates build a new snapshot
+ * and never touch an existing one.
+ */
+public final class RateSnapshot {
+    private static final long FEE_ONE = FixedPoint.pow10(ConversionEngine.FEE_SCALE);
+    // Number of distinct fees whose fee-inclusive rates are kept at once
+    private static final int FEE_CACHE_SIZE = 4;
+
+    private final long version;
+    private final long timestampMillis;
+    private final int size;
+    private final long[] rates;
+    // reciprocals[id] = FixedPoint.reciprocal(rates[id]), so foreign -> USD multiplies
+    private final long[] reciprocals;
+    // crossRates[from * size + to] = target minor units per source minor unit at CROSS_SCALE;
+    // the minor-unit exponents are folded in so batches always divide by 10^CROSS_SCALE
+    private final long[] crossRates;
+
+    // Effective-rate cache: for each cached fee, the net and fee cross rates of every pair.
+    // Entries are immutable, so a thread that races another either sees a complete entry or
+    // misses and computes its own. A lost update of the round-robin counter only changes
+    // which entry is replaced next.
+    private final FeeRates[] feeCache = new FeeRates[FEE_CACHE_SIZE];
+    private int nextCacheEntry;
+
+    /**
+     * Builds a snapshot and derives its cross rates
+     * @param registry registry that assigned the currency ids
+     * @param version version number, increasing with every update
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     * @param scaledRates foreign units per USD at RATE_SCALE, indexed by currency id
+     */
+    RateSnapshot(CurrencyRegistry registry, long version, long timestampMillis, long[] scaledRates) {
+        this.version = version;
+        this.timestampMillis = timestampMillis;
+        size = scaledRates.length;
+        rates = scaledRates.clone();
+        reciprocals = new long[size];
+        for (int id = 0; id < size; id++) {
+            reciprocals[id] = FixedPoint.reciprocal(rates[id]);
+        }
+        crossRates = new long[size * size];
+        for (int from = 0; from < size; from++) {
+            int row = from * size;
+            int fromDigits = registry.minorDigits(from);
+            for (int to = 0; to < size; to++) {
+                crossRates[row + to] = from == to ? FixedPoint.pow10(ConversionEngine.CROSS_SCALE)
+                        : crossRate(rates[from], fromDigits, rates[to], registry.minorDigits(to));
+            }
+        }
+    }
+
+    /**
+     * Derives one cross rate from two USD rates, rounded half-even once
+     * @param fromRate source foreign units per USD at RATE_SCALE
+     * @param fromDigits minor-unit digits of the source currency
+     * @param toRate target foreign units per USD at RATE_SCALE
+     * @param toDigits minor-unit digits of the target currency
+     * @return target minor units per source minor unit at CROSS_SCALE
+     */
+    static long crossRate(long fromRate, int fromDigits, long toRate, int toDigits) {
+        // (to per USD) / (from per USD) = to per from, then major -> minor units
+        long scale = FixedPoint.pow10(ConversionEngine.CROSS_SCALE + toDigits - fromDigits);
+        return FixedPoint.mulDiv(toRate, scale, fromRate, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Folds a fee into a cross rate, the way the effective-rate cache does
+     * @param crossRate cross rate at CROSS_SCALE
+     * @param feePpm fee in parts per million
+     * @return net cross rate at CROSS_SCALE
+     */
+    static long netRate(long crossRate, long feePpm) {
+        return FixedPoint.mulDiv(crossRate, FEE_ONE - feePpm, FEE_ONE, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Builds the next snapshot from a delta, re-deriving only the cross rates and cached
+     * fee rates in the changed currencies' rows and columns. This snapshot is left unchanged.
+     * @param registry registry that assigned the currency ids
+     * @param delta changes from this snapshot's version
+     * @return the snapshot at delta.version(), or this snapshot if the delta is empty and
+     *         keeps the version
+     */
+    RateSnapshot withDelta(CurrencyRegistry registry, RateDelta delta) {
+        if (delta.baseVersion() != version) {
+            throw new IllegalStateException("Delta from version " + delta.baseVersion()
+                    + " does not apply to version " + version);
+        }
+        // An empty delta to a later version only restamps the rates
+        return delta.isEmpty() && delta.version() == version ? this : new RateSnapshot(registry, this, delta);
+    }
+
+    /**
+     * Derives a snapshot from its predecessor and a non-empty delta
+     * @param registry registry that assigned the currency ids
+     * @param base snapshot at delta.baseVersion()
+     * @param delta changes to apply
+     */
+    private RateSnapshot(CurrencyRegistry registry, RateSnapshot base, RateDelta delta) {
+        version = delta.version();
+        timestampMillis = delta.timestampMillis();
+        size = base.size;
+        rates = base.rates.clone();
+        delta.applyTo(rates);
+        reciprocals = base.reciprocals.clone();
+        crossRates = base.crossRates.clone();
+        long one = FixedPoint.pow10(ConversionEngine.CROSS_SCALE);
+        for (int i = 0; i < delta.size(); i++) {
+            int changed = delta.idAt(i);
+            int changedDigits = registry.minorDigits(changed);
+            reciprocals[changed] = FixedPoint.reciprocal(rates[changed]);
+            for (int other = 0; other < size; other++) {
+                int otherDigits = registry.minorDigits(other);
+                crossRates[changed * size + other] = changed == other ? one
+                        : crossRate(rates[changed], changedDigits, rates[other], otherDigits);
+                crossRates[other * size + changed] = changed == other ? one
+                        : crossRate(rates[other], otherDigits, rates[changed], changedDigits);
+            }
+        }
+        // Cached fees carry over with only the changed rows and columns recomputed
+        for (int slot = 0; slot < FEE_CACHE_SIZE; slot++) {
+            FeeRates entry = base.feeCache[slot];
+            if (entry != null) {
+                feeCache[slot] = new FeeRates(entry, crossRates, size, delta);
+            }
+        }
+        nextCacheEntry = base.nextCacheEntry;
+    }
+
+    /**
+     * Finds the effective rates for a fee, computing them on a miss.
+     * Misses replace entries round-robin.
+     * @param feePpm fee in parts per million
+     * @return net and fee cross rates for the fee
+     */
+    private FeeRates feeRates(long feePpm) {
+        for (FeeRates entry : feeCache) {
+            if (entry != null && entry.feePpm == feePpm) {
+                return entry;
+            }
+        }
+        FeeRates entry = new FeeRates(feePpm, crossRates);
+        int slot = nextCacheEntry;
+        nextCacheEntry = (slot + 1) % FEE_CACHE_SIZE;
+        feeCache[slot] = entry;
+        return entry;
+    }
+
+    /**
+     * Gets the fee-inclusive cross rates for a fee
+     * @param feePpm fee in parts per million
+     * @return net cross rates indexed like the cross-rate matrix
+     */
+    long[] netCrossRates(long feePpm) {
+        return feePpm == 0 ? crossRates : feeRates(feePpm).net;
+    }
+
+    /**
+     * Gets the cross rates that give the fee charged for a fee
+     * @param feePpm fee in parts per million (not 0)
+     * @return fee cross rates indexed like the cross-rate matrix
+     */
+    long[] feeCrossRates(long feePpm) {
+        return feeRates(feePpm).fees;
+    }
+
+    /**
+     * Gets the precomputed reciprocal of a rate
+     * @param id currency id
+     * @return FixedPoint.reciprocal(rateAt(id))
+     */
+    long reciprocalAt(int id) {
+        return reciprocals[id];
+    }
+
+    /**
+     * Gets the version number of this snapshot
+     * @return version, increasing with every update
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Gets the time these rates were published
+     * @return epoch milliseconds
+     */
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * Gets the number of currency ids, including USD
+     * @return number of currencies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the scaled rate of a currency
+     * @param id currency id
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rateAt(int id) {
+        return rates[id];
+    }
+
+    /**
+     * Copies all rates, for saving or building another snapshot
+     * @return foreign units per USD at RATE_SCALE, indexed by currency id
+     */
+    public long[] copyRates() {
+        return rates.clone();
+    }
+
+    /**
+     * Gets the cross rate between two currencies
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @return target minor units per source minor unit at CROSS_SCALE
+     */
+    public long crossRate(int fromId, int toId) {
+        return crossRates[fromId * size + toId];
+    }
+
+    /**
+     * Net and fee cross rates of every pair for one fee
+     */
+    private static final class FeeRates {
+        private final long feePpm;
+        private final long[] net;
+        private final long[] fees;
+
+        FeeRates(long feePpm, long[] crossRates) {
+            this.feePpm = feePpm;
+            net = new long[crossRates.length];
+            fees = new long[crossRates.length];
+            for (int i = 0; i < crossRates.length; i++) {
+                derive(crossRates, i);
+            }
+        }
+
+        /**
+         * Copies a previous snapshot's entry, re-deriving the pairs a delta touches
+         * @param base entry of the previous snapshot
+         * @param crossRates cross rates of the new snapshot
+         * @param size number of currency ids
+         * @param delta changes between the snapshots
+         */
+        FeeRates(FeeRates base, long[] crossRates, int size, RateDelta delta) {
+            feePpm = base.feePpm;
+            net = base.net.clone();
+            fees = base.fees.clone();
+            for (int i = 0; i < delta.size(); i++) {
+                int changed = delta.idAt(i);
+                for (int other = 0; other < size; other++) {
+                    derive(crossRates, changed * size + other);
+                    derive(crossRates, other * size + changed);
+                }
+            }
+        }
+
+        private void derive(long[] crossRates, int pair) {
+            net[pair] = netRate(crossRates[pair], feePpm);
+            fees[pair] = FixedPoint.mulDiv(crossRates[pair], feePpm, FEE_ONE, RoundingMode.HALF_EVEN);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * RateSnapshotFile - Saves and restores a rate snapshot in a compact binary file.
+ * Layout (big-endian):
+ * <pre>
+ *   int  magic "RSN1"
+ *   int  format version
+ *   long snapshot version
+ *   long publish time, epoch milliseconds
+ *   int  currency count n
+ *   int  packed ISO code  x n
+ *   long scaled rate      x n   (foreign units per USD at RATE_SCALE)
+ *   int  CRC32C of everything above
+ * </pre>
+ * Currencies are stored by packed code rather than id, so a file stays valid when the
+ * registry order changes. Loading is one mapped read with no text parsing.
+ *
+ * The applications write the file when they checkpoint their rate journal. Run this
+ * class with a saved provider response to update the rates without the applications:
+ * <pre>
+ *   java com.example.RateSnapshotFile latest.json [snapshot file]
+ * </pre>
+ */
+public final class RateSnapshotFile {
+    // "RSN1"
+    private static final int MAGIC = 0x52534E31;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+    private RateSnapshotFile() {
+    }
+
+    /**
+     * Gets where the applications keep their rate snapshot
+     * @return path under the user's home directory
+     */
+    public static Path defaultLocation() {
+        return Paths.get(System.getProperty("user.home"), ".currencyconverter", "rates.snapshot");
+    }
+
+    /**
+     * Writes a snapshot, replacing the file atomically so readers never see half a file
+     * @param file file to write
+     * @param registry registry that assigned the snapshot's currency ids
+     * @param snapshot rates to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, CurrencyRegistry registry, RateSnapshot snapshot) throws IOException {
+        int count = snapshot.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * (Integer.BYTES + Long.BYTES) + Integer.BYTES);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION)
+                .putLong(snapshot.version()).putLong(snapshot.timestampMillis()).putInt(count);
+        for (int id = 0; id < count; id++) {
+            buffer.putInt(registry.packed(id));
+        }
+        for (int id = 0; id < count; id++) {
+            buffer.putLong(snapshot.rateAt(id));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Builds an engine from a snapshot file. Currencies in the file that the registry does
+     * not know are registered; registry currencies missing from the file get their
+     * bundled default rate.
+     * @param file snapshot file
+     * @param registry registry with USD as id 0, not yet frozen by another engine
+     * @return an engine holding the file's version, publish time and rates
+     * @throws IOException if the file is missing, truncated, corrupt or of another format
+     */
+    public static ConversionEngine read(Path file, CurrencyRegistry registry) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES + Integer.BYTES) {
+                throw new IOException("Rate snapshot is truncated: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a rate snapshot: " + file);
+        }
+        if (buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException("Unsupported rate snapshot format " + buffer.getInt(Integer.BYTES) + ": " + file);
+        }
+        long version = buffer.getLong(2 * Integer.BYTES);
+        long timestampMillis = buffer.getLong(2 * Integer.BYTES + Long.BYTES);
+        int count = buffer.getInt(2 * Integer.BYTES + 2 * Long.BYTES);
+        int codes = HEADER_BYTES;
+        int rates = codes + count * Integer.BYTES;
+        int checksum = rates + count * Long.BYTES;
+        if (count < 0 || buffer.limit() != checksum + Integer.BYTES) {
+            throw new IOException("Rate snapshot has the wrong length: " + file);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(checksum));
+        if ((int) crc.getValue() != buffer.getInt(checksum)) {
+            throw new IOException("Rate snapshot checksum mismatch: " + file);
+        }
+
+        // Validate every entry before touching the registry
+        for (int i = 0; i < count; i++) {
+            int packed = buffer.getInt(codes + i * Integer.BYTES);
+            if (!isPackedCode(packed) || buffer.getLong(rates + i * Long.BYTES) <= 0) {
+                throw new IOException("Rate snapshot has an invalid entry at " + i + ": " + file);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            registry.register(CurrencyRegistry.unpack(buffer.getInt(codes + i * Integer.BYTES)));
+        }
+
+        long[] scaledRates = new long[registry.size()];
+        for (int i = 0; i < count; i++) {
+            int id = registry.idOf(CurrencyRegistry.unpack(buffer.getInt(codes + i * Integer.BYTES)));
+            scaledRates[id] = buffer.getLong(rates + i * Long.BYTES);
+        }
+        scaledRates[ConversionEngine.USD_ID] = FixedPoint.pow10(ConversionEngine.RATE_SCALE);
+        for (int id = 0; id < scaledRates.length; id++) {
+            if (scaledRates[id] == 0) {
+                // Only an incomplete file pays for parsing the bundled rates
+                long[] defaults = DefaultRates.scaledRates(registry);
+                for (int missing = id; missing < scaledRates.length; missing++) {
+                    if (scaledRates[missing] == 0) {
+                        scaledRates[missing] = defaults[missing];
+                    }
+                }
+                break;
+            }
+        }
+        return new ConversionEngine(registry, scaledRates, version, timestampMillis);
+    }
+
+    /**
+     * Checks that a stored code is 15 bits whose three 5-bit letters are each A-Z.
+     * The CRC only catches damage after the write, not a bad code from another writer.
+     * @param packed code read from the file
+     * @return true if CurrencyRegistry.unpack() gives three letters A-Z
+     */
+    private static boolean isPackedCode(int packed) {
+        return packed >= 0 && packed < 1 << 15
+                && (packed >> 10 & 31) <= 25 && (packed >> 5 & 31) <= 25 && (packed & 31) <= 25;
+    }
+
+    /**
+     * Builds an engine from the snapshot file, falling back to the bundled default rates
+     * when the file is missing or unusable
+     * @param file snapshot file
+     * @return a new engine
+     */
+    public static ConversionEngine loadEngine(Path file) {
+        try {
+            return read(file, DefaultRates.createRegistry());
+        } catch (NoSuchFileException e) {
+            // First run: nothing saved yet
+        } catch (IOException e) {
+            System.err.println("Ignoring rate snapshot: " + e.getMessage());
+        }
+        return DefaultRates.createEngine();
+    }
+
+    /**
+     * Applies a saved provider response to the stored rates and writes the snapshot.
+     * The journal next to the snapshot is replayed first and checkpointed after, so
+     * run this while the applications are closed.
+     * @param args provider response JSON file, then optionally the snapshot file
+     * @throws IOException if the response is unusable or the snapshot cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java com.example.RateSnapshotFile <provider response.json> [snapshot file]");
+            System.exit(2);
+        }
+        Path file = args.length > 1 ? Paths.get(args[1]) : defaultLocation();
+        ConversionEngine engine = RateJournal.recover(file, file.resolveSibling("rates.journal"));
+        RatePayload payload;
+        try (InputStream body = Files.newInputStream(Paths.get(args[0]))) {
+            payload = RatePayload.read(body, engine.registry());
+        }
+        RateDelta delta = payload.applyTo(engine);
+        RateJournal journal = engine.journal();
+        if (journal == null) {
+            write(file, engine.registry(), engine.snapshot());
+        } else {
+            try {
+                engine.checkpoint(file);
+            } finally {
+                journal.close();
+            }
+        }
+        System.out.println("Wrote " + file + ": " + delta.size() + " rates changed, version "
+                + engine.snapshot().version());
+    }
+}
@@ -0,0 +1,312 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SharedRateTable - A rate table in a memory-mapped file shared by every converter
+ * process on a host. One writer process publishes rates; any number of readers map the
+ * same file and see a refresh as soon as it is written, with no serialization or IPC.
+ *
+ * The file has one 32-byte record per possible packed ISO code, so processes with
+ * different registries agree on where a currency lives without coordination. Each record
+ * carries a sequence word: the writer makes it odd before changing the record and even
+ * again afterwards, and a reader retries if the word was odd or changed while it read, so
+ * a rate is never torn. The header holds a table sequence that works the same way over a
+ * whole publish, letting readers copy a consistent table and cheaply detect changes, and
+ * the snapshot version and publish time of the last publish, which syncTo() keeps.
+ *
+ * The converter applications open the table with open(): the first one on a host
+ * becomes the writer and publishes what it fetches, and the others sync from it.
+ */
+public final class SharedRateTable implements AutoCloseable {
+    // "SRT1"
+    private static final int MAGIC = 0x53525431;
+    private static final int FORMAT_VERSION = 1;
+    // magic, format, table sequence, snapshot version, publish time; padded to a cache line
+    private static final int HEADER_BYTES = 64;
+    private static final int TABLE_SEQUENCE = 8;
+    private static final int TABLE_VERSION = 16;
+    private static final int TABLE_TIME = 24;
+    // sequence, rate, publish time, reserved
+    private static final int RECORD_BYTES = 32;
+    private static final int RECORD_RATE = 8;
+    private static final int RECORD_TIME = 16;
+    private static final int RECORDS = 1 << 15;
+    private static final int FILE_BYTES = HEADER_BYTES + RECORDS * RECORD_BYTES;
+
+    // Aligned long access with acquire/release semantics on the mapped file
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // Held by the writer for as long as the table is open
+    private final FileLock writerLock;
+    // Table sequence last copied by syncTo(), or -1
+    private long syncedSequence = -1;
+
+    private SharedRateTable(FileChannel channel, MappedByteBuffer buffer, FileLock writerLock) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.writerLock = writerLock;
+    }
+
+    /**
+     * Gets where the applications keep the shared table
+     * @return path next to the rate snapshot
+     */
+    public static Path defaultLocation() {
+        return RateSnapshotFile.defaultLocation().resolveSibling("rates.shared");
+    }
+
+    /**
+     * Opens the table for writing if no other process is, and for reading otherwise
+     * @param file table file
+     * @return the table; check isWriter() to see which way it was opened
+     * @throws IOException if the file can be opened neither way
+     */
+    public static SharedRateTable open(Path file) throws IOException {
+        try {
+            return openWriter(file);
+        } catch (IOException e) {
+            try {
+                return openReader(file);
+            } catch (IOException readError) {
+                readError.addSuppressed(e);
+                throw readError;
+            }
+        }
+    }
+
+    /**
+     * Opens the table for writing, creating the file if needed. Only one process may hold
+     * the table for writing at a time.
+     * @param file table file
+     * @return the writable table
+     * @throws IOException if the file cannot be mapped or another process is writing
+     */
+    public static SharedRateTable openWriter(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // This JVM already has the table open for writing
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Another process is writing " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+            if (buffer.getInt(0) != MAGIC) {
+                buffer.putInt(Integer.BYTES, FORMAT_VERSION);
+                buffer.putInt(0, MAGIC);
+            } else if (buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                throw new IOException("Unsupported shared rate table format: " + file);
+            }
+            SharedRateTable table = new SharedRateTable(channel, buffer, lock);
+            long sequence = (long) LONGS.getAcquire(buffer, TABLE_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                // A previous writer died mid-publish; its records are each still whole
+                LONGS.setRelease(buffer, TABLE_SEQUENCE, sequence + 1);
+            }
+            for (int record = 0; record < RECORDS; record++) {
+                int offset = HEADER_BYTES + record * RECORD_BYTES;
+                long recordSequence = (long) LONGS.getAcquire(buffer, offset);
+                if ((recordSequence & 1) != 0) {
+                    LONGS.setRelease(buffer, offset, recordSequence + 1);
+                }
+            }
+            return table;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the table for reading
+     * @param file table file created by a writer
+     * @return the read-only table
+     * @throws IOException if the file cannot be mapped or is not a shared rate table
+     */
+    public static SharedRateTable openReader(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < FILE_BYTES) {
+                throw new IOException("Not a shared rate table: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                throw new IOException("Not a shared rate table: " + file);
+            }
+            return new SharedRateTable(channel, buffer, null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes one record. Readers of this currency retry while it is being written.
+     * @param packedCode packed ISO code from CurrencyRegistry.pack()
+     * @param scaledRate foreign units per USD at RATE_SCALE
+     * @param timestampMillis time the rate was published, in epoch milliseconds
+     */
+    private void writeRecord(int packedCode, long scaledRate, long timestampMillis) {
+        int offset = HEADER_BYTES + packedCode * RECORD_BYTES;
+        long sequence = (long) LONGS.getOpaque(buffer, offset);
+        LONGS.setOpaque(buffer, offset, sequence + 1);
+        // The odd sequence must be visible before any of the new fields
+        VarHandle.releaseFence();
+        LONGS.setOpaque(buffer, offset + RECORD_RATE, scaledRate);
+        LONGS.setOpaque(buffer, offset + RECORD_TIME, timestampMillis);
+        LONGS.setRelease(buffer, offset, sequence + 2);
+    }
+
+    /**
+     * Writes every rate in a snapshot as one publish: readers copying the whole table
+     * with syncTo() retry until the publish is complete
+     * @param registry registry that assigned the snapshot's currency ids
+     * @param snapshot rates to publish
+     */
+    public synchronized void publish(CurrencyRegistry registry, RateSnapshot snapshot) {
+        checkWriter();
+        long sequence = (long) LONGS.getOpaque(buffer, TABLE_SEQUENCE);
+        LONGS.setOpaque(buffer, TABLE_SEQUENCE, sequence + 1);
+        VarHandle.releaseFence();
+        for (int id = 0; id < snapshot.size(); id++) {
+            writeRecord(registry.packed(id), snapshot.rateAt(id), snapshot.timestampMillis());
+        }
+        LONGS.setOpaque(buffer, TABLE_VERSION, snapshot.version());
+        LONGS.setOpaque(buffer, TABLE_TIME, snapshot.timestampMillis());
+        LONGS.setRelease(buffer, TABLE_SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Writes only the rates a delta changed, as one publish. Readers that copied the
+     * table before still hold every other rate, so syncTo() stays correct.
+     * @param registry registry that assigned the delta's currency ids
+     * @param delta changes to publish
+     */
+    public synchronized void publish(CurrencyRegistry registry, RateDelta delta) {
+        checkWriter();
+        if (delta.isEmpty()) {
+            return;
+        }
+        long sequence = (long) LONGS.getOpaque(buffer, TABLE_SEQUENCE);
+        LONGS.setOpaque(buffer, TABLE_SEQUENCE, sequence + 1);
+        VarHandle.releaseFence();
+        for (int i = 0; i < delta.size(); i++) {
+            writeRecord(registry.packed(delta.idAt(i)), delta.rateAt(i), delta.timestampMillis());
+        }
+        LONGS.setOpaque(buffer, TABLE_VERSION, delta.version());
+        LONGS.setOpaque(buffer, TABLE_TIME, delta.timestampMillis());
+        LONGS.setRelease(buffer, TABLE_SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Checks whether this process publishes to the table
+     * @return true if opened for writing
+     */
+    public boolean isWriter() {
+        return writerLock != null;
+    }
+
+    private void checkWriter() {
+        if (writerLock == null) {
+            throw new IllegalStateException("Shared rate table was opened for reading");
+        }
+    }
+
+    /**
+     * Reads one rate without tearing
+     * @param packedCode packed ISO code from CurrencyRegistry.pack()
+     * @return foreign units per USD at RATE_SCALE, or 0 if never published
+     */
+    public long rate(int packedCode) {
+        int offset = HEADER_BYTES + packedCode * RECORD_BYTES;
+        while (true) {
+            long before = (long) LONGS.getAcquire(buffer, offset);
+            long rate = (long) LONGS.getOpaque(buffer, offset + RECORD_RATE);
+            // The field read must complete before the sequence is checked again
+            VarHandle.acquireFence();
+            if ((before & 1) == 0 && before == (long) LONGS.getOpaque(buffer, offset)) {
+                return rate;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Gets the table sequence, which changes whenever a publish starts or ends.
+     * An even value means no publish is in progress.
+     * @return table sequence
+     */
+    public long sequence() {
+        return (long) LONGS.getAcquire(buffer, TABLE_SEQUENCE);
+    }
+
+    /**
+     * Copies the table into an engine if a publish has completed since the last call,
+     * under the version and publish time the writer published. Currencies the table has
+     * never seen keep their current rate, and a table no newer than the engine is skipped.
+     * @param engine engine whose registry names the currencies to read
+     * @return true if new rates were applied
+     * @throws UncheckedIOException if the engine has a journal and cannot write it
+     */
+    public boolean syncTo(ConversionEngine engine) {
+        CurrencyRegistry registry = engine.registry();
+        int size = registry.size();
+        int[] ids = new int[size];
+        long[] rates = new long[size];
+        while (true) {
+            long before = sequence();
+            if (before == syncedSequence) {
+                return false;
+            }
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int count = 0;
+            for (int id = 0; id < size; id++) {
+                long rate = rate(registry.packed(id));
+                if (rate > 0) {
+                    ids[count] = id;
+                    rates[count++] = rate;
+                }
+            }
+            long version = (long) LONGS.getOpaque(buffer, TABLE_VERSION);
+            long timestampMillis = (long) LONGS.getOpaque(buffer, TABLE_TIME);
+            VarHandle.acquireFence();
+            if (sequence() == before) {
+                syncedSequence = before;
+                return engine.syncRates(ids, rates, count, version, timestampMillis);
+            }
+        }
+    }
+
+    /**
+     * Closes the file and, for the writer, releases the writer lock. The mapping itself
+     * is released when it is garbage collected.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,300 @@
+package com.example;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * TickRateTable - A mutable rate table for feeds that move one currency at a time.
+ * ConversionEngine publishes whole snapshots, which suits periodic refreshes; at tick
+ * rates building a snapshot per update would cost more than the conversions it serves.
+ * Here each currency has its own slot, updated in place.
+ *
+ * Every slot carries a sequence counter: a writer makes it odd, writes the rate and its
+ * time, then makes it even again with release semantics. Readers never lock. They read
+ * the sequence with acquire semantics, read the fields, and retry if the sequence was
+ * odd or has moved. Reads of several slots (a cross rate, a copy of the table) check
+ * every sequence after reading every field, so the values they return were all current
+ * at one instant. Slots are a cache line apart so ticks on one currency do not slow
+ * readers of another.
+ *
+ * A RateFetcher given a table with setTickTable() writes every refresh into it, so
+ * per-currency readers can poll it instead of the engine's snapshots.
+ */
+public final class TickRateTable {
+    // Longs per slot: sequence, rate, time, then padding to 64 bytes
+    private static final int SLOT_LONGS = 8;
+    private static final int SEQUENCE = 0;
+    private static final int RATE = 1;
+    private static final int TIME = 2;
+    // Leading padding so slot 0 does not share a line with the array header
+    private static final int FIRST_SLOT = SLOT_LONGS;
+    private static final long USD_RATE = FixedPoint.pow10(ConversionEngine.RATE_SCALE);
+    private static final long CROSS_ONE = FixedPoint.pow10(ConversionEngine.CROSS_SCALE);
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final CurrencyRegistry registry;
+    private final int size;
+    // Final, so the initial rates written by the constructor are safely published
+    private final long[] slots;
+
+    /**
+     * Builds a table from one rate per currency
+     * @param registry registry with USD as id 0
+     * @param scaledRates foreign units per USD at RATE_SCALE, indexed by currency id
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     */
+    public TickRateTable(CurrencyRegistry registry, long[] scaledRates, long timestampMillis) {
+        if (scaledRates.length != registry.size()) {
+            throw new IllegalArgumentException("Expected " + registry.size() + " rates, got " + scaledRates.length);
+        }
+        this.registry = registry;
+        size = scaledRates.length;
+        slots = new long[FIRST_SLOT + (size + 1) * SLOT_LONGS];
+        for (int id = 0; id < size; id++) {
+            slots[offset(id) + RATE] = id == ConversionEngine.USD_ID ? USD_RATE : scaledRates[id];
+            slots[offset(id) + TIME] = timestampMillis;
+        }
+    }
+
+    /**
+     * Builds a table holding an engine's current rates
+     * @param engine engine to copy
+     * @return a new table
+     */
+    public static TickRateTable of(ConversionEngine engine) {
+        RateSnapshot snapshot = engine.snapshot();
+        return new TickRateTable(engine.registry(), snapshot.copyRates(), snapshot.timestampMillis());
+    }
+
+    private static int offset(int id) {
+        return FIRST_SLOT + id * SLOT_LONGS;
+    }
+
+    /**
+     * Writes one tick. Writers to the same currency take turns; writers to different
+     * currencies never wait for each other.
+     * @param id currency id
+     * @param scaledRate foreign units per USD at RATE_SCALE
+     * @param timestampMillis time the rate was published, in epoch milliseconds
+     */
+    public void update(int id, long scaledRate, long timestampMillis) {
+        if (id == ConversionEngine.USD_ID) {
+            return;
+        }
+        if (scaledRate <= 0) {
+            throw new IllegalArgumentException("Rate for " + registry.code(id) + " must be positive");
+        }
+        int offset = offset(id);
+        long sequence;
+        while (true) {
+            sequence = (long) SLOTS.getOpaque(slots, offset + SEQUENCE);
+            // Claim the slot by making its sequence odd
+            if ((sequence & 1) == 0
+                    && SLOTS.compareAndSet(slots, offset + SEQUENCE, sequence, sequence + 1)) {
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        // The CAS is a full fence, so the odd sequence is visible before the new fields
+        SLOTS.setOpaque(slots, offset + RATE, scaledRate);
+        SLOTS.setOpaque(slots, offset + TIME, timestampMillis);
+        SLOTS.setRelease(slots, offset + SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Writes a batch of ticks, one slot at a time
+     * @param ids currency ids to update
+     * @param scaledRates new foreign units per USD at RATE_SCALE
+     * @param count number of entries to apply
+     * @param timestampMillis time the rates were published, in epoch milliseconds
+     */
+    public void updateAll(int[] ids, long[] scaledRates, int count, long timestampMillis) {
+        for (int i = 0; i < count; i++) {
+            update(ids[i], scaledRates[i], timestampMillis);
+        }
+    }
+
+    /**
+     * Writes every rate a delta changed, stamped with the delta's publish time
+     * @param delta changes published to an engine sharing this table's registry
+     */
+    public void apply(RateDelta delta) {
+        for (int i = 0; i < delta.size(); i++) {
+            update(delta.idAt(i), delta.rateAt(i), delta.timestampMillis());
+        }
+    }
+
+    /**
+     * Waits out a write in progress and gets a slot's sequence
+     * @param offset slot offset
+     * @return even sequence
+     */
+    private long stableSequence(int offset) {
+        long sequence = (long) SLOTS.getAcquire(slots, offset + SEQUENCE);
+        while ((sequence & 1) != 0) {
+            Thread.onSpinWait();
+            sequence = (long) SLOTS.getAcquire(slots, offset + SEQUENCE);
+        }
+        return sequence;
+    }
+
+    /**
+     * Checks that a slot was not written since its sequence was read. The caller must
+     * issue an acquire fence after reading the fields.
+     * @param offset slot offset
+     * @param sequence sequence from stableSequence()
+     * @return true if the fields read in between are consistent
+     */
+    private boolean unchanged(int offset, long sequence) {
+        return (long) SLOTS.getOpaque(slots, offset + SEQUENCE) == sequence;
+    }
+
+    /**
+     * Reads one rate without tearing
+     * @param id currency id
+     * @return foreign units per USD at RATE_SCALE
+     */
+    public long rate(int id) {
+        int offset = offset(id);
+        while (true) {
+            long sequence = stableSequence(offset);
+            long rate = (long) SLOTS.getOpaque(slots, offset + RATE);
+            VarHandle.acquireFence();
+            if (unchanged(offset, sequence)) {
+                return rate;
+            }
+        }
+    }
+
+    /**
+     * Reads the time of a currency's last tick
+     * @param id currency id
+     * @return epoch milliseconds
+     */
+    public long timestampMillis(int id) {
+        int offset = offset(id);
+        while (true) {
+            long sequence = stableSequence(offset);
+            long time = (long) SLOTS.getOpaque(slots, offset + TIME);
+            VarHandle.acquireFence();
+            if (unchanged(offset, sequence)) {
+                return time;
+            }
+        }
+    }
+
+    /**
+     * Reads a currency's rate together with the time of the tick that set it
+     * @param id currency id
+     * @param tick receives the rate (foreign units per USD at RATE_SCALE) at index 0
+     *        and its time in epoch milliseconds at index 1
+     */
+    public void readTick(int id, long[] tick) {
+        int offset = offset(id);
+        while (true) {
+            long sequence = stableSequence(offset);
+            long rate = (long) SLOTS.getOpaque(slots, offset + RATE);
+            long time = (long) SLOTS.getOpaque(slots, offset + TIME);
+            VarHandle.acquireFence();
+            if (unchanged(offset, sequence)) {
+                tick[0] = rate;
+                tick[1] = time;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Derives a cross rate from two slots read at the same instant
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @return target minor units per source minor unit at CROSS_SCALE
+     */
+    public long crossRate(int fromId, int toId) {
+        if (fromId == toId) {
+            return CROSS_ONE;
+        }
+        int fromOffset = offset(fromId);
+        int toOffset = offset(toId);
+        long fromRate;
+        long toRate;
+        while (true) {
+            long fromSequence = stableSequence(fromOffset);
+            long toSequence = stableSequence(toOffset);
+            fromRate = (long) SLOTS.getOpaque(slots, fromOffset + RATE);
+            toRate = (long) SLOTS.getOpaque(slots, toOffset + RATE);
+            VarHandle.acquireFence();
+            // Neither slot moved while both were read, so both rates held at once
+            if (unchanged(fromOffset, fromSequence) && unchanged(toOffset, toSequence)) {
+                break;
+            }
+        }
+        return RateSnapshot.crossRate(fromRate, registry.minorDigits(fromId), toRate, registry.minorDigits(toId));
+    }
+
+    /**
+     * Converts between any two currencies at the current ticks, net of the fee.
+     * Matches ConversionEngine.convert() on a snapshot holding the same rates.
+     * @param amount source amount in the source currency's minor units
+     * @param fromId source currency id
+     * @param toId target currency id
+     * @param feePpm fee in parts per million (0 for no fee)
+     * @return amount in the target currency's minor units
+     */
+    public long convert(long amount, int fromId, int toId, long feePpm) {
+        long rate = crossRate(fromId, toId);
+        if (feePpm != 0) {
+            rate = RateSnapshot.netRate(rate, feePpm);
+        }
+        return FixedPoint.mulDiv(amount, rate, CROSS_ONE, registry.roundingMode(toId));
+    }
+
+    /**
+     * Copies every rate as of one instant, retrying while any slot is written during the copy
+     * @param scaledRates receives foreign units per USD at RATE_SCALE, indexed by currency id
+     */
+    public void copyRates(long[] scaledRates) {
+        long[] sequences = new long[size];
+        while (true) {
+            for (int id = 0; id < size; id++) {
+                sequences[id] = stableSequence(offset(id));
+            }
+            for (int id = 0; id < size; id++) {
+                scaledRates[id] = (long) SLOTS.getOpaque(slots, offset(id) + RATE);
+            }
+            VarHandle.acquireFence();
+            boolean consistent = true;
+            for (int id = 0; id < size && consistent; id++) {
+                consistent = unchanged(offset(id), sequences[id]);
+            }
+            if (consistent) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes the current ticks to an engine as one snapshot, for readers that need
+     * the snapshot API or the batch paths
+     * @param engine engine sharing this table's registry
+     * @return the changes published
+     */
+    public RateDelta publishTo(ConversionEngine engine) {
+        long[] rates = new long[size];
+        copyRates(rates);
+        int[] ids = new int[size];
+        for (int id = 0; id < size; id++) {
+            ids[id] = id;
+        }
+        return engine.updateRates(ids, rates, size);
+    }
+
+    /**
+     * Gets the registry that assigns currency ids
+     * @return currency registry
+     */
+    public CurrencyRegistry registry() {
+        return registry;
+    }
+}
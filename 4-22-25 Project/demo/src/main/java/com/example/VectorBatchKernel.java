@@ -0,0 +1,135 @@
+package com.example;
+
+import java.math.RoundingMode;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorBatchKernel - jdk.incubator.vector version of the single-pair batch kernel.
+ * Each lane computes amount * rate / 10^CROSS_SCALE without 128-bit arithmetic:
+ * a double estimate of the quotient is corrected with exact long arithmetic.
+ * The estimate is off by at most a few units, so the true remainder
+ * amount * rate - quotient * 10^12 fits in a long; lane-wise long multiply wraps
+ * modulo 2^64, so computing it with wrapping products still gives it exactly.
+ * A second estimate and one-step adjustments bring the remainder into [0, 10^12),
+ * after which rounding is decided exactly as FixedPoint.roundsAway does. Results
+ * are bit-identical to ConversionEngine.applyCrossRate.
+ *
+ * Only ConversionEngine calls this class, and only when the incubator module is
+ * resolved (run with --add-modules jdk.incubator.vector); otherwise it is never loaded.
+ * Chunks holding a negative amount or a quotient of 2^50 or more (over 10^13 USD in
+ * cents) go through the scalar kernel instead.
+ */
+final class VectorBatchKernel {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = VectorSpecies.of(double.class, LONGS.vectorShape());
+    private static final long CROSS_ONE = FixedPoint.pow10(ConversionEngine.CROSS_SCALE);
+    private static final double CROSS_ONE_D = CROSS_ONE;
+    // Estimates at or above 2^50 are left to the scalar kernel, which also handles overflow
+    private static final double SAFE_QUOTIENT = 0x1p50;
+    // Adding 1.5 * 2^52 leaves round(x) in the low mantissa bits for |x| < 2^51
+    private static final double ROUNDING_BIAS = 0x1.8p52;
+    private static final long ROUNDING_BIAS_BITS = Double.doubleToRawLongBits(ROUNDING_BIAS);
+
+    private VectorBatchKernel() {
+    }
+
+    /**
+     * Checks whether a rounding mode is handled lane-wise
+     * @param mode rounding mode of the target currency
+     * @return true for every mode except UNNECESSARY
+     */
+    static boolean supports(RoundingMode mode) {
+        return mode != RoundingMode.UNNECESSARY;
+    }
+
+    /**
+     * Converts the whole vectors of a range; the scalar tail is left to the caller
+     * @param amounts source amounts in minor units
+     * @param rate fee-inclusive cross rate of the pair, greater than 0
+     * @param mode rounding mode of the target currency, see supports()
+     * @param results receives target amounts in minor units
+     * @param start first index to convert (inclusive)
+     * @param end last index to convert (exclusive)
+     * @return first index not converted
+     */
+    static int convertRange(long[] amounts, long rate, RoundingMode mode, long[] results, int start, int end) {
+        int lanes = LONGS.length();
+        double rateD = rate;
+        int i = start;
+        for (; i <= end - lanes; i += lanes) {
+            LongVector amount = LongVector.fromArray(LONGS, amounts, i);
+            DoubleVector estimate = ((DoubleVector) amount.convertShape(VectorOperators.L2D, DOUBLES, 0))
+                    .mul(rateD).div(CROSS_ONE_D);
+            if (amount.compare(VectorOperators.LT, 0L).anyTrue()
+                    || estimate.compare(VectorOperators.GE, SAFE_QUOTIENT).anyTrue()) {
+                for (int j = i; j < i + lanes; j++) {
+                    results[j] = ConversionEngine.applyCrossRate(amounts[j], rate, mode);
+                }
+                continue;
+            }
+            LongVector quotient = toLong(estimate);
+            LongVector remainder = amount.mul(rate).sub(quotient.mul(CROSS_ONE));
+
+            // Remove most of the estimate's error, then settle the last unit exactly
+            LongVector correction = toLong(((DoubleVector) remainder
+                    .convertShape(VectorOperators.L2D, DOUBLES, 0)).div(CROSS_ONE_D));
+            quotient = quotient.add(correction);
+            remainder = remainder.sub(correction.mul(CROSS_ONE));
+            VectorMask<Long> under = remainder.compare(VectorOperators.LT, 0L);
+            quotient = quotient.sub(1L, under);
+            remainder = remainder.add(CROSS_ONE, under);
+            VectorMask<Long> over = remainder.compare(VectorOperators.GE, CROSS_ONE);
+            quotient = quotient.add(1L, over);
+            remainder = remainder.sub(CROSS_ONE, over);
+
+            quotient = quotient.add(1L, roundsAway(quotient, remainder, mode));
+            quotient.intoArray(results, i);
+        }
+        return i;
+    }
+
+    /**
+     * Rounds doubles to the nearest long. Java 17 does not intrinsify the D2L vector
+     * conversion, so the value is biased into the mantissa and its bits reinterpreted.
+     * @param value lanes with magnitude below 2^51
+     * @return nearest longs
+     */
+    private static LongVector toLong(DoubleVector value) {
+        return ((LongVector) value.add(ROUNDING_BIAS).viewAsIntegralLanes()).sub(ROUNDING_BIAS_BITS);
+    }
+
+    /**
+     * Lane-wise FixedPoint.roundsAway for non-negative quotients with divisor 10^CROSS_SCALE
+     * @param quotient truncated quotients
+     * @param remainder remainders in [0, 10^CROSS_SCALE)
+     * @param mode rounding mode, see supports()
+     * @return lanes whose quotient is incremented
+     */
+    private static VectorMask<Long> roundsAway(LongVector quotient, LongVector remainder, RoundingMode mode) {
+        VectorMask<Long> inexact = remainder.compare(VectorOperators.NE, 0L);
+        // Compare the remainder with half the divisor: 2 * remainder - divisor
+        LongVector half = remainder.add(remainder).sub(CROSS_ONE);
+        switch (mode) {
+            case UP:
+            case CEILING:
+                return inexact;
+            case DOWN:
+            case FLOOR:
+                return LONGS.maskAll(false);
+            case HALF_UP:
+                return half.compare(VectorOperators.GE, 0L);
+            case HALF_DOWN:
+                return half.compare(VectorOperators.GT, 0L);
+            case HALF_EVEN:
+                return half.compare(VectorOperators.GT, 0L).or(half.compare(VectorOperators.EQ, 0L)
+                        .and(quotient.and(1L).compare(VectorOperators.NE, 0L)));
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+    }
+}
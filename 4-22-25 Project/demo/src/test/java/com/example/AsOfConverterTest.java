@@ -0,0 +1,114 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * AsOfConverterTest - Point-in-time lookups and conversions over a rate history.
+ */
+class AsOfConverterTest {
+    static final long DAY = 86_400_000L;
+    static final long START = DefaultRates.TIMESTAMP_MILLIS;
+    // KES and JPY per USD on days 0, 1 and 2
+    static final long[] KES = {129_710_000, 129_500_000, 130_010_000};
+    static final long[] JPY = {151_234_567, 150_500_000, 152_000_000};
+
+    @TempDir
+    Path dir;
+
+    CurrencyRegistry registry;
+    RateHistoryStore history;
+    int kes;
+    int jpy;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        registry = new CurrencyRegistry();
+        registry.register("USD");
+        kes = registry.register("KES");
+        jpy = registry.register("JPY");
+        history = RateHistoryStore.open(dir, registry);
+        long[] days = {START, START + DAY, START + 2 * DAY};
+        history.appendAll(kes, days, KES, 3);
+        history.appendAll(jpy, days, JPY, 3);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        history.close();
+    }
+
+    /**
+     * Builds an engine holding the rates of one day, to compare against
+     */
+    private ConversionEngine engineOnDay(int day) {
+        CurrencyRegistry copy = new CurrencyRegistry();
+        copy.register("USD");
+        copy.register("KES");
+        copy.register("JPY");
+        return new ConversionEngine(copy, new long[] {1_000_000, KES[day], JPY[day]});
+    }
+
+    @Test
+    void lookupsAtTheBoundariesOfTheHistory() {
+        AsOfConverter converter = new AsOfConverter(history);
+        assertThrows(IllegalArgumentException.class, () -> converter.rateAsOf(kes, START - 1));
+        assertEquals(KES[0], converter.rateAsOf(kes, START));
+        assertEquals(KES[0], converter.rateAsOf(kes, START + DAY - 1));
+        assertEquals(KES[1], converter.rateAsOf(kes, START + DAY));
+        assertEquals(KES[2], converter.rateAsOf(kes, START + 2 * DAY));
+        assertEquals(KES[2], converter.rateAsOf(kes, Long.MAX_VALUE));
+        // Going back in time after the cursor moved forward still searches correctly
+        assertEquals(KES[0], converter.rateAsOf(kes, START + 1));
+        assertEquals(1_000_000, converter.rateAsOf(ConversionEngine.USD_ID, 0));
+    }
+
+    @Test
+    void conversionsMatchTheEngineOnTheSameRates() {
+        AsOfConverter converter = new AsOfConverter(history);
+        Random random = new Random(13);
+        for (int i = 0; i < 5_000; i++) {
+            int day = random.nextInt(3);
+            long at = START + day * DAY + random.nextInt((int) DAY);
+            int from = random.nextInt(3);
+            int to = random.nextInt(3);
+            long amount = random.nextInt(1_000_000_000);
+            long feePpm = random.nextBoolean() ? 0 : 25_000;
+            assertEquals(engineOnDay(day).convert(amount, from, to, feePpm),
+                    converter.convertAsOf(amount, from, to, feePpm, at), "day " + day + " " + from + " -> " + to);
+        }
+    }
+
+    @Test
+    void batchMatchesSingleConversions() {
+        int count = 1000;
+        long[] amounts = new long[count];
+        int[] fromIds = new int[count];
+        int[] toIds = new int[count];
+        long[] times = new long[count];
+        long[] expected = new long[count];
+        AsOfConverter single = new AsOfConverter(history);
+        Random random = new Random(15);
+        for (int i = 0; i < count; i++) {
+            amounts[i] = random.nextInt(100_000_000);
+            fromIds[i] = kes;
+            toIds[i] = jpy;
+            times[i] = START + i * (3 * DAY / count);
+            expected[i] = single.convertAsOf(amounts[i], kes, jpy, 10_000, times[i]);
+        }
+        long[] results = new long[count];
+        new AsOfConverter(history).convertAsOfBatch(amounts, fromIds, toIds, times, 10_000, results, 0, count);
+        assertArrayEquals(expected, results);
+        assertEquals(engineOnDay(2).convert(amounts[count - 1], kes, jpy, 10_000), results[count - 1]);
+    }
+}
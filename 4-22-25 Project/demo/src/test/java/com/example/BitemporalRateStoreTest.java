@@ -0,0 +1,177 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * BitemporalRateStoreTest - As-of lookups on both time axes, corrections and export.
+ */
+class BitemporalRateStoreTest {
+    static final long DAY = 86_400_000L;
+    static final long D0 = DefaultRates.TIMESTAMP_MILLIS;
+    static final long D1 = D0 + DAY;
+    static final long D2 = D0 + 2 * DAY;
+    // Recorded times: day 0's rate is learned on day 0, day 1's on day 1, and day 0's
+    // rate is corrected on day 2
+    static final long R0 = D0 + 1000;
+    static final long R1 = D1 + 1000;
+    static final long R2 = D2 + 1000;
+
+    @TempDir
+    Path dir;
+
+    CurrencyRegistry registry;
+    int kes;
+
+    @BeforeEach
+    void setUp() {
+        registry = new CurrencyRegistry();
+        registry.register("USD");
+        kes = registry.register("KES");
+        registry.register("EUR");
+    }
+
+    private void recordCorrectedHistory(BitemporalRateStore store) throws IOException {
+        store.recordAll(kes, new long[] {D0, D1, D0}, new long[] {R0, R1, R2},
+                new long[] {129_000_000, 130_000_000, 128_500_000}, 3);
+    }
+
+    @Test
+    void lookupsSeeOnlyWhatWasRecordedByThen() throws IOException {
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            recordCorrectedHistory(store);
+            // Before anything was recorded, or before the first valid time
+            assertThrows(IllegalArgumentException.class, () -> store.rateAsOf(kes, D0, R0 - 1));
+            assertThrows(IllegalArgumentException.class, () -> store.rateAsOf(kes, D0 - 1, Long.MAX_VALUE));
+            assertEquals(-1, store.indexAsOf(kes, D0 - 1));
+
+            assertEquals(129_000_000, store.rateAsOf(kes, D0, R0));
+            // Day 1's rate was not known on day 0, so day 0's still applied
+            assertEquals(129_000_000, store.rateAsOf(kes, D1, R0));
+            assertEquals(130_000_000, store.rateAsOf(kes, D1, R1));
+            assertEquals(130_000_000, store.rateAsOf(kes, D2, R1));
+            // The correction changes day 0 only, and only from when it was recorded
+            assertEquals(129_000_000, store.rateAsOf(kes, D0 + 5, R2 - 1));
+            assertEquals(128_500_000, store.rateAsOf(kes, D0 + 5, R2));
+            assertEquals(130_000_000, store.rateAsOf(kes, D1, R2));
+            assertEquals(2, store.indexAsOf(kes, D0));
+            assertEquals(0, store.supersededIndex(kes, 2));
+            assertEquals(-1, store.supersededIndex(kes, 0));
+            assertEquals(2, store.countRecordedBy(kes, R1));
+            assertEquals(1_000_000, store.rateAsOf(ConversionEngine.USD_ID, 0, 0));
+        }
+    }
+
+    @Test
+    void backdatedValidTimeIsSkippedUntilItWasRecorded() throws IOException {
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            store.recordAll(kes, new long[] {D0, D2}, new long[] {R0, R1}, new long[] {1, 2}, 2);
+            // Day 1's rate only learned on day 2
+            store.recordAll(kes, new long[] {D1}, new long[] {R2}, new long[] {3}, 1);
+            assertEquals(1, store.rateAsOf(kes, D1, R1));
+            assertEquals(3, store.rateAsOf(kes, D1, R2));
+            assertEquals(2, store.rateAsOf(kes, D2, R2));
+        }
+    }
+
+    @Test
+    void randomHistoriesMatchABruteForceScan() throws IOException {
+        Random random = new Random(19);
+        int count = 2000;
+        long[] valids = new long[count];
+        long[] recordeds = new long[count];
+        long[] rates = new long[count];
+        long recorded = R0;
+        for (int i = 0; i < count; i++) {
+            // A quarter are corrections or backdated rates
+            valids[i] = random.nextInt(4) == 0 && i > 0 ? valids[random.nextInt(i)] : D0 + random.nextInt(500) * 60_000L;
+            recorded += random.nextInt(3);
+            recordeds[i] = recorded;
+            rates[i] = 1 + random.nextInt(1_000_000);
+        }
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            store.recordAll(kes, valids, recordeds, rates, count);
+            for (int query = 0; query < 5000; query++) {
+                long valid = D0 + random.nextInt(520) * 60_000L - 60_000L;
+                long asOf = R0 + random.nextInt((int) (recorded - R0 + 2)) - 1;
+                assertEquals(bruteForceIndex(valids, recordeds, count, valid, asOf), store.indexAsOf(kes, valid, asOf),
+                        "valid " + valid + " recorded " + asOf);
+            }
+        }
+    }
+
+    /**
+     * Among the records known at asOf with the latest valid time at or before valid,
+     * the one recorded last
+     */
+    private static int bruteForceIndex(long[] valids, long[] recordeds, int count, long valid, long asOf) {
+        int best = -1;
+        for (int i = 0; i < count && recordeds[i] <= asOf; i++) {
+            if (valids[i] <= valid && (best < 0 || valids[i] >= valids[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void reopenRebuildsTheIndexAndCutsATornRecord() throws IOException {
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            recordCorrectedHistory(store);
+        }
+        Files.write(dir.resolve("KES.bitemporal"), new byte[10], StandardOpenOption.APPEND);
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            assertEquals(3, store.count(kes));
+            assertEquals(129_000_000, store.rateAsOf(kes, D0, R1));
+            assertEquals(128_500_000, store.rateAsOf(kes, D0, R2));
+            assertEquals(3 * 3 * Long.BYTES, Files.size(dir.resolve("KES.bitemporal")));
+        }
+    }
+
+    @Test
+    void recordingRejectsOutOfOrderTimesAndBadRates() throws IOException {
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir, registry)) {
+            recordCorrectedHistory(store);
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.recordAll(kes, new long[] {D2}, new long[] {R2 - 1}, new long[] {1}, 1));
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.recordAll(kes, new long[] {D2}, new long[] {R2}, new long[] {0}, 1));
+            assertThrows(IllegalArgumentException.class, () -> store.record(kes, D2, -1));
+            assertEquals(3, store.count(kes));
+        }
+    }
+
+    @Test
+    void exportedTimelineRevaluesAsBelievedOnTheAuditDate() throws IOException {
+        try (BitemporalRateStore store = BitemporalRateStore.open(dir.resolve("bitemporal"), registry);
+                RateHistoryStore asBelieved = RateHistoryStore.open(dir.resolve("believed"), registry);
+                RateHistoryStore corrected = RateHistoryStore.open(dir.resolve("corrected"), registry)) {
+            recordCorrectedHistory(store);
+            assertEquals(2, store.exportTo(asBelieved, R1));
+            assertEquals(2, store.exportTo(corrected, Long.MAX_VALUE));
+            // Nothing new to export a second time
+            assertEquals(0, store.exportTo(corrected, Long.MAX_VALUE));
+
+            assertEquals(129_000_000, new AsOfConverter(asBelieved).rateAsOf(kes, D0 + 5));
+            assertEquals(128_500_000, new AsOfConverter(corrected).rateAsOf(kes, D0 + 5));
+            assertEquals(130_000_000, new AsOfConverter(corrected).rateAsOf(kes, D1));
+            long usd = new AsOfConverter(corrected).convertAsOf(1_000_000, kes, ConversionEngine.USD_ID, 0, D0 + 5);
+            CurrencyRegistry copy = new CurrencyRegistry();
+            copy.register("USD");
+            copy.register("KES");
+            copy.register("EUR");
+            ConversionEngine engine = new ConversionEngine(copy, new long[] {1_000_000, 128_500_000, 920_000});
+            assertEquals(engine.convert(1_000_000, kes, ConversionEngine.USD_ID, 0), usd);
+        }
+    }
+}
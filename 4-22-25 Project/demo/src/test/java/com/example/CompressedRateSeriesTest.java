@@ -0,0 +1,132 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * CompressedRateSeriesTest - Gorilla encode/decode round trips and range scans.
+ */
+class CompressedRateSeriesTest {
+    static final long START = DefaultRates.TIMESTAMP_MILLIS;
+
+    @TempDir
+    Path dir;
+
+    private CompressedRateSeries roundTrip(long[] times, long[] rates) throws IOException {
+        Path file = dir.resolve("series.grl");
+        CompressedRateSeries.write(file, times, rates, times.length);
+        CompressedRateSeries series = CompressedRateSeries.open(file);
+        assertEquals(times.length, series.count());
+        assertScan(series, times, rates, 0);
+        return series;
+    }
+
+    private static void assertScan(CompressedRateSeries series, long[] times, long[] rates, int from) {
+        CompressedRateSeries.Cursor cursor = series.cursor(from < times.length ? times[from] : Long.MAX_VALUE);
+        for (int i = from; i < times.length; i++) {
+            assertTrue(cursor.next(), "ended before entry " + i);
+            assertEquals(times[i], cursor.timestampMillis(), "time of entry " + i);
+            assertEquals(rates[i], cursor.rate(), "rate of entry " + i);
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void singlePointRoundTrips() throws IOException {
+        roundTrip(new long[] {START}, new long[] {129_710_000});
+    }
+
+    @Test
+    void equalValuesAtARegularIntervalCostAboutTwoBitsEach() throws IOException {
+        long[] times = new long[10_000];
+        long[] rates = new long[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = START + i * 60_000L;
+            rates[i] = 129_710_000;
+        }
+        CompressedRateSeries series = roundTrip(times, rates);
+        // One bit for the time and one for the rate, plus block headers
+        assertTrue(series.sizeBytes() < 4_000, "compressed to " + series.sizeBytes() + " bytes");
+    }
+
+    @Test
+    void largeDeltasRoundTrip() throws IOException {
+        long[] times = {START, START + 1, START + 1_000_000, START + 1_000_001, START + 5_000_000_000L};
+        long[] rates = {1, Long.MAX_VALUE, 2, Long.MAX_VALUE - 1, 0x5555_5555_5555_5555L};
+        roundTrip(times, rates);
+    }
+
+    @Test
+    void timestampGapsBeyondTwoToTheThirtyOneRoundTrip() throws IOException {
+        long gap = (1L << 31) + 17;
+        long[] times = {1, 2, 2 + gap, 3 + gap, 3 + 3 * gap, Long.MAX_VALUE / 2, Long.MAX_VALUE - 1};
+        long[] rates = {5, 5, 6, 6, 7, 7, 8};
+        roundTrip(times, rates);
+    }
+
+    @Test
+    void randomSeriesAcrossBlocksRoundTrips() throws IOException {
+        Random random = new Random(14);
+        long[] times = new long[3 * 4096 + 123];
+        long[] rates = new long[times.length];
+        long time = START;
+        long rate = 129_710_000;
+        for (int i = 0; i < times.length; i++) {
+            // Mostly regular ticks with jitter, sometimes a long gap
+            time += random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) + 1L : 1000 + random.nextInt(50);
+            rate = Math.max(1, rate + random.nextInt(2001) - 1000);
+            times[i] = time;
+            rates[i] = random.nextInt(5) == 0 ? rates[Math.max(0, i - 1)] : rate;
+        }
+        CompressedRateSeries series = roundTrip(times, rates);
+        for (int from : new int[] {1, 4095, 4096, 4097, 9000, times.length - 1}) {
+            assertScan(series, times, rates, from);
+        }
+        // An instant between entries starts at the next one
+        CompressedRateSeries.Cursor cursor = series.cursor(times[5000] + 1);
+        assertTrue(cursor.next());
+        assertEquals(times[5001], cursor.timestampMillis());
+    }
+
+    @Test
+    void historyStoreColumnsRoundTrip() throws IOException {
+        CurrencyRegistry registry = DefaultRates.createRegistry();
+        int kes = registry.idOf("KES");
+        long[] times = {START, START + 86_400_000L, START + 2 * 86_400_000L};
+        long[] rates = {129_710_000, 129_500_000, 130_010_000};
+        try (RateHistoryStore history = RateHistoryStore.open(dir.resolve("history"), registry)) {
+            history.appendAll(kes, times, rates, times.length);
+            CompressedRateSeries.write(dir.resolve("kes.grl"), history, kes);
+        }
+        assertScan(CompressedRateSeries.open(dir.resolve("kes.grl")), times, rates, 0);
+    }
+
+    @Test
+    void outOfOrderTimesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CompressedRateSeries.write(dir.resolve("bad.grl"),
+                new long[] {START, START}, new long[] {1, 2}, 2));
+    }
+
+    @Test
+    void corruptFilesAreRejected() throws IOException {
+        Path file = dir.resolve("series.grl");
+        CompressedRateSeries.write(file, new long[] {START, START + 1}, new long[] {1, 2}, 2);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> CompressedRateSeries.open(file));
+        bytes[0] = 'X';
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> CompressedRateSeries.open(file));
+    }
+}
@@ -0,0 +1,100 @@
+package com.example;
+
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConversionBatchBenchmark - Per-element cost of the batch conversion kernels.
+ * Converts one million KES amounts to USD with a 2.5% fee through the single-pair
+ * batch (VectorBatchKernel, as the fork runs with --add-modules jdk.incubator.vector),
+ * the scalar constant-divisor kernel, the per-pair batch, and a plain
+ * FixedPoint.mulDiv loop over the same cross rate (the path batches took before).
+ * Run after mvn test-compile with:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main ConversionBatchBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ConversionBatchBenchmark {
+    static final int COUNT = 1 << 20;
+    static final long FEE_PPM = 25_000;
+
+    ConversionEngine engine;
+    long[] amounts;
+    int[] fromIds;
+    int[] toIds;
+    long[] results;
+    int fromId;
+    long rate;
+
+    /**
+     * Builds the engine and random amounts between 0 and 1,000,000.00 KES
+     */
+    @Setup
+    public void setUp() {
+        engine = DefaultRates.createEngine();
+        fromId = engine.registry().idOf("KES");
+        rate = engine.snapshot().netCrossRates(FEE_PPM)[fromId * engine.size() + ConversionEngine.USD_ID];
+        Random random = new Random(42);
+        amounts = new long[COUNT];
+        fromIds = new int[COUNT];
+        toIds = new int[COUNT];
+        results = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            amounts[i] = random.nextInt(100_000_000);
+            fromIds[i] = fromId;
+            toIds[i] = ConversionEngine.USD_ID;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] singlePair() {
+        engine.convertBatch(amounts, fromId, ConversionEngine.USD_ID, FEE_PPM, results, 0, COUNT);
+        return results;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] scalarKernel() {
+        for (int i = 0; i < COUNT; i++) {
+            results[i] = ConversionEngine.applyCrossRate(amounts[i], rate, RoundingMode.HALF_EVEN);
+        }
+        return results;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] perPair() {
+        engine.convertBatch(amounts, fromIds, toIds, FEE_PPM, results, 0, COUNT);
+        return results;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] mulDiv() {
+        for (int i = 0; i < COUNT; i++) {
+            results[i] = FixedPoint.mulDiv(amounts[i], rate, FixedPoint.pow10(ConversionEngine.CROSS_SCALE),
+                    RoundingMode.HALF_EVEN);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * ConversionEngineTest - Engine conversions against the same arithmetic done in BigDecimal.
+ * Foreign -> USD is checked against the amount.divide(rate, 10, HALF_UP) the UI used to do,
+ * which the reciprocal path must reproduce exactly.
+ */
+class ConversionEngineTest {
+    static final long[] FEES = {0, 1, 25_000, 33_333, 999_999};
+
+    final ConversionEngine engine = DefaultRates.createEngine();
+    final CurrencyRegistry registry = engine.registry();
+
+    private BigDecimal rate(int id) {
+        return BigDecimal.valueOf(engine.rateAt(id), ConversionEngine.RATE_SCALE);
+    }
+
+    private static BigDecimal fee(long feePpm) {
+        return BigDecimal.valueOf(feePpm, ConversionEngine.FEE_SCALE);
+    }
+
+    /**
+     * Cross rate in target minor units per source minor unit, rounded half-even at CROSS_SCALE
+     */
+    private BigDecimal expectedCrossRate(int fromId, int toId) {
+        if (fromId == toId) {
+            return BigDecimal.ONE.setScale(ConversionEngine.CROSS_SCALE);
+        }
+        return rate(toId).movePointRight(registry.minorDigits(toId) - registry.minorDigits(fromId))
+                .divide(rate(fromId), ConversionEngine.CROSS_SCALE, RoundingMode.HALF_EVEN);
+    }
+
+    @Test
+    void crossRatesMatchBigDecimal() {
+        for (int from = 0; from < engine.size(); from++) {
+            for (int to = 0; to < engine.size(); to++) {
+                assertEquals(expectedCrossRate(from, to).unscaledValue().longValueExact(),
+                        engine.crossRate(from, to), registry.code(from) + " -> " + registry.code(to));
+            }
+        }
+    }
+
+    @Test
+    void crossConversionsMatchBigDecimal() {
+        Random random = new Random(2);
+        for (int i = 0; i < 50_000; i++) {
+            int from = random.nextInt(engine.size());
+            int to = random.nextInt(engine.size());
+            long amount = random.nextInt(1_000_000_000);
+            long feePpm = FEES[random.nextInt(FEES.length)];
+            RoundingMode mode = registry.roundingMode(to);
+            String pair = amount + " " + registry.code(from) + " -> " + registry.code(to) + " fee " + feePpm;
+            assertEquals(expectedConversion(amount, from, to, feePpm), engine.convert(amount, from, to, feePpm), pair);
+            if (feePpm != 0) {
+                BigDecimal charged = expectedCrossRate(from, to).multiply(fee(feePpm))
+                        .setScale(ConversionEngine.CROSS_SCALE, RoundingMode.HALF_EVEN);
+                assertEquals(BigDecimal.valueOf(amount).multiply(charged).setScale(0, mode).longValueExact(),
+                        engine.fee(amount, from, to, feePpm), pair);
+            }
+        }
+    }
+
+    /**
+     * The fee is folded into the cross rate half-even, then the amount is rounded once
+     */
+    private long expectedConversion(long amount, int from, int to, long feePpm) {
+        BigDecimal net = expectedCrossRate(from, to).multiply(BigDecimal.ONE.subtract(fee(feePpm)))
+                .setScale(ConversionEngine.CROSS_SCALE, RoundingMode.HALF_EVEN);
+        return BigDecimal.valueOf(amount).multiply(net).setScale(0, registry.roundingMode(to)).longValueExact();
+    }
+
+    @Test
+    void foreignToUSDMatchesBigDecimal() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            int id = random.nextInt(engine.size());
+            int amountScale = random.nextInt(7);
+            // Up to 200 million units, so the quotient at QUOTIENT_SCALE fits in a long
+            long amount = (random.nextLong() >>> random.nextInt(1, 64)) % (200_000_000L * FixedPoint.pow10(amountScale));
+            long feePpm = FEES[random.nextInt(FEES.length)];
+            // The old path: amount.divide(rate, 10, HALF_UP), then the fee, rounded to cents
+            BigDecimal quotient = BigDecimal.valueOf(amount, amountScale)
+                    .divide(rate(id), ConversionEngine.QUOTIENT_SCALE, RoundingMode.HALF_UP);
+            RoundingMode mode = registry.roundingMode(ConversionEngine.USD_ID);
+            String conversion = amount + "e-" + amountScale + " " + registry.code(id) + " fee " + feePpm;
+            assertEquals(quotient.multiply(BigDecimal.ONE.subtract(fee(feePpm))).setScale(2, mode).unscaledValue().longValueExact(),
+                    engine.convertToUSD(amount, amountScale, id, feePpm, 2), conversion);
+            assertEquals(quotient.multiply(fee(feePpm)).setScale(2, mode).unscaledValue().longValueExact(),
+                    engine.feeToUSD(amount, amountScale, id, feePpm, 2), conversion);
+        }
+    }
+
+    @Test
+    void usdToForeignMatchesBigDecimal() {
+        Random random = new Random(8);
+        for (int i = 0; i < 50_000; i++) {
+            int id = random.nextInt(engine.size());
+            int digits = registry.minorDigits(id);
+            long cents = random.nextLong() >>> random.nextInt(30, 64);
+            long feePpm = FEES[random.nextInt(FEES.length)];
+            BigDecimal gross = BigDecimal.valueOf(cents, 2).multiply(rate(id));
+            String conversion = cents + " cents -> " + registry.code(id) + " fee " + feePpm;
+            assertEquals(gross.multiply(BigDecimal.ONE.subtract(fee(feePpm))).setScale(digits, registry.roundingMode(id))
+                    .unscaledValue().longValueExact(), engine.convertFromUSD(cents, 2, id, feePpm, digits), conversion);
+            assertEquals(gross.multiply(fee(feePpm)).setScale(digits, registry.roundingMode(id))
+                    .unscaledValue().longValueExact(), engine.feeFromUSD(cents, 2, id, feePpm, digits), conversion);
+        }
+    }
+
+    @Test
+    void updatedCrossRatesMatchRebuiltOnes() {
+        Random random = new Random(3);
+        // Fill the fee cache first, so the update has to re-derive its changed pairs
+        engine.convert(100, 0, 1, 25_000);
+        int kes = registry.idOf("KES");
+        int bhd = registry.idOf("BHD");
+        int[] ids = {kes, bhd};
+        long[] rates = {random.nextInt(200_000_000) + 1, random.nextInt(1_000_000) + 1};
+        engine.updateRates(ids, rates, 2);
+        for (int from = 0; from < engine.size(); from++) {
+            for (int to = 0; to < engine.size(); to++) {
+                assertEquals(expectedCrossRate(from, to).unscaledValue().longValueExact(),
+                        engine.crossRate(from, to), registry.code(from) + " -> " + registry.code(to));
+                assertEquals(expectedConversion(123_456_789, from, to, 25_000),
+                        engine.convert(123_456_789, from, to, 25_000), registry.code(from) + " -> " + registry.code(to));
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConversionParallelBenchmark - Sequential against fork/join single-pair batches.
+ * Batch sizes span one PARALLEL_CHUNK (16K, no fork) up to 16M elements; the
+ * parallel speedup depends on the cores of the machine it is run on.
+ * Run after mvn test-compile with:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main ConversionParallelBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionParallelBenchmark {
+    static final long FEE_PPM = 25_000;
+
+    @Param({"16384", "262144", "4194304", "16777216"})
+    int count;
+
+    ConversionEngine engine;
+    long[] amounts;
+    long[] results;
+    int fromId;
+
+    /**
+     * Builds the engine and random amounts between 0 and 1,000,000.00 KES
+     */
+    @Setup
+    public void setUp() {
+        engine = DefaultRates.createEngine();
+        fromId = engine.registry().idOf("KES");
+        Random random = new Random(42);
+        amounts = new long[count];
+        results = new long[count];
+        for (int i = 0; i < count; i++) {
+            amounts[i] = random.nextInt(100_000_000);
+        }
+    }
+
+    @Benchmark
+    public long[] sequential() {
+        engine.convertBatch(amounts, fromId, ConversionEngine.USD_ID, FEE_PPM, results, 0, count);
+        return results;
+    }
+
+    @Benchmark
+    public long[] parallel() {
+        engine.convertBatchParallel(amounts, fromId, ConversionEngine.USD_ID, FEE_PPM, results, 0, count);
+        return results;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * CurrencyRegistryTest - ISO 4217 minor units and the rounding each currency's results get.
+ */
+class CurrencyRegistryTest {
+    // USD, JPY, BHD, KWD and KES per USD at RATE_SCALE
+    static final long[] RATES = {1_000_000, 151_234_567, 376_012, 307_654, 129_710_000};
+
+    private static CurrencyRegistry registry() {
+        CurrencyRegistry registry = new CurrencyRegistry();
+        for (String code : new String[] {"USD", "JPY", "BHD", "KWD", "KES"}) {
+            registry.register(code);
+        }
+        return registry;
+    }
+
+    /**
+     * Converts USD cents the long way: amount / 100 * rate, rounded to the target's minor units
+     */
+    private static long expectedFromUSD(long cents, long rate, int digits, RoundingMode mode) {
+        return BigDecimal.valueOf(cents, 2).multiply(BigDecimal.valueOf(rate, ConversionEngine.RATE_SCALE))
+                .setScale(digits, mode).unscaledValue().longValueExact();
+    }
+
+    @Test
+    void minorDigitsFollowIso4217() {
+        CurrencyRegistry registry = registry();
+        assertEquals(2, registry.minorDigits(registry.idOf("USD")));
+        assertEquals(0, registry.minorDigits(registry.idOf("JPY")));
+        assertEquals(3, registry.minorDigits(registry.idOf("BHD")));
+        assertEquals(3, registry.minorDigits(registry.idOf("KWD")));
+        assertEquals(2, registry.minorDigits(registry.idOf("KES")));
+        assertEquals(1000, registry.minorFactor(registry.idOf("KWD")));
+        for (int id = 0; id < registry.size(); id++) {
+            assertEquals(RoundingMode.HALF_EVEN, registry.roundingMode(id));
+        }
+        assertEquals(0, CurrencyRegistry.defaultMinorDigits("XOF"));
+        assertEquals(3, CurrencyRegistry.defaultMinorDigits("TND"));
+    }
+
+    @Test
+    void resultsRoundToEachCurrencysMinorUnits() {
+        CurrencyRegistry registry = registry();
+        int bhd = registry.idOf("BHD");
+        registry.setMinorUnits(bhd, 3, RoundingMode.HALF_UP);
+        ConversionEngine engine = new ConversionEngine(registry, RATES.clone());
+        Random random = new Random(14);
+        for (int i = 0; i < 10_000; i++) {
+            long cents = random.nextInt(1_000_000_000);
+            for (int id = 1; id < registry.size(); id++) {
+                int digits = registry.minorDigits(id);
+                assertEquals(expectedFromUSD(cents, RATES[id], digits, registry.roundingMode(id)),
+                        engine.convertFromUSD(cents, 2, id, 0, digits), registry.code(id) + " " + cents);
+            }
+        }
+    }
+
+    @Test
+    void halfwayResultsFollowTheCurrencysMode() {
+        CurrencyRegistry registry = registry();
+        int jpy = registry.idOf("JPY");
+        int kwd = registry.idOf("KWD");
+        registry.setMinorUnits(kwd, 3, RoundingMode.HALF_UP);
+        long[] rates = RATES.clone();
+        rates[jpy] = 150_500_000;
+        rates[kwd] = 924_500;
+        ConversionEngine engine = new ConversionEngine(registry, rates);
+        // 1.00 USD is 150.5 JPY (half-even to 150) and 0.9245 KWD (half-up to 0.925)
+        assertEquals(150, engine.convertFromUSD(100, 2, jpy, 0, 0));
+        assertEquals(452, engine.convertFromUSD(300, 2, jpy, 0, 0));
+        assertEquals(925, engine.convertFromUSD(100, 2, kwd, 0, 3));
+        assertEquals(924, expectedFromUSD(100, 924_500, 3, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void frozenRegistryRejectsChanges() {
+        CurrencyRegistry registry = registry();
+        new ConversionEngine(registry, RATES.clone());
+        assertEquals(registry.idOf("JPY"), registry.register("JPY"));
+        assertThrows(IllegalStateException.class, () -> registry.register("EUR"));
+        assertThrows(IllegalStateException.class,
+                () -> registry.setMinorUnits(registry.idOf("JPY"), 2, RoundingMode.HALF_UP));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry().setMinorUnits(1, 0, RoundingMode.UNNECESSARY));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * FixedPointTest - FixedPoint arithmetic against a BigDecimal oracle.
+ * Operands are drawn with random bit lengths, so small values, 128-bit products and
+ * results at the edge of the long range are all covered, in every rounding mode.
+ */
+class FixedPointTest {
+    static final int ROUNDS = 20_000;
+
+    /**
+     * Draws a value with a random bit length and sign
+     */
+    private static long operand(Random random, boolean signed) {
+        long value = random.nextLong() >>> random.nextInt(64);
+        if (value == 0 && random.nextBoolean()) {
+            value = Long.MAX_VALUE - random.nextInt(1000);
+        }
+        return signed && random.nextBoolean() ? -value : value;
+    }
+
+    /**
+     * Rounds num / den to an integer with BigDecimal
+     * @return the quotient, or null where FixedPoint must throw ArithmeticException
+     */
+    private static Long oracle(BigInteger num, BigInteger den, RoundingMode mode) {
+        try {
+            BigInteger quotient = new BigDecimal(num).divide(new BigDecimal(den), 0, mode).toBigIntegerExact();
+            return quotient.bitLength() < 64 ? quotient.longValue() : null;
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private interface LongOp {
+        long apply();
+    }
+
+    private static void assertMatches(Long expected, LongOp actual, String message) {
+        if (expected == null) {
+            assertThrows(ArithmeticException.class, actual::apply, message);
+        } else {
+            assertEquals(expected.longValue(), actual.apply(), message);
+        }
+    }
+
+    @Test
+    void mulDivMatchesBigDecimal() {
+        Random random = new Random(9);
+        for (int i = 0; i < ROUNDS; i++) {
+            long a = operand(random, true);
+            long b = operand(random, true);
+            long divisor = operand(random, true);
+            if (divisor == 0) {
+                continue;
+            }
+            BigInteger product = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+            for (RoundingMode mode : RoundingMode.values()) {
+                assertMatches(oracle(product, BigInteger.valueOf(divisor), mode),
+                        () -> FixedPoint.mulDiv(a, b, divisor, mode), a + " * " + b + " / " + divisor + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void mulDivByReciprocalMatchesBigDecimal() {
+        Random random = new Random(10);
+        for (int i = 0; i < ROUNDS; i++) {
+            long a = operand(random, true);
+            long b = operand(random, true);
+            long divisor = Math.max(1, operand(random, false));
+            long reciprocal = FixedPoint.reciprocal(divisor);
+            BigInteger product = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+            for (RoundingMode mode : RoundingMode.values()) {
+                assertMatches(oracle(product, BigInteger.valueOf(divisor), mode),
+                        () -> FixedPoint.mulDivByReciprocal(a, b, divisor, reciprocal, mode),
+                        a + " * " + b + " / " + divisor + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void reciprocalHandlesPowersOfTwoAndRateScaleDivisors() {
+        long[] divisors = {1, 2, 1L << 40, Long.MAX_VALUE, 3, 1_000_000, 129_710_000, 999_999_999_999L};
+        Random random = new Random(11);
+        for (long divisor : divisors) {
+            long reciprocal = FixedPoint.reciprocal(divisor);
+            for (int i = 0; i < 1000; i++) {
+                long a = operand(random, true);
+                long b = random.nextInt(1 << 30);
+                BigInteger product = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+                for (RoundingMode mode : RoundingMode.values()) {
+                    assertMatches(oracle(product, BigInteger.valueOf(divisor), mode),
+                            () -> FixedPoint.mulDivByReciprocal(a, b, divisor, reciprocal, mode),
+                            a + " * " + b + " / " + divisor + " " + mode);
+                }
+            }
+        }
+        assertThrows(ArithmeticException.class, () -> FixedPoint.reciprocal(0));
+    }
+
+    @Test
+    void exactHalvesRoundPerMode() {
+        // 2.5, -2.5, 3.5 and -3.5 as 5 / 2, -5 / 2, 7 / 2 and -7 / 2
+        long[][] cases = {{5, 2}, {-5, 2}, {7, 2}, {-7, 2}, {5, -2}};
+        for (long[] c : cases) {
+            for (RoundingMode mode : RoundingMode.values()) {
+                Long expected = oracle(BigInteger.valueOf(c[0]), BigInteger.valueOf(c[1]), mode);
+                assertMatches(expected, () -> FixedPoint.mulDiv(c[0], 1, c[1], mode), c[0] + "/" + c[1] + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void rescaleMatchesBigDecimal() {
+        Random random = new Random(12);
+        for (int i = 0; i < ROUNDS; i++) {
+            long value = operand(random, true);
+            int fromScale = random.nextInt(19);
+            int toScale = random.nextInt(19);
+            for (RoundingMode mode : RoundingMode.values()) {
+                Long expected;
+                try {
+                    BigInteger unscaled = BigDecimal.valueOf(value, fromScale).setScale(toScale, mode).unscaledValue();
+                    expected = unscaled.bitLength() < 64 ? unscaled.longValue() : null;
+                } catch (ArithmeticException e) {
+                    expected = null;
+                }
+                assertMatches(expected, () -> FixedPoint.rescale(value, fromScale, toScale, mode),
+                        value + " from " + fromScale + " to " + toScale + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void rescaleNearTheLongRange() {
+        long[] values = {Long.MAX_VALUE, Long.MAX_VALUE - 1, -Long.MAX_VALUE, 922_337_203_685_477_580L};
+        for (long value : values) {
+            for (RoundingMode mode : RoundingMode.values()) {
+                for (int drop = 1; drop <= 18; drop++) {
+                    int from = drop;
+                    BigInteger unscaled;
+                    try {
+                        unscaled = BigDecimal.valueOf(value, from).setScale(0, mode).unscaledValue();
+                    } catch (ArithmeticException e) {
+                        unscaled = null;
+                    }
+                    Long expected = unscaled == null ? null : unscaled.longValue();
+                    assertMatches(expected, () -> FixedPoint.rescale(value, from, 0, mode), value + " " + mode);
+                }
+            }
+            if (Math.abs(value) > Long.MAX_VALUE / 10) {
+                assertThrows(ArithmeticException.class, () -> FixedPoint.rescale(value, 0, 1, RoundingMode.HALF_EVEN));
+            } else {
+                assertEquals(value * 10, FixedPoint.rescale(value, 0, 1, RoundingMode.HALF_EVEN));
+            }
+        }
+    }
+
+    @Test
+    void parseAndFormatRoundTrip() {
+        Random random = new Random(13);
+        for (int i = 0; i < ROUNDS; i++) {
+            long value = operand(random, true);
+            int scale = random.nextInt(19);
+            BigDecimal decimal = BigDecimal.valueOf(value, scale);
+            assertEquals(value, FixedPoint.parse(decimal.toPlainString(), scale, RoundingMode.UNNECESSARY));
+            assertEquals(decimal, FixedPoint.toBigDecimal(value, scale));
+            assertEquals(value, FixedPoint.fromBigDecimal(decimal, scale));
+        }
+        assertEquals(1_234_568L, FixedPoint.parse("1.2345675", 6, RoundingMode.HALF_EVEN));
+        assertEquals(1_234_566L, FixedPoint.parse("1.2345665", 6, RoundingMode.HALF_EVEN));
+        assertEquals(-1_234_567L, FixedPoint.parse("-1.2345661", 6, RoundingMode.FLOOR));
+    }
+}
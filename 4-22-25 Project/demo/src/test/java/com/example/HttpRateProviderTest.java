@@ -0,0 +1,143 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * HttpRateProviderTest - Asynchronous and conditional fetches against StubRateServer.
+ */
+class HttpRateProviderTest {
+    static final String RATES = "{\"success\":true,\"base\":\"USD\",\"rates\":{\"KES\":140.25,\"EUR\":0.875}}";
+
+    @TempDir
+    Path dir;
+
+    StubRateServer stub;
+    ConversionEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = StubRateServer.start(0);
+        stub.setPayload(RATES);
+        engine = DefaultRates.createEngine();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    private HttpRateProvider provider(RateResponseCache cache) {
+        return new HttpRateProvider(stub.uri(), HttpRateProvider.newClient(), cache);
+    }
+
+    @Test
+    void fetchReturnsBeforeTheResponseArrives() throws Exception {
+        stub.setLatency(500);
+        long started = System.nanoTime();
+        CompletableFuture<RateResponse> fetch = provider(null).fetch(engine.registry());
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(400), "fetch blocked");
+        assertFalse(fetch.isDone());
+
+        RateResponse response = fetch.get(10, TimeUnit.SECONDS);
+        assertFalse(response.isNotModified());
+        response.payload().applyTo(engine);
+        assertEquals(140_250_000L, engine.rateAt(engine.registry().idOf("KES")));
+        assertEquals(875_000L, engine.rateAt(engine.registry().idOf("EUR")));
+    }
+
+    @Test
+    void responseIsCachedOnlyWhenAccepted() throws Exception {
+        RateResponseCache cache = RateResponseCache.load(dir.resolve("rates.response"));
+        HttpRateProvider provider = provider(cache);
+
+        RateResponse response = provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS);
+        assertTrue(cache.isEmpty(), "cached before being accepted");
+        assertFalse(response.etag().isEmpty());
+
+        provider.accepted(response);
+        assertFalse(cache.isEmpty());
+        assertEquals(response.etag(), cache.etag());
+        assertEquals(RATES, new String(cache.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unchangedRatesAnswerNotModified() throws Exception {
+        RateResponseCache cache = RateResponseCache.load(dir.resolve("rates.response"));
+        HttpRateProvider provider = provider(cache);
+        provider.accepted(provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS));
+
+        RateResponse second = provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS);
+        assertTrue(second.isNotModified());
+        assertEquals(1, stub.notModifiedCount());
+
+        // A new payload has new validators, so it is downloaded in full
+        stub.setPayload(RATES.replace("140.25", "141.5"));
+        RateResponse third = provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS);
+        assertFalse(third.isNotModified());
+        third.payload().applyTo(engine);
+        assertEquals(141_500_000L, engine.rateAt(engine.registry().idOf("KES")));
+        assertEquals(1, stub.notModifiedCount());
+    }
+
+    @Test
+    void notModifiedWithoutCacheIsNotRequested() throws Exception {
+        HttpRateProvider provider = provider(null);
+        provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS);
+        assertFalse(provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS).isNotModified());
+        assertEquals(0, stub.notModifiedCount());
+    }
+
+    @Test
+    void errorStatusFailsTheFetch() {
+        stub.setStatus(503);
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> provider(null).fetch(engine.registry()).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+        assertTrue(error.getCause().getMessage().contains("503"));
+    }
+
+    @Test
+    void invalidBodyFailsTheFetch() {
+        stub.setPayload("{\"success\":false,\"error\":{\"code\":101}}");
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> provider(null).fetch(engine.registry()).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+    }
+
+    @Test
+    void cancellingAbortsTheFetch() {
+        stub.setLatency(5000);
+        CompletableFuture<RateResponse> fetch = provider(null).fetch(engine.registry());
+        assertTrue(fetch.cancel(true));
+        assertTrue(fetch.isCancelled());
+    }
+
+    @Test
+    void cachedResponseWarmStartsOnlyWhenNewer() throws Exception {
+        RateResponseCache cache = RateResponseCache.load(dir.resolve("rates.response"));
+        HttpRateProvider provider = provider(cache);
+        RateResponse response = provider.fetch(engine.registry()).get(10, TimeUnit.SECONDS);
+        provider.accepted(response);
+
+        RatePayload cached = provider.cached(engine.registry(), response.receivedAtMillis() - 1);
+        assertEquals(2, cached.count());
+        assertNull(provider.cached(engine.registry(), response.receivedAtMillis()));
+    }
+}
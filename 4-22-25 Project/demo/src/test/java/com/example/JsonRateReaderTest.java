@@ -0,0 +1,172 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JsonRateReaderTest - Tokens, strings and scaled numbers from the streaming parser.
+ */
+class JsonRateReaderTest {
+    /**
+     * Stream that hands out at most a few bytes per read, like a body arriving in packets
+     */
+    static final class ChunkedStream extends InputStream {
+        private final ByteArrayInputStream bytes;
+        private final int chunk;
+
+        ChunkedStream(byte[] bytes, int chunk) {
+            this.bytes = new ByteArrayInputStream(bytes);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return bytes.read(buffer, offset, Math.min(length, chunk));
+        }
+    }
+
+    private static JsonRateReader reader(String json) {
+        return new JsonRateReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads a whole document as one line per token: its kind, and its text if it has one
+     */
+    private static List<String> tokens(JsonRateReader reader) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        JsonRateReader.Token token;
+        do {
+            token = reader.next();
+            boolean hasText = token == JsonRateReader.Token.NAME || token == JsonRateReader.Token.STRING;
+            tokens.add(hasText ? token + " " + reader.text() : token == JsonRateReader.Token.NUMBER
+                    ? token + " " + reader.scaledValue(6, RoundingMode.HALF_EVEN) : token.toString());
+        } while (token != JsonRateReader.Token.END_DOCUMENT);
+        return tokens;
+    }
+
+    private static long scaled(String number, int scale, RoundingMode mode) throws IOException {
+        try (JsonRateReader reader = reader(number)) {
+            assertEquals(JsonRateReader.Token.NUMBER, reader.next(), number);
+            return reader.scaledValue(scale, mode);
+        }
+    }
+
+    @Test
+    void escapedStringsAreUnescapedToUtf8() throws IOException {
+        JsonRateReader reader = reader("{\"K\\u0045S\": \"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u20ac\"}");
+        assertEquals(JsonRateReader.Token.START_OBJECT, reader.next());
+        assertEquals(JsonRateReader.Token.NAME, reader.next());
+        assertEquals(CurrencyRegistry.pack("KES"), reader.packedCode());
+        assertEquals(JsonRateReader.Token.STRING, reader.next());
+        assertEquals("a\"b\\c/d\n\té€", reader.text());
+        assertEquals(JsonRateReader.Token.END_OBJECT, reader.next());
+        assertEquals(JsonRateReader.Token.END_DOCUMENT, reader.next());
+
+        assertThrows(IOException.class, () -> reader("\"bad \\x escape\"").next());
+        assertThrows(IOException.class, () -> reader("\"bad \\u00g0 escape\"").next());
+        assertThrows(IOException.class, () -> reader("\"raw\nnewline\"").next());
+    }
+
+    @Test
+    void numbersMatchBigDecimalRounding() throws IOException {
+        assertEquals(129_710_000, scaled("129.71", 6, RoundingMode.HALF_UP));
+        assertEquals(-150_000_000, scaled("-1.5e2", 6, RoundingMode.HALF_UP));
+        assertEquals(25_000_000, scaled("2.5E+1", 6, RoundingMode.HALF_UP));
+        assertEquals(1_000, scaled("1e-3", 6, RoundingMode.HALF_UP));
+        assertEquals(1, scaled("0.0000005", 6, RoundingMode.HALF_UP));
+        assertEquals(0, scaled("0.0000005", 6, RoundingMode.HALF_EVEN));
+        assertEquals(-1, scaled("-0.5", 0, RoundingMode.HALF_UP));
+        assertEquals(0, scaled("-0.0", 6, RoundingMode.HALF_UP));
+        assertThrows(ArithmeticException.class, () -> scaled("1e20", 6, RoundingMode.HALF_UP));
+        assertThrows(IOException.class, () -> scaled("1e", 6, RoundingMode.HALF_UP));
+        assertThrows(IOException.class, () -> scaled("1.2.3", 6, RoundingMode.HALF_UP));
+        assertThrows(IOException.class, () -> scaled("-", 6, RoundingMode.HALF_UP));
+
+        Random random = new Random(23);
+        RoundingMode[] modes = {RoundingMode.HALF_UP, RoundingMode.HALF_EVEN, RoundingMode.DOWN, RoundingMode.CEILING};
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder number = new StringBuilder();
+            if (random.nextBoolean()) {
+                number.append('-');
+            }
+            number.append(random.nextInt(100_000));
+            if (random.nextBoolean()) {
+                number.append('.');
+                int digits = 1 + random.nextInt(25);
+                for (int d = 0; d < digits; d++) {
+                    number.append(random.nextInt(10));
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                number.append(random.nextBoolean() ? 'e' : 'E').append(random.nextInt(12) - 8);
+            }
+            String text = number.toString();
+            int scale = random.nextInt(11);
+            RoundingMode mode = modes[random.nextInt(modes.length)];
+            long expected = new BigDecimal(text).setScale(scale, mode).unscaledValue().longValueExact();
+            assertEquals(expected, scaled(text, scale, mode), text + " at scale " + scale + " " + mode);
+        }
+    }
+
+    @Test
+    void skipValueLeavesNestedContainersBehind() throws IOException {
+        JsonRateReader reader = reader("{\"meta\": {\"a\": [1, {\"b\": \"}]\"}, [[]]], \"c\": null}, \"next\": true}");
+        assertEquals(JsonRateReader.Token.START_OBJECT, reader.next());
+        assertEquals(JsonRateReader.Token.NAME, reader.next());
+        reader.skipValue();
+        assertEquals(JsonRateReader.Token.NAME, reader.next());
+        assertEquals("next", reader.text());
+        assertEquals(JsonRateReader.Token.TRUE, reader.next());
+        assertEquals(JsonRateReader.Token.END_OBJECT, reader.next());
+        assertEquals(JsonRateReader.Token.END_DOCUMENT, reader.next());
+    }
+
+    @Test
+    void tokensSplitAcrossReadsParseAsWhenWhole() throws IOException {
+        // Padding pushes later tokens across the reader's own buffer boundary too
+        StringBuilder json = new StringBuilder("{\"pad\": \"");
+        json.append("x".repeat(8185));
+        json.append("\", \"rates\": {\"K\\u0045S\": 140.25, \"EUR\": -8.75e-1, \"BHD\": \"0.376\"}, \"ok\": false}");
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        List<String> whole = tokens(new JsonRateReader(ByteBuffer.wrap(bytes)));
+        assertEquals("NAME KES", whole.get(5));
+        assertEquals("NUMBER 140250000", whole.get(6));
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            assertEquals(whole, tokens(new JsonRateReader(new ChunkedStream(bytes, chunk))), "chunk " + chunk);
+        }
+        for (int shift = 0; shift < 40; shift++) {
+            String shifted = " ".repeat(shift) + json;
+            assertEquals(whole, tokens(reader(shifted)), "shift " + shift);
+        }
+    }
+
+    @Test
+    void truncatedOrMisplacedTokensAreRejected() {
+        String json = "{\"a\": [1, \"two\", true, null], \"b\": {\"c\": -3.5e1}}";
+        for (int length = 0; length < json.length(); length++) {
+            String prefix = json.substring(0, length);
+            assertThrows(IOException.class, () -> tokens(reader(prefix)), prefix);
+        }
+        for (String bad : new String[] {"{\"a\" 1}", "{\"a\": 1 \"b\": 2}", "[1,]x", "{1: 2}", "[tru]", "{} {}", "]"}) {
+            assertThrows(IOException.class, () -> tokens(reader(bad)), bad);
+        }
+    }
+}
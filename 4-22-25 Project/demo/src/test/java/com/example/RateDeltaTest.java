@@ -0,0 +1,155 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * RateDeltaTest - Building, applying and encoding the changes between snapshot versions.
+ */
+class RateDeltaTest {
+    static final long PUBLISHED = DefaultRates.TIMESTAMP_MILLIS + 60_000L;
+    static final long[] RATES = {1_000_000, 129_710_000, 376_012, 920_000};
+
+    private static CurrencyRegistry registry(String... codes) {
+        CurrencyRegistry registry = new CurrencyRegistry();
+        for (String code : codes) {
+            registry.register(code);
+        }
+        return registry;
+    }
+
+    private static ConversionEngine engine() {
+        return new ConversionEngine(registry("USD", "KES", "BHD", "EUR"), RATES.clone(), 4, DefaultRates.TIMESTAMP_MILLIS);
+    }
+
+    @Test
+    void ofKeepsTheLastWriteOfEachChangedCurrencyInIdOrder() {
+        RateSnapshot base = engine().snapshot();
+        // EUR repeats its rate, USD is never changed, KES is written twice
+        int[] ids = {1, 2, 1, 0, 3};
+        long[] rates = {130_000_000, 377_000, 131_000_000, 2_000_000, 920_000};
+        RateDelta delta = RateDelta.of(base, ids, rates, ids.length, PUBLISHED);
+        assertEquals(2, delta.size());
+        assertEquals(1, delta.idAt(0));
+        assertEquals(131_000_000, delta.rateAt(0));
+        assertEquals(2, delta.idAt(1));
+        assertEquals(377_000, delta.rateAt(1));
+        assertEquals(4, delta.baseVersion());
+        assertEquals(5, delta.version());
+        assertEquals(PUBLISHED, delta.timestampMillis());
+    }
+
+    @Test
+    void ofWithNoChangeKeepsTheBaseVersionAndTime() {
+        RateSnapshot base = engine().snapshot();
+        RateDelta delta = RateDelta.of(base, new int[] {1, 3}, new long[] {RATES[1], RATES[3]}, 2, PUBLISHED);
+        assertTrue(delta.isEmpty());
+        assertEquals(4, delta.version());
+        assertEquals(DefaultRates.TIMESTAMP_MILLIS, delta.timestampMillis());
+        assertSame(base, base.withDelta(registry("USD", "KES", "BHD", "EUR"), delta));
+        // A delta to a chosen version restamps the rates even when none changes
+        RateDelta restamp = RateDelta.of(base, new int[] {1}, new long[] {RATES[1]}, 1, 9, PUBLISHED);
+        assertTrue(restamp.isEmpty());
+        assertEquals(9, restamp.version());
+        assertThrows(IllegalArgumentException.class,
+                () -> RateDelta.of(base, new int[] {1}, new long[] {1}, 1, 4, PUBLISHED));
+    }
+
+    @Test
+    void ofRejectsBadEntriesBeforePublishingAnything() {
+        ConversionEngine engine = engine();
+        RateSnapshot before = engine.snapshot();
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.updateRates(new int[] {1, 2}, new long[] {130_000_000, 0}, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.updateRates(new int[] {1, 2}, new long[] {130_000_000, -5}, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.updateRates(new int[] {1, 4}, new long[] {130_000_000, 1}, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.updateRates(new int[] {-1}, new long[] {1}, 1));
+        assertSame(before, engine.snapshot());
+    }
+
+    @Test
+    void applyingReachesTheNewerVersionOnce() {
+        ConversionEngine primary = engine();
+        ConversionEngine replica = engine();
+        RateSnapshot base = primary.snapshot();
+        RateDelta delta = primary.updateRates(new int[] {3, 1}, new long[] {930_000, 130_000_000}, 2);
+        assertEquals(delta.size(), RateDelta.between(base, primary.snapshot()).size());
+
+        assertTrue(replica.applyDelta(delta));
+        assertFalse(replica.applyDelta(delta));
+        assertArrayEquals(primary.snapshot().copyRates(), replica.snapshot().copyRates());
+        assertEquals(primary.snapshot().version(), replica.snapshot().version());
+        assertEquals(primary.snapshot().timestampMillis(), replica.snapshot().timestampMillis());
+        for (int from = 0; from < RATES.length; from++) {
+            for (int to = 0; to < RATES.length; to++) {
+                assertEquals(primary.crossRate(from, to), replica.crossRate(from, to));
+            }
+        }
+        // A replica that missed a delta must resync
+        RateDelta next = primary.updateRates(new int[] {2}, new long[] {378_000}, 1);
+        RateDelta after = primary.updateRates(new int[] {2}, new long[] {379_000}, 1);
+        assertThrows(IllegalStateException.class, () -> replica.applyDelta(after));
+        assertTrue(replica.applyDelta(next));
+    }
+
+    @Test
+    void decodingMapsCodesToTheReceiversIdsInOrder() throws IOException {
+        ConversionEngine sender = engine();
+        RateDelta delta = sender.updateRates(new int[] {1, 2, 3}, new long[] {130_000_000, 377_000, 930_000}, 3);
+        RateDelta second = sender.updateRates(new int[] {1}, new long[] {131_000_000}, 1);
+        ByteBuffer first = delta.encode(sender.registry());
+        ByteBuffer stream = ByteBuffer.allocate(first.remaining() + second.encode(sender.registry()).remaining());
+        stream.put(first).put(second.encode(sender.registry())).flip();
+
+        // The receiver registered the same currencies in the opposite order
+        CurrencyRegistry receiver = registry("USD", "EUR", "BHD", "KES");
+        RateDelta decoded = RateDelta.decode(stream, receiver);
+        assertEquals(delta.baseVersion(), decoded.baseVersion());
+        assertEquals(delta.version(), decoded.version());
+        assertEquals(delta.timestampMillis(), decoded.timestampMillis());
+        assertEquals(3, decoded.size());
+        // Re-sorted by the receiver's ids: EUR, BHD, KES
+        assertEquals(receiver.idOf("EUR"), decoded.idAt(0));
+        assertEquals(receiver.idOf("BHD"), decoded.idAt(1));
+        assertEquals(receiver.idOf("KES"), decoded.idAt(2));
+        assertEquals(930_000, decoded.rateAt(0));
+        assertEquals(377_000, decoded.rateAt(1));
+        assertEquals(130_000_000, decoded.rateAt(2));
+        // The position moved past the first delta, onto the second
+        RateDelta decodedSecond = RateDelta.decode(stream, receiver);
+        assertEquals(second.version(), decodedSecond.version());
+        assertFalse(stream.hasRemaining());
+    }
+
+    @Test
+    void truncatedOrCorruptEncodingsAreRejected() {
+        ConversionEngine sender = engine();
+        RateDelta delta = sender.updateRates(new int[] {1, 2}, new long[] {130_000_000, 377_000}, 2);
+        byte[] bytes = new byte[delta.encode(sender.registry()).remaining()];
+        delta.encode(sender.registry()).get(bytes);
+        CurrencyRegistry receiver = registry("USD", "KES", "BHD", "EUR");
+        for (int length = 0; length < bytes.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length);
+            assertThrows(IOException.class, () -> RateDelta.decode(truncated, receiver), "length " + length);
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] corrupt = bytes.clone();
+            corrupt[i] ^= 0x10;
+            assertThrows(IOException.class, () -> RateDelta.decode(ByteBuffer.wrap(corrupt), receiver), "byte " + i);
+        }
+        // A receiver without one of the currencies cannot apply the delta
+        assertThrows(IOException.class, () -> RateDelta.decode(ByteBuffer.wrap(bytes), registry("USD", "KES")));
+    }
+}
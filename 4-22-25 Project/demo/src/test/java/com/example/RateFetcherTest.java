@@ -0,0 +1,368 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * RateFetcherTest - Refreshes of an engine from StubRateServer and hand-driven providers.
+ */
+class RateFetcherTest {
+    static final String RATES = HttpRateProviderTest.RATES;
+    static final String SECONDARY_RATES = RATES.replace("140.25", "150.5");
+
+    @TempDir
+    Path dir;
+
+    StubRateServer primary;
+    StubRateServer secondary;
+    ConversionEngine engine;
+    int kes;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        primary = StubRateServer.start(0);
+        primary.setPayload(RATES);
+        secondary = StubRateServer.start(0);
+        secondary.setPayload(SECONDARY_RATES);
+        engine = DefaultRates.createEngine();
+        kes = engine.registry().idOf("KES");
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.close();
+        secondary.close();
+    }
+
+    private RateFetcher hedged(RateResponseCache primaryCache) {
+        return new RateFetcher(engine, List.of(
+                new HttpRateProvider(primary.uri(), HttpRateProvider.newClient(), primaryCache),
+                new HttpRateProvider(secondary.uri(), HttpRateProvider.newClient(), null)));
+    }
+
+    private RateResponse response(String json) throws IOException {
+        return RateResponse.of(RatePayload.read(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)),
+                engine.registry()));
+    }
+
+    @Test
+    void refreshPublishesWithoutBlockingTheCaller() throws Exception {
+        primary.setLatency(500);
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        long before = engine.snapshot().version();
+
+        CompletableFuture<RateDelta> refresh = fetcher.refresh();
+        assertFalse(refresh.isDone());
+        assertEquals(before, engine.snapshot().version(), "published before the response arrived");
+
+        RateDelta delta = refresh.get(10, TimeUnit.SECONDS);
+        assertEquals(2, delta.size());
+        assertEquals(delta.version(), engine.snapshot().version());
+        assertEquals(140_250_000L, engine.rateAt(kes));
+    }
+
+    @Test
+    void awaitRefreshReturnsThePublishedSnapshot() throws Exception {
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        RateSnapshot snapshot = fetcher.awaitRefresh();
+        assertTrue(snapshot == engine.snapshot());
+        assertEquals(140_250_000L, snapshot.rateAt(kes));
+    }
+
+    @Test
+    void failedRefreshKeepsTheOldRates() {
+        primary.setStatus(500);
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        RateSnapshot before = engine.snapshot();
+        IOException error = assertThrows(IOException.class, fetcher::awaitRefresh);
+        assertTrue(error.getMessage().contains("500"));
+        assertTrue(before == engine.snapshot());
+    }
+
+    @Test
+    void unchangedRatesAreNotDownloadedAgain() throws Exception {
+        RateResponseCache cache = RateResponseCache.load(dir.resolve("rates.response"));
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri(), cache);
+        fetcher.awaitRefresh();
+        assertFalse(cache.isEmpty(), "published response was not cached");
+        long version = engine.snapshot().version();
+
+        RateDelta delta = fetcher.refresh().get(10, TimeUnit.SECONDS);
+        assertTrue(delta.isEmpty());
+        assertEquals(1, primary.notModifiedCount());
+        assertEquals(version, engine.snapshot().version());
+    }
+
+    @Test
+    void warmStartAppliesTheCachedResponse() throws Exception {
+        Path file = dir.resolve("rates.response");
+        new RateFetcher(engine, primary.uri(), RateResponseCache.load(file)).awaitRefresh();
+
+        ConversionEngine restarted = DefaultRates.createEngine();
+        RateFetcher fetcher = new RateFetcher(restarted, primary.uri(), RateResponseCache.load(file));
+        assertTrue(fetcher.warmStart());
+        assertEquals(140_250_000L, restarted.rateAt(kes));
+        assertEquals(1, primary.requestCount());
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged() throws Exception {
+        hedged(null).awaitRefresh();
+        assertEquals(140_250_000L, engine.rateAt(kes));
+        assertEquals(1, primary.requestCount());
+        assertEquals(0, secondary.requestCount());
+    }
+
+    @Test
+    void slowPrimaryIsHedgedWithTheSecondary() throws Exception {
+        primary.setLatency(5000);
+        RateFetcher fetcher = hedged(null);
+        long started = System.nanoTime();
+        fetcher.awaitRefresh();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertEquals(150_500_000L, engine.rateAt(kes));
+        assertTrue(millis >= fetcher.hedgeDelayMillis() - 50, "secondary asked before the hedge delay");
+        assertTrue(millis < 4000, "waited for the slow primary: " + millis + "ms");
+        assertEquals(1, secondary.requestCount());
+    }
+
+    @Test
+    void failedPrimaryFallsOverWithoutWaitingForTheHedgeDelay() throws Exception {
+        primary.setStatus(500);
+        RateFetcher fetcher = hedged(null);
+        long started = System.nanoTime();
+        fetcher.awaitRefresh();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertEquals(150_500_000L, engine.rateAt(kes));
+        assertTrue(millis < fetcher.hedgeDelayMillis(), "waited out the hedge delay: " + millis + "ms");
+    }
+
+    @Test
+    void everyProviderFailingReportsThePrimary() {
+        primary.setStatus(500);
+        secondary.setStatus(503);
+        IOException error = assertThrows(IOException.class, hedged(null)::awaitRefresh);
+        assertTrue(error.getMessage().contains("500"));
+        assertEquals(1, error.getCause().getSuppressed().length);
+        assertTrue(error.getCause().getSuppressed()[0].getMessage().contains("503"));
+    }
+
+    @Test
+    void loserIsCancelledAndOnlyTheWinnerAccepted() throws Exception {
+        ManualProvider slow = new ManualProvider("slow");
+        ManualProvider fast = new ManualProvider("fast");
+        RateFetcher fetcher = new RateFetcher(engine, List.of(slow, fast));
+        CompletableFuture<RateDelta> refresh = fetcher.refresh();
+
+        CompletableFuture<RateResponse> primaryFetch = slow.awaitFetch(0);
+        // The secondary is asked once the hedge delay passes
+        RateResponse winner = response(SECONDARY_RATES);
+        fast.awaitFetch(0).complete(winner);
+        refresh.get(10, TimeUnit.SECONDS);
+
+        assertTrue(primaryFetch.isCancelled(), "losing request was not cancelled");
+        assertFalse(primaryFetch.complete(response(RATES)));
+        assertEquals(150_500_000L, engine.rateAt(kes));
+        assertEquals(List.of(winner), fast.accepted);
+        assertTrue(slow.accepted.isEmpty());
+    }
+
+    @Test
+    void losingResponseIsNotCached() throws Exception {
+        primary.setLatency(5000);
+        RateResponseCache cache = RateResponseCache.load(dir.resolve("rates.response"));
+        hedged(cache).awaitRefresh();
+        assertEquals(150_500_000L, engine.rateAt(kes));
+        assertTrue(cache.isEmpty(), "cached a response that lost the hedge");
+    }
+
+    @Test
+    void responseThatFailsToPublishIsNotCached() throws Exception {
+        ManualProvider provider = new ManualProvider("only");
+        RateFetcher fetcher = new RateFetcher(engine, List.of(provider));
+        CompletableFuture<RateDelta> refresh = fetcher.refresh();
+        // Read with a registry holding one more currency, so the engine rejects its id
+        CurrencyRegistry larger = DefaultRates.createRegistry();
+        larger.register("XTS");
+        String json = RATES.replace("}}", ",\"XTS\":2.5}}");
+        RatePayload unknown = RatePayload.read(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), larger);
+        provider.awaitFetch(0).complete(RateResponse.of(unknown));
+
+        assertThrows(Exception.class, () -> refresh.get(10, TimeUnit.SECONDS));
+        assertTrue(provider.accepted.isEmpty(), "accepted a response that was not published");
+        assertEquals(DefaultRates.createEngine().rateAt(kes), engine.rateAt(kes));
+    }
+
+    @Test
+    void primaryFailuresDoNotShortenTheHedgeDelay() throws Exception {
+        primary.setStatus(500);
+        RateFetcher fetcher = hedged(null);
+        long initial = fetcher.hedgeDelayMillis();
+        for (int i = 0; i < 16; i++) {
+            fetcher.awaitRefresh();
+        }
+        assertEquals(initial, fetcher.hedgeDelayMillis());
+
+        primary.setStatus(200);
+        for (int i = 0; i < 16; i++) {
+            fetcher.awaitRefresh();
+        }
+        assertTrue(fetcher.hedgeDelayMillis() < initial, "successes did not set the hedge delay");
+    }
+
+    @Test
+    void concurrentCallersShareOneRequest() throws Exception {
+        primary.setLatency(300);
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        int callers = 32;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<RateSnapshot>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    go.await();
+                    return fetcher.awaitRefresh();
+                }));
+            }
+            go.countDown();
+            Map<RateSnapshot, Boolean> distinct = new IdentityHashMap<>();
+            for (Future<RateSnapshot> result : results) {
+                distinct.put(result.get(10, TimeUnit.SECONDS), true);
+            }
+            assertEquals(1, primary.requestCount());
+            assertEquals(1, distinct.size());
+            assertTrue(distinct.containsKey(engine.snapshot()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void sequentialRefreshesEachFetchWithoutAMinimumInterval() throws Exception {
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        fetcher.awaitRefresh();
+        fetcher.awaitRefresh();
+        assertEquals(2, primary.requestCount());
+    }
+
+    @Test
+    void recentSuccessIsSharedWithinTheMinimumInterval() throws Exception {
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        fetcher.setMinRefreshInterval(Duration.ofMinutes(1));
+        RateSnapshot first = fetcher.awaitRefresh();
+        assertTrue(first == fetcher.awaitRefresh());
+        assertTrue(fetcher.refresh().isDone());
+        assertEquals(1, primary.requestCount());
+    }
+
+    @Test
+    void failureIsNotShared() throws Exception {
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        fetcher.setMinRefreshInterval(Duration.ofMinutes(1));
+        primary.setStatus(500);
+        assertThrows(IOException.class, fetcher::awaitRefresh);
+
+        primary.setStatus(200);
+        fetcher.awaitRefresh();
+        assertEquals(140_250_000L, engine.rateAt(kes));
+        assertEquals(2, primary.requestCount());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthersWaiting() throws Exception {
+        primary.setLatency(300);
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        CompletableFuture<RateDelta> cancelled = fetcher.refresh();
+        CompletableFuture<RateDelta> waiting = fetcher.refresh();
+        assertTrue(cancelled.cancel(true));
+
+        assertEquals(2, waiting.get(10, TimeUnit.SECONDS).size());
+        assertEquals(140_250_000L, engine.rateAt(kes));
+        assertEquals(1, primary.requestCount());
+    }
+
+    @Test
+    void backgroundRefreshReturnsTheCurrentSnapshot() throws Exception {
+        primary.setLatency(300);
+        RateFetcher fetcher = new RateFetcher(engine, primary.uri());
+        RateSnapshot before = engine.snapshot();
+        assertTrue(before == fetcher.refreshInBackground());
+        // Joins the refresh the background call started
+        fetcher.awaitRefresh();
+        assertEquals(1, primary.requestCount());
+        assertEquals(140_250_000L, engine.rateAt(kes));
+    }
+
+    /**
+     * A provider whose fetches are completed by the test
+     */
+    static final class ManualProvider implements RateProvider {
+        final List<CompletableFuture<RateResponse>> fetches = new CopyOnWriteArrayList<>();
+        final List<RateResponse> accepted = new CopyOnWriteArrayList<>();
+        private final String name;
+
+        ManualProvider(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public CompletableFuture<RateResponse> fetch(CurrencyRegistry registry) {
+            CompletableFuture<RateResponse> fetch = new CompletableFuture<>();
+            fetches.add(fetch);
+            return fetch;
+        }
+
+        @Override
+        public void accepted(RateResponse response) {
+            accepted.add(response);
+        }
+
+        /**
+         * Waits for a fetch to be started
+         * @param index number of earlier fetches
+         * @return the fetch
+         * @throws InterruptedException if interrupted while waiting
+         */
+        CompletableFuture<RateResponse> awaitFetch(int index) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (fetches.size() <= index) {
+                if (System.nanoTime() > deadline) {
+                    throw new AssertionError(name + " was not asked");
+                }
+                Thread.sleep(5);
+            }
+            return fetches.get(index);
+        }
+    }
+}
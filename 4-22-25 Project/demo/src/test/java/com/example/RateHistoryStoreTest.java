@@ -0,0 +1,148 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * RateHistoryStoreTest - Appends, growth and crash recovery of the mapped rate columns.
+ */
+class RateHistoryStoreTest {
+    static final long START = DefaultRates.TIMESTAMP_MILLIS;
+
+    @TempDir
+    Path dir;
+
+    CurrencyRegistry registry;
+    int kes;
+
+    @BeforeEach
+    void setUp() {
+        registry = new CurrencyRegistry();
+        registry.register("USD");
+        kes = registry.register("KES");
+        registry.register("EUR");
+    }
+
+    private static void writeLong(Path file, int index, long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, value);
+            channel.write(buffer, (long) index * Long.BYTES);
+        }
+    }
+
+    @Test
+    void appendsRemapOnlyWhenAColumnFills() throws IOException {
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            assertEquals(RateHistoryStore.INITIAL_CAPACITY, store.capacity(kes));
+            for (int i = 0; i < 10_000; i++) {
+                store.append(kes, START + i, 129_000_000L + i);
+            }
+            assertEquals(10_000, store.count(kes));
+            // Doubling from 1024: 2048, 4096, 8192, 16384, so four remaps for 10,000 appends
+            assertEquals(16_384, store.capacity(kes));
+            assertEquals(START + 9_999, store.timestampAt(kes, 9_999));
+            assertEquals(129_009_999L, store.rateAt(kes, 9_999));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.rateAt(kes, 10_000));
+        }
+    }
+
+    @Test
+    void reopenFindsTheEntriesInPaddedFiles() throws IOException {
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            store.appendAll(kes, new long[] {START, START + 10, START + 20}, new long[] {1, 2, 3}, 3);
+        }
+        assertTrue(Files.size(dir.resolve("KES.time")) > 3 * Long.BYTES);
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            assertEquals(3, store.count(kes));
+            assertEquals(0, store.count(registry.idOf("EUR")));
+            assertEquals(START + 20, store.timestampAt(kes, 2));
+            store.append(kes, START + 30, 4);
+            assertEquals(4, store.count(kes));
+        }
+    }
+
+    @Test
+    void entryCutShortByACrashIsDropped() throws IOException {
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            store.appendAll(kes, new long[] {START, START + 10}, new long[] {1, 2}, 2);
+        }
+        // A rate written without its time, then a time whose rate never reached the disk
+        writeLong(dir.resolve("KES.rate"), 2, 3);
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            assertEquals(2, store.count(kes));
+        }
+        writeLong(dir.resolve("KES.rate"), 2, 0);
+        writeLong(dir.resolve("KES.time"), 2, START + 20);
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            assertEquals(2, store.count(kes));
+            store.append(kes, START + 30, 5);
+            assertEquals(5, store.rateAt(kes, 2));
+        }
+    }
+
+    @Test
+    void exactLengthColumnsFromEarlierVersionsOpen() throws IOException {
+        writeLong(dir.resolve("KES.time"), 0, START);
+        writeLong(dir.resolve("KES.time"), 1, START + 10);
+        writeLong(dir.resolve("KES.rate"), 0, 7);
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            // The rate column is one entry short, so only the first entry is complete
+            assertEquals(1, store.count(kes));
+            assertEquals(7, store.rateAt(kes, 0));
+        }
+    }
+
+    @Test
+    void appendsMustBeOrderedAndPositive() throws IOException {
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            store.append(kes, START, 1);
+            assertThrows(IllegalArgumentException.class, () -> store.append(kes, START, 2));
+            assertThrows(IllegalArgumentException.class, () -> store.append(kes, START + 1, 0));
+            assertThrows(IllegalArgumentException.class, () -> store.append(registry.idOf("EUR"), 0, 1));
+            assertEquals(1, store.count(kes));
+        }
+    }
+
+    @Test
+    void snapshotsAppendOnlyChangedRates() throws IOException {
+        CurrencyRegistry defaults = DefaultRates.createRegistry();
+        ConversionEngine engine = new ConversionEngine(defaults, DefaultRates.scaledRates(defaults));
+        int id = defaults.idOf("KES");
+        try (RateHistoryStore store = RateHistoryStore.open(dir, defaults)) {
+            assertEquals(defaults.size() - 1, store.appendSnapshot(engine.snapshot()));
+            assertEquals(0, store.appendSnapshot(engine.snapshot()));
+            engine.updateRates(new int[] {id}, new long[] {130_000_000}, 1);
+            assertEquals(1, store.appendSnapshot(engine.snapshot()));
+            store.force();
+            assertEquals(130_000_000, store.rateAt(id, 1));
+        }
+    }
+
+    @Test
+    void asOfLookupsFindTheEntryInEffect() throws IOException {
+        try (RateHistoryStore store = RateHistoryStore.open(dir, registry)) {
+            store.appendAll(kes, new long[] {START, START + 10, START + 20}, new long[] {1, 2, 3}, 3);
+            assertEquals(-1, store.indexAsOf(kes, START - 1));
+            assertEquals(0, store.indexAsOf(kes, START));
+            assertEquals(0, store.indexAsOf(kes, START + 9));
+            assertEquals(1, store.indexAsOf(kes, START + 10));
+            assertEquals(2, store.indexAsOf(kes, Long.MAX_VALUE));
+            assertEquals(2, store.indexAsOf(kes, START + 25, 0));
+            assertEquals(1, store.indexAsOf(kes, START + 15, 1));
+            assertEquals(-1, store.indexAsOf(registry.idOf("EUR"), START));
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * RateJournalTest - Journaled publishes, replay, torn tails, failed syncs and checkpoints.
+ */
+class RateJournalTest {
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 32;
+
+    @TempDir
+    Path dir;
+
+    private ConversionEngine journaledEngine(RateJournal journal) {
+        ConversionEngine engine = DefaultRates.createEngine();
+        engine.attachJournal(journal);
+        return engine;
+    }
+
+    private static void update(ConversionEngine engine, String code, long rate) {
+        engine.updateRates(new int[] {engine.registry().idOf(code)}, new long[] {rate}, 1);
+    }
+
+    /**
+     * Builds a fresh engine from the bundled rates plus everything in the journal file
+     */
+    private static ConversionEngine replayed(Path file) throws IOException {
+        ConversionEngine engine = DefaultRates.createEngine();
+        try (RateJournal journal = RateJournal.open(file, 0)) {
+            journal.replay(engine);
+        }
+        return engine;
+    }
+
+    @Test
+    void replayRestoresEveryJournaledUpdate() throws IOException {
+        Path file = dir.resolve("rates.journal");
+        ConversionEngine engine;
+        try (RateJournal journal = RateJournal.open(file, 0)) {
+            engine = journaledEngine(journal);
+            update(engine, "KES", 130_000_000);
+            engine.updateRates(new int[] {engine.registry().idOf("BHD"), engine.registry().idOf("KES")},
+                    new long[] {377_000, 131_000_000}, 2);
+            assertEquals(3, journal.durableSequence());
+        }
+        assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, Files.size(file));
+        ConversionEngine restored = DefaultRates.createEngine();
+        try (RateJournal journal = RateJournal.open(file, 0)) {
+            assertEquals(3, journal.replay(restored));
+            assertEquals(3, journal.lastSequence());
+        }
+        assertArrayEquals(engine.snapshot().copyRates(), restored.snapshot().copyRates());
+        assertEquals(engine.snapshot().timestampMillis(), restored.snapshot().timestampMillis());
+    }
+
+    @Test
+    void tornOrCorruptTailIsCutAtTheLastGoodRecord() throws IOException {
+        Path file = dir.resolve("rates.journal");
+        try (RateJournal journal = RateJournal.open(file, 0)) {
+            ConversionEngine engine = journaledEngine(journal);
+            update(engine, "KES", 130_000_000);
+            update(engine, "KES", 131_000_000);
+        }
+        // Half a record left by a crash mid-write
+        Files.write(file, new byte[RECORD_BYTES / 2], StandardOpenOption.APPEND);
+        ConversionEngine restored = replayed(file);
+        assertEquals(131_000_000, restored.rateAt(restored.registry().idOf("KES")));
+        assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, Files.size(file));
+
+        // A whole record whose rate no longer matches its checksum
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 5] ^= 1;
+        Files.write(file, bytes);
+        restored = replayed(file);
+        assertEquals(130_000_000, restored.rateAt(restored.registry().idOf("KES")));
+        assertEquals(HEADER_BYTES + RECORD_BYTES, Files.size(file));
+
+        // Appending continues the sequence from the last good record
+        try (RateJournal journal = RateJournal.open(file, 0)) {
+            assertEquals(1, journal.lastSequence());
+            ConversionEngine engine = DefaultRates.createEngine();
+            journal.replay(engine);
+            engine.attachJournal(journal);
+            update(engine, "KES", 132_000_000);
+            assertEquals(2, journal.durableSequence());
+        }
+        restored = replayed(file);
+        assertEquals(132_000_000, restored.rateAt(restored.registry().idOf("KES")));
+    }
+
+    @Test
+    void failedSyncIsWrittenAgainAndPublishedInOrder() throws IOException {
+        Path file = dir.resolve("rates.journal");
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try (RateJournal journal = RateJournal.open(file, channel, 0)) {
+            ConversionEngine engine = journaledEngine(journal);
+            int kes = engine.registry().idOf("KES");
+            int bhd = engine.registry().idOf("BHD");
+            update(engine, "KES", 130_000_000);
+            RateSnapshot before = engine.snapshot();
+
+            channel.failForce = true;
+            assertThrows(UncheckedIOException.class, () -> update(engine, "BHD", 377_000));
+            // Not durable, so not published
+            assertEquals(before, engine.snapshot());
+            assertEquals(1, journal.durableSequence());
+
+            channel.failForce = false;
+            update(engine, "KES", 131_000_000);
+            // The failed update went out with this sync and was published first
+            assertEquals(before.version() + 2, engine.snapshot().version());
+            assertEquals(377_000, engine.rateAt(bhd));
+            assertEquals(131_000_000, engine.rateAt(kes));
+            assertEquals(3, journal.durableSequence());
+        }
+        // The retried batch was written over the failed one, so no sequence is skipped
+        assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, Files.size(file));
+        ConversionEngine restored = replayed(file);
+        assertEquals(377_000, restored.rateAt(restored.registry().idOf("BHD")));
+        assertEquals(131_000_000, restored.rateAt(restored.registry().idOf("KES")));
+    }
+
+    @Test
+    void checkpointPublishesAnUpdateWhoseSyncFailed() throws IOException {
+        Path file = dir.resolve("rates.journal");
+        Path snapshotFile = dir.resolve("rates.snapshot");
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try (RateJournal journal = RateJournal.open(file, channel, 0)) {
+            ConversionEngine engine = journaledEngine(journal);
+            channel.failForce = true;
+            assertThrows(UncheckedIOException.class, () -> update(engine, "KES", 130_000_000));
+            channel.failForce = false;
+            assertTrue(engine.checkpoint(snapshotFile));
+            assertEquals(130_000_000, engine.rateAt(engine.registry().idOf("KES")));
+        }
+        ConversionEngine restored = RateSnapshotFile.read(snapshotFile, DefaultRates.createRegistry());
+        assertEquals(130_000_000, restored.rateAt(restored.registry().idOf("KES")));
+    }
+
+    @Test
+    void recoveryLoadsTheCheckpointAndReplaysOnlyLaterRecords() throws IOException {
+        Path snapshotFile = dir.resolve("rates.snapshot");
+        Path file = dir.resolve("rates.journal");
+        ConversionEngine engine = RateJournal.recover(snapshotFile, file);
+        update(engine, "KES", 130_000_000);
+        update(engine, "BHD", 377_000);
+        assertTrue(engine.checkpoint(snapshotFile));
+        assertFalse(engine.checkpoint(snapshotFile));
+        update(engine, "KES", 131_000_000);
+        engine.journal().close();
+        // Only the record after the checkpoint is left in the journal
+        assertEquals(HEADER_BYTES + RECORD_BYTES, Files.size(file));
+
+        ConversionEngine recovered = RateJournal.recover(snapshotFile, file);
+        try {
+            assertArrayEquals(engine.snapshot().copyRates(), recovered.snapshot().copyRates());
+            assertEquals(engine.snapshot().timestampMillis(), recovered.snapshot().timestampMillis());
+            assertEquals(3, recovered.journal().lastSequence());
+        } finally {
+            recovered.journal().close();
+        }
+    }
+
+    @Test
+    void concurrentUpdatesShareSyncsAndPublishInOrder() throws Exception {
+        Path file = dir.resolve("rates.journal");
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        String[] codes = {"KES", "BHD", "EUR", "ETB"};
+        int perThread = 500;
+        ConversionEngine engine;
+        try (RateJournal journal = RateJournal.open(file, channel, 0)) {
+            engine = journaledEngine(journal);
+            long startVersion = engine.snapshot().version();
+            List<Thread> threads = new ArrayList<>();
+            AtomicInteger versionWentBack = new AtomicInteger();
+            for (String code : codes) {
+                threads.add(new Thread(() -> {
+                    for (int i = 1; i <= perThread; i++) {
+                        update(engine, code, 1_000_000L * i);
+                    }
+                }));
+            }
+            Thread reader = new Thread(() -> {
+                long last = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    long version = engine.snapshot().version();
+                    if (version < last) {
+                        versionWentBack.incrementAndGet();
+                    }
+                    last = version;
+                }
+            });
+            reader.start();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            reader.interrupt();
+            reader.join();
+            assertEquals(0, versionWentBack.get());
+            assertEquals(startVersion + codes.length * perThread, engine.snapshot().version());
+            assertEquals(codes.length * perThread, journal.durableSequence());
+            assertTrue(channel.forces.get() <= codes.length * perThread, channel.forces.get() + " fsyncs");
+            for (String code : codes) {
+                assertEquals(1_000_000L * perThread, engine.rateAt(engine.registry().idOf(code)), code);
+            }
+        }
+        assertArrayEquals(engine.snapshot().copyRates(), replayed(file).snapshot().copyRates());
+    }
+
+    /**
+     * FailingChannel - Passes everything to a real channel, but can fail force()
+     */
+    static final class FailingChannel extends FileChannel {
+        final FileChannel channel;
+        final AtomicInteger forces = new AtomicInteger();
+        volatile boolean failForce;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                throw new IOException("Simulated fsync failure");
+            }
+            forces.incrementAndGet();
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * RatePayloadTest - Reading provider response bodies into rates.
+ */
+class RatePayloadTest {
+    final CurrencyRegistry registry = DefaultRates.createRegistry();
+    final int kes = registry.idOf("KES");
+    final int eur = registry.idOf("EUR");
+
+    private RatePayload read(String json) throws IOException {
+        return RatePayload.read(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), registry);
+    }
+
+    private void assertRates(RatePayload payload, int[] ids, long[] rates) {
+        assertArrayEquals(ids, Arrays.copyOf(payload.ids(), payload.count()));
+        assertArrayEquals(rates, Arrays.copyOf(payload.rates(), payload.count()));
+    }
+
+    @Test
+    void membersMayComeInAnyOrder() throws IOException {
+        assertRates(read("{\"rates\": {\"KES\": 140.25, \"EUR\": 0.875}, \"base\": \"USD\", \"success\": true}"),
+                new int[] {kes, eur}, new long[] {140_250_000, 875_000});
+        assertThrows(IOException.class, () -> read("{\"rates\": {\"KES\": 140.25}, \"base\": \"EUR\"}"));
+        assertThrows(IOException.class, () -> read("{\"rates\": {\"KES\": 140.25}, \"success\": false}"));
+    }
+
+    @Test
+    void nestedValuesUnderSkippedKeysAreIgnored() throws IOException {
+        String json = "{\"meta\": {\"rates\": {\"KES\": 1}, \"list\": [{\"base\": \"EUR\"}, [null]]},"
+                + " \"base\": \"USD\", \"rates\": {\"XAU\": {\"bid\": [1, 2]}, \"USD\": 1, \"KES\": 140.25,"
+                + " \"ZZZZ\": [\"}\"]}, \"timestamp\": 1713744000}";
+        assertRates(read(json), new int[] {kes}, new long[] {140_250_000});
+    }
+
+    @Test
+    void ratesMayBeStringsWithExponentsAndAreRoundedHalfUp() throws IOException {
+        assertRates(read("{\"rates\": {\"KES\": \"1.4025e2\", \"EUR\": 8.750005E-1}}"),
+                new int[] {kes, eur}, new long[] {140_250_000, 875_001});
+        // Repeated codes are all kept, so the last one wins when applied
+        RatePayload repeated = read("{\"rates\": {\"KES\": 1, \"KES\": 2}}");
+        ConversionEngine engine = DefaultRates.createEngine();
+        repeated.applyTo(engine);
+        assertEquals(2_000_000, engine.rateAt(kes));
+    }
+
+    @Test
+    void invalidRatesNameTheirCurrency() {
+        for (String rate : new String[] {"-140.25", "0", "0.0000004", "\"abc\"", "true", "{}", "1e30"}) {
+            IOException e = assertThrows(IOException.class, () -> read("{\"rates\": {\"KES\": " + rate + "}}"), rate);
+            assertTrue(e.getMessage().contains("KES"), e.getMessage());
+        }
+    }
+
+    @Test
+    void truncatedOrIncompleteBodiesAreRejected() {
+        String json = HttpRateProviderTest.RATES;
+        for (int length = 0; length < json.length(); length++) {
+            String prefix = json.substring(0, length);
+            assertThrows(IOException.class, () -> read(prefix), prefix);
+        }
+        assertThrows(IOException.class, () -> read("[]"));
+        assertThrows(IOException.class, () -> read("{\"base\": \"USD\"}"));
+        assertThrows(IOException.class, () -> read("{\"rates\": {\"XAU\": 0.0004}}"));
+        assertThrows(IOException.class, () -> read("{\"rates\": [140.25]}"));
+    }
+
+    @Test
+    void bodyArrivingInSmallReadsGivesTheSameRates() throws IOException {
+        byte[] bytes = HttpRateProviderTest.RATES.getBytes(StandardCharsets.UTF_8);
+        RatePayload whole = RatePayload.read(ByteBuffer.wrap(bytes), registry);
+        for (int chunk = 1; chunk <= 5; chunk++) {
+            RatePayload chunked = RatePayload.read(new JsonRateReaderTest.ChunkedStream(bytes, chunk), registry);
+            assertRates(chunked, Arrays.copyOf(whole.ids(), whole.count()), Arrays.copyOf(whole.rates(), whole.count()));
+        }
+    }
+}
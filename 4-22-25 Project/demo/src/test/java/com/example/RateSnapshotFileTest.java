@@ -0,0 +1,120 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * RateSnapshotFileTest - Snapshot file round trips and rejection of damaged files.
+ */
+class RateSnapshotFileTest {
+    // magic, format version, snapshot version, publish time, count
+    static final int CODES_OFFSET = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+    @TempDir
+    Path dir;
+
+    private Path writeDefaults(long version, long timestampMillis) throws IOException {
+        CurrencyRegistry registry = DefaultRates.createRegistry();
+        ConversionEngine engine = new ConversionEngine(registry, DefaultRates.scaledRates(registry), version, timestampMillis);
+        Path file = dir.resolve("rates.snapshot");
+        RateSnapshotFile.write(file, registry, engine.snapshot());
+        return file;
+    }
+
+    /**
+     * Rewrites the trailing CRC32C so only the deliberate damage is left to find
+     */
+    private static void rewriteChecksum(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - Integer.BYTES, (int) crc.getValue());
+    }
+
+    @Test
+    void roundTripKeepsVersionTimeAndRates() throws IOException {
+        Path file = writeDefaults(42, DefaultRates.TIMESTAMP_MILLIS + 5);
+        CurrencyRegistry registry = DefaultRates.createRegistry();
+        ConversionEngine engine = RateSnapshotFile.read(file, DefaultRates.createRegistry());
+        assertEquals(42, engine.snapshot().version());
+        assertEquals(DefaultRates.TIMESTAMP_MILLIS + 5, engine.snapshot().timestampMillis());
+        assertArrayEquals(DefaultRates.scaledRates(registry), engine.snapshot().copyRates());
+    }
+
+    @Test
+    void currenciesAreMatchedByCodeNotId() throws IOException {
+        CurrencyRegistry defaults = DefaultRates.createRegistry();
+        long[] expected = DefaultRates.scaledRates(defaults);
+        // The file holds USD, KES and BHD only, with KES moved off its bundled rate
+        CurrencyRegistry written = new CurrencyRegistry();
+        written.register("USD");
+        written.register("BHD");
+        written.register("KES");
+        long kesRate = expected[defaults.idOf("KES")] + 1;
+        Path file = dir.resolve("rates.snapshot");
+        RateSnapshotFile.write(file, written, new ConversionEngine(written,
+                new long[] {1_000_000, expected[defaults.idOf("BHD")], kesRate}).snapshot());
+        // Read back into a registry that lists the bundled currencies in reverse
+        CurrencyRegistry registry = new CurrencyRegistry();
+        registry.register("USD");
+        for (int id = defaults.size() - 1; id > 0; id--) {
+            registry.register(defaults.code(id));
+        }
+        ConversionEngine engine = RateSnapshotFile.read(file, registry);
+        for (int id = 1; id < defaults.size(); id++) {
+            String code = defaults.code(id);
+            assertEquals(code.equals("KES") ? kesRate : expected[id], engine.rateAt(registry.idOf(code)), code);
+        }
+    }
+
+    @Test
+    void truncatedFilesAndBadChecksumsAreRejected() throws IOException {
+        Path file = writeDefaults(1, DefaultRates.TIMESTAMP_MILLIS);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> RateSnapshotFile.read(file, DefaultRates.createRegistry()));
+        Files.write(file, Arrays.copyOf(bytes, 10));
+        assertThrows(IOException.class, () -> RateSnapshotFile.read(file, DefaultRates.createRegistry()));
+        byte[] flipped = bytes.clone();
+        flipped[bytes.length - Integer.BYTES - 1] ^= 1;
+        Files.write(file, flipped);
+        assertThrows(IOException.class, () -> RateSnapshotFile.read(file, DefaultRates.createRegistry()));
+    }
+
+    @Test
+    void codeWithALetterPastZIsRejectedEvenWithAValidChecksum() throws IOException {
+        Path file = writeDefaults(7, DefaultRates.TIMESTAMP_MILLIS);
+        byte[] bytes = Files.readAllBytes(file);
+        // Last letter 26 is in 15 bits but is not A-Z
+        ByteBuffer.wrap(bytes).putInt(CODES_OFFSET + Integer.BYTES, CurrencyRegistry.pack("KEZ") + 1);
+        rewriteChecksum(bytes);
+        Files.write(file, bytes);
+        CurrencyRegistry registry = DefaultRates.createRegistry();
+        assertThrows(IOException.class, () -> RateSnapshotFile.read(file, registry));
+        // Nothing was registered before the entry was found bad
+        assertEquals(DefaultRates.createRegistry().size(), registry.size());
+        // The applications fall back to the bundled rates instead of failing to start
+        assertEquals(1, RateSnapshotFile.loadEngine(file).snapshot().version());
+    }
+
+    @Test
+    void nonPositiveRatesAreRejected() throws IOException {
+        Path file = writeDefaults(1, DefaultRates.TIMESTAMP_MILLIS);
+        byte[] bytes = Files.readAllBytes(file);
+        int count = ByteBuffer.wrap(bytes).getInt(CODES_OFFSET - Integer.BYTES);
+        ByteBuffer.wrap(bytes).putLong(CODES_OFFSET + count * Integer.BYTES, 0);
+        rewriteChecksum(bytes);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> RateSnapshotFile.read(file, DefaultRates.createRegistry()));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * SharedRateTableTest - Publishing to and syncing from the shared table within one JVM.
+ */
+class SharedRateTableTest {
+    static final long PUBLISHED = DefaultRates.TIMESTAMP_MILLIS + 3_600_000L;
+    // Header and record layout, as documented in SharedRateTable
+    static final int HEADER_BYTES = 64;
+    static final int TABLE_SEQUENCE = 8;
+    static final int RECORD_BYTES = 32;
+
+    @TempDir
+    Path dir;
+
+    private static void writeLong(Path file, long offset, long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder()).putLong(0, value);
+            channel.write(buffer, offset);
+        }
+    }
+
+    @Test
+    void readerTakesTheWritersVersionAndPublishTime() throws IOException {
+        Path file = dir.resolve("rates.shared");
+        ConversionEngine writerEngine = DefaultRates.createEngine();
+        ConversionEngine readerEngine = DefaultRates.createEngine();
+        int kes = writerEngine.registry().idOf("KES");
+        assertTrue(writerEngine.syncRates(new int[] {kes}, new long[] {130_000_000}, 1, 5, PUBLISHED));
+        try (SharedRateTable writer = SharedRateTable.open(file);
+                SharedRateTable reader = SharedRateTable.open(file)) {
+            assertTrue(writer.isWriter());
+            assertFalse(reader.isWriter());
+            assertThrows(IllegalStateException.class,
+                    () -> reader.publish(readerEngine.registry(), readerEngine.snapshot()));
+            writer.publish(writerEngine.registry(), writerEngine.snapshot());
+
+            assertTrue(reader.syncTo(readerEngine));
+            assertEquals(5, readerEngine.snapshot().version());
+            assertEquals(PUBLISHED, readerEngine.snapshot().timestampMillis());
+            assertEquals(130_000_000, readerEngine.rateAt(kes));
+            // Nothing published since
+            assertFalse(reader.syncTo(readerEngine));
+
+            RateDelta delta = writerEngine.updateRates(new int[] {kes}, new long[] {131_000_000}, 1);
+            writer.publish(writerEngine.registry(), delta);
+            assertEquals(writer.sequence(), reader.sequence());
+            assertTrue(reader.syncTo(readerEngine));
+            assertEquals(6, readerEngine.snapshot().version());
+            assertEquals(delta.timestampMillis(), readerEngine.snapshot().timestampMillis());
+            assertEquals(131_000_000, readerEngine.rateAt(kes));
+            assertEquals(131_000_000, reader.rate(CurrencyRegistry.pack("KES")));
+        }
+    }
+
+    @Test
+    void engineAlreadyNewerThanTheTableKeepsItsRates() throws IOException {
+        Path file = dir.resolve("rates.shared");
+        ConversionEngine writerEngine = DefaultRates.createEngine();
+        ConversionEngine readerEngine = DefaultRates.createEngine();
+        int kes = readerEngine.registry().idOf("KES");
+        readerEngine.syncRates(new int[] {kes}, new long[] {125_000_000}, 1, 9, PUBLISHED);
+        try (SharedRateTable writer = SharedRateTable.openWriter(file);
+                SharedRateTable reader = SharedRateTable.openReader(file)) {
+            writer.publish(writerEngine.registry(), writerEngine.snapshot());
+            assertFalse(reader.syncTo(readerEngine));
+            assertEquals(9, readerEngine.snapshot().version());
+            assertEquals(125_000_000, readerEngine.rateAt(kes));
+        }
+    }
+
+    @Test
+    void reopeningTheWriterRepairsRecordsLeftMidWrite() throws IOException {
+        Path file = dir.resolve("rates.shared");
+        ConversionEngine engine = DefaultRates.createEngine();
+        int packed = CurrencyRegistry.pack("KES");
+        long recordOffset = HEADER_BYTES + (long) packed * RECORD_BYTES;
+        long sequence;
+        try (SharedRateTable writer = SharedRateTable.openWriter(file)) {
+            writer.publish(engine.registry(), engine.snapshot());
+            sequence = writer.sequence();
+        }
+        // A writer that died between making the sequences odd and even again
+        writeLong(file, TABLE_SEQUENCE, sequence + 1);
+        writeLong(file, recordOffset, 3);
+        try (SharedRateTable writer = SharedRateTable.openWriter(file)) {
+            assertEquals(sequence + 2, writer.sequence());
+        }
+        try (SharedRateTable reader = SharedRateTable.openReader(file)) {
+            assertEquals(engine.rateAt(engine.registry().idOf("KES")), reader.rate(packed));
+            ConversionEngine readerEngine = DefaultRates.createEngine();
+            assertFalse(reader.syncTo(readerEngine));
+            assertEquals(engine.snapshot().version(), readerEngine.snapshot().version());
+        }
+    }
+
+    @Test
+    void readerRejectsFilesThatAreNotTables() throws IOException {
+        Path file = dir.resolve("rates.shared");
+        writeLong(file.resolveSibling("empty"), 0, 0);
+        assertThrows(IOException.class, () -> SharedRateTable.openReader(file.resolveSibling("empty")));
+        assertThrows(IOException.class, () -> SharedRateTable.openReader(file));
+    }
+}
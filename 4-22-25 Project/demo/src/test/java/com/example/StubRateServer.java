@@ -0,0 +1,225 @@
+package com.example;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * StubRateServer - A local stand-in for the rate provider, for trying refreshes
+ * without network access or an API key. Serves the latest-rates payload on
+ * http://127.0.0.1:PORT/latest/USD in the provider's format, with an ETag and
+ * Last-Modified that change whenever the payload does, answering 304 to requests
+ * that already have the current payload. Latency can be injected to try hedged
+ * refreshes against a slow provider.
+ *
+ * The tests start it on a free port. To run it by hand, build the test classes and
+ * point an application at it:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes com.example.StubRateServer 8089
+ *   java -Dcurrencyconverter.ratesUrl=http://127.0.0.1:8089/latest/USD com.example.CurrencyBeta
+ * </pre>
+ * A second stub on another port can stand in for the secondary provider, named with
+ * -Dcurrencyconverter.secondaryRatesUrl.
+ */
+public final class StubRateServer implements AutoCloseable {
+    static final String HOST = "127.0.0.1";
+    static final String PATH = "/latest/USD";
+
+    private final HttpServer server;
+    // Requests are served concurrently, so a delayed response does not hold up the others
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-rate-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile Payload payload;
+    private volatile int status = 200;
+    private volatile long latencyMillis;
+    private volatile double slowFraction;
+    private volatile long slowMillis;
+
+    private StubRateServer(HttpServer server, String json) {
+        this.server = server;
+        setPayload(json);
+    }
+
+    /**
+     * Starts a server on the loopback interface serving the bundled rates
+     * @param port port to listen on, or 0 for any free port
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public static StubRateServer start(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(HOST, port), 0);
+        ConversionEngine defaults = DefaultRates.createEngine();
+        StubRateServer stub = new StubRateServer(http, payload(defaults.registry(), defaults.snapshot()));
+        http.createContext(PATH, stub::handle);
+        http.setExecutor(stub.executor);
+        http.start();
+        return stub;
+    }
+
+    /**
+     * Builds a provider payload holding a snapshot's rates
+     * @param registry registry that assigned the snapshot's currency ids
+     * @param snapshot rates to serve
+     * @return JSON response body
+     */
+    public static String payload(CurrencyRegistry registry, RateSnapshot snapshot) {
+        StringBuilder json = new StringBuilder(32 * snapshot.size());
+        json.append("{\"success\":true,\"timestamp\":").append(snapshot.timestampMillis() / 1000)
+                .append(",\"base\":\"USD\",\"rates\":{");
+        for (int id = 0; id < snapshot.size(); id++) {
+            if (id > 0) {
+                json.append(',');
+            }
+            json.append('"').append(registry.code(id)).append("\":")
+                    .append(FixedPoint.toBigDecimal(snapshot.rateAt(id), ConversionEngine.RATE_SCALE).toPlainString());
+        }
+        return json.append("}}").toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        long delay = latencyMillis + (ThreadLocalRandom.current().nextDouble() < slowFraction ? slowMillis : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+                return;
+            }
+        }
+        Payload current = payload;
+        Headers request = exchange.getRequestHeaders();
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        exchange.getResponseHeaders().set("ETag", current.etag);
+        exchange.getResponseHeaders().set("Last-Modified", current.lastModified);
+        if (status == 200 && (ifNoneMatch != null ? ifNoneMatch.equals(current.etag)
+                : current.lastModified.equals(ifModifiedSince))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, current.body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(current.body);
+        }
+    }
+
+    /**
+     * Replaces the payload served from now on, with new validators
+     * @param json response body
+     */
+    public void setPayload(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        payload = new Payload(body, "\"" + Long.toHexString(crc.getValue()) + "-" + body.length + "\"",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+    }
+
+    /**
+     * Sets the HTTP status served from now on, to simulate provider failures
+     * @param statusCode HTTP status code
+     */
+    public void setStatus(int statusCode) {
+        status = statusCode;
+    }
+
+    /**
+     * Delays every response, simulating a provider's network and processing time
+     * @param millis delay added to each response
+     */
+    public void setLatency(long millis) {
+        latencyMillis = millis;
+    }
+
+    /**
+     * Makes a random share of responses slow, simulating a provider's tail latency
+     * @param fraction share of responses to delay, from 0 to 1
+     * @param millis extra delay for those responses
+     */
+    public void setSlowResponses(double fraction, long millis) {
+        slowMillis = millis;
+        slowFraction = fraction;
+    }
+
+    /**
+     * Gets the number of requests served
+     * @return request count
+     */
+    public int requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of requests answered with 304 Not Modified
+     * @return count of conditional hits
+     */
+    public int notModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Gets the address of the latest-rates endpoint
+     * @return endpoint URI
+     */
+    public URI uri() {
+        return URI.create("http://" + HOST + ":" + server.getAddress().getPort() + PATH);
+    }
+
+    /**
+     * Stops the server
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the stub until the process is stopped
+     * @param args optional port, default 8089
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        StubRateServer stub = start(args.length > 0 ? Integer.parseInt(args[0]) : 8089);
+        System.out.println("Serving rates on " + stub.uri());
+    }
+
+    /**
+     * A body with its validators
+     */
+    private static final class Payload {
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Payload(byte[] body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * TickRateTableTest - Per-currency ticks, concurrent reads and publishing from a fetcher.
+ */
+class TickRateTableTest {
+    static final long BASE = DefaultRates.TIMESTAMP_MILLIS;
+    static final int WRITES = 2_000_000;
+    static final int READERS = 3;
+
+    @Test
+    void readsMatchTheEngineItWasBuiltFrom() {
+        ConversionEngine engine = DefaultRates.createEngine();
+        TickRateTable ticks = TickRateTable.of(engine);
+        int kes = engine.registry().idOf("KES");
+        int bhd = engine.registry().idOf("BHD");
+        assertEquals(engine.rateAt(kes), ticks.rate(kes));
+        assertEquals(engine.snapshot().timestampMillis(), ticks.timestampMillis(kes));
+        assertEquals(engine.crossRate(kes, bhd), ticks.crossRate(kes, bhd));
+        assertEquals(engine.convert(12_345_678, kes, bhd, 2_500), ticks.convert(12_345_678, kes, bhd, 2_500));
+
+        ticks.update(kes, 131_000_000, BASE + 60_000);
+        long[] tick = new long[2];
+        ticks.readTick(kes, tick);
+        assertEquals(131_000_000, tick[0]);
+        assertEquals(BASE + 60_000, tick[1]);
+        RateDelta delta = ticks.publishTo(engine);
+        assertEquals(1, delta.size());
+        assertEquals(131_000_000, engine.rateAt(kes));
+        assertEquals(engine.crossRate(kes, bhd), ticks.crossRate(kes, bhd));
+    }
+
+    @Test
+    void concurrentReadersNeverSeeATornTick() throws Exception {
+        ConversionEngine engine = DefaultRates.createEngine();
+        TickRateTable ticks = TickRateTable.of(engine);
+        int kes = engine.registry().idOf("KES");
+        int bhd = engine.registry().idOf("BHD");
+        // Every write keeps rate == time - BASE for KES, and KES one write ahead of BHD
+        ticks.update(kes, 1, BASE + 1);
+        ticks.update(bhd, 1, BASE + 1);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(pool.submit(() -> {
+                    long[] tick = new long[2];
+                    long[] rates = new long[engine.registry().size()];
+                    int reads = 0;
+                    long last = 0;
+                    while (!done.get()) {
+                        ticks.readTick(kes, tick);
+                        assertEquals(tick[0], tick[1] - BASE, "torn tick");
+                        assertTrue(tick[0] >= last, "tick went backwards");
+                        last = tick[0];
+                        ticks.copyRates(rates);
+                        long ahead = rates[kes] - rates[bhd];
+                        assertTrue(ahead == 0 || ahead == 1, "torn copy " + rates[kes] + " " + rates[bhd]);
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+            Future<?> writer = pool.submit(() -> {
+                for (long i = 2; i <= WRITES; i++) {
+                    ticks.update(kes, i, BASE + i);
+                    ticks.update(bhd, i, BASE + i);
+                }
+                done.set(true);
+            });
+            writer.get(60, TimeUnit.SECONDS);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get(60, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            done.set(true);
+            pool.shutdownNow();
+        }
+        assertEquals(WRITES, ticks.rate(kes));
+        assertEquals(BASE + WRITES, ticks.timestampMillis(kes));
+    }
+
+    @Test
+    void fetcherWritesEachRefreshIntoTheTable() throws Exception {
+        try (StubRateServer server = StubRateServer.start(0)) {
+            server.setPayload(HttpRateProviderTest.RATES);
+            ConversionEngine engine = DefaultRates.createEngine();
+            TickRateTable ticks = TickRateTable.of(engine);
+            int kes = engine.registry().idOf("KES");
+            RateFetcher fetcher = new RateFetcher(engine, server.uri());
+            fetcher.setTickTable(ticks);
+            RateDelta delta = fetcher.refresh().get(10, TimeUnit.SECONDS);
+
+            long[] tick = new long[2];
+            ticks.readTick(kes, tick);
+            assertEquals(140_250_000, tick[0]);
+            assertEquals(delta.timestampMillis(), tick[1]);
+            long[] expected = engine.snapshot().copyRates();
+            long[] actual = new long[expected.length];
+            ticks.copyRates(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * VectorBatchKernelTest - The Vector API batch kernel against the scalar kernel.
+ * Surefire runs with --add-modules jdk.incubator.vector, so the vector path is taken.
+ */
+class VectorBatchKernelTest {
+    static final long CROSS_ONE = FixedPoint.pow10(ConversionEngine.CROSS_SCALE);
+    static final int COUNT = 4099;
+
+    private static long[] scalar(long[] amounts, long rate, RoundingMode mode) {
+        long[] expected = new long[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            expected[i] = FixedPoint.mulDiv(amounts[i], rate, CROSS_ONE, mode);
+        }
+        return expected;
+    }
+
+    private static long[] vector(long[] amounts, long rate, RoundingMode mode) {
+        long[] results = new long[amounts.length];
+        int tail = VectorBatchKernel.convertRange(amounts, rate, mode, results, 0, amounts.length);
+        for (int i = tail; i < amounts.length; i++) {
+            results[i] = ConversionEngine.applyCrossRate(amounts[i], rate, mode);
+        }
+        return results;
+    }
+
+    private static void assertSameAsScalar(long[] amounts, long rate) {
+        for (RoundingMode mode : RoundingMode.values()) {
+            if (VectorBatchKernel.supports(mode)) {
+                assertArrayEquals(scalar(amounts, rate, mode), vector(amounts, rate, mode),
+                        "rate " + rate + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void vectorKernelIsAvailable() {
+        assertTrue(ConversionEngine.VECTOR_KERNEL, "surefire must run with --add-modules jdk.incubator.vector");
+    }
+
+    @Test
+    void randomAmountsMatchTheScalarKernel() {
+        Random random = new Random(6);
+        for (int round = 0; round < 50; round++) {
+            // Rates from 10^-6 to 10^6 units per unit, amounts from cents to the long range
+            long rate = 1 + (random.nextLong() >>> 1) % (CROSS_ONE * 1_000_000L);
+            long limit = Math.max(1, Long.MAX_VALUE / Math.max(1, rate / CROSS_ONE + 1) >> random.nextInt(40));
+            long[] amounts = new long[COUNT];
+            for (int i = 0; i < COUNT; i++) {
+                amounts[i] = (random.nextLong() >>> 1) % limit;
+            }
+            assertSameAsScalar(amounts, rate);
+        }
+    }
+
+    @Test
+    void exactHalvesRoundLikeTheScalarKernel() {
+        long[] amounts = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            amounts[i] = i;
+        }
+        // Every odd amount times one half leaves a remainder of exactly half the divisor
+        assertSameAsScalar(amounts, CROSS_ONE / 2);
+        assertSameAsScalar(amounts, CROSS_ONE * 5 / 2);
+        assertSameAsScalar(amounts, CROSS_ONE / 1000 + 1);
+    }
+
+    @Test
+    void quotientsNearTheLongRangeMatchTheScalarKernel() {
+        long[] amounts = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            amounts[i] = Long.MAX_VALUE - i * 1_000_003L;
+        }
+        assertSameAsScalar(amounts, CROSS_ONE);
+        assertSameAsScalar(amounts, CROSS_ONE / 3);
+        assertSameAsScalar(amounts, CROSS_ONE - 1);
+    }
+
+    @Test
+    void negativeAmountsFallBackToTheScalarKernel() {
+        Random random = new Random(7);
+        long[] amounts = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            amounts[i] = random.nextInt(2_000_000_000) - 1_000_000_000L;
+        }
+        assertSameAsScalar(amounts, 7_751_234_567L);
+    }
+
+    @Test
+    void overflowIsReportedLikeTheScalarKernel() {
+        long[] amounts = new long[COUNT];
+        amounts[COUNT / 2] = Long.MAX_VALUE;
+        assertThrows(ArithmeticException.class,
+                () -> VectorBatchKernel.convertRange(amounts, 2 * CROSS_ONE, RoundingMode.HALF_EVEN,
+                        new long[COUNT], 0, COUNT));
+    }
+
+    @Test
+    void singlePairBatchMatchesThePerPairBatch() {
+        ConversionEngine engine = DefaultRates.createEngine();
+        Random random = new Random(8);
+        long[] amounts = new long[COUNT];
+        int[] fromIds = new int[COUNT];
+        int[] toIds = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            amounts[i] = random.nextInt(100_000_000);
+        }
+        for (int from = 0; from < engine.size(); from += 7) {
+            for (int to = 0; to < engine.size(); to += 5) {
+                Arrays.fill(fromIds, from);
+                Arrays.fill(toIds, to);
+                long[] single = new long[COUNT];
+                long[] perPair = new long[COUNT];
+                engine.convertBatch(amounts, from, to, 25_000, single, 1, COUNT);
+                engine.convertBatch(amounts, fromIds, toIds, 25_000, perPair, 1, COUNT);
+                assertArrayEquals(perPair, single);
+                assertEquals(0, single[0]);
+            }
+        }
+    }
+}